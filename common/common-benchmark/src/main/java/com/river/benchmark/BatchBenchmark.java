@@ -0,0 +1,103 @@
+package com.river.benchmark;
+
+import com.river.util.redis.BatchItem;
+import com.river.util.redis.BatchResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * create by river  2018/6/22
+ * desc: 逐个访问与批量(管道)访问的对比 每次调用处理 batchSize 个 key, 结果为一批的耗时
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchBenchmark extends RedisBenchmarkSupport {
+
+    private static final String STRING_TYPE = "batch-string";
+    private static final String HASH_TYPE = "batch-hash";
+    private static final String FIELD = "f";
+
+    @Param({"10", "100"})
+    public int batchSize;
+
+    @Override
+    protected void prepare() {
+        Map<String, String> fields = new HashMap<String, String>();
+        fields.put(FIELD, value);
+        for (int i = 0; i < KEY_COUNT; i++) {
+            redisManager.set(key(STRING_TYPE, i), value);
+            redisManager.hmset(key(HASH_TYPE, i), fields);
+        }
+    }
+
+    private List<String> randomKeys(String type) {
+        List<String> keys = new ArrayList<String>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            keys.add(key(type, randomIndex()));
+        }
+        return keys;
+    }
+
+    @Benchmark
+    public void loopGet(Blackhole blackhole) {
+        for (String key : randomKeys(STRING_TYPE)) {
+            blackhole.consume(redisManager.get(key));
+        }
+    }
+
+    @Benchmark
+    public List<BatchResult<String>> batchGet() {
+        return redisManager.batchGet(randomKeys(STRING_TYPE));
+    }
+
+    @Benchmark
+    public void loopSet(Blackhole blackhole) {
+        for (String key : randomKeys(STRING_TYPE)) {
+            blackhole.consume(redisManager.set(key, value, 3600));
+        }
+    }
+
+    @Benchmark
+    public List<BatchResult<Boolean>> batchSet() {
+        List<BatchItem> items = new ArrayList<BatchItem>(batchSize);
+        for (String key : randomKeys(STRING_TYPE)) {
+            items.add(new BatchItem(key, value, 3600));
+        }
+        return redisManager.batchSet(items);
+    }
+
+    @Benchmark
+    public void loopHget(Blackhole blackhole) {
+        for (String key : randomKeys(HASH_TYPE)) {
+            blackhole.consume(redisManager.hget(key, FIELD));
+        }
+    }
+
+    @Benchmark
+    public List<BatchResult<String>> batchHget() {
+        List<BatchItem> items = new ArrayList<BatchItem>(batchSize);
+        for (String key : randomKeys(HASH_TYPE)) {
+            items.add(new BatchItem(key, FIELD));
+        }
+        return redisManager.batchHget(items);
+    }
+}
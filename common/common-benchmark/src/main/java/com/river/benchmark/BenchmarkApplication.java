@@ -0,0 +1,15 @@
+package com.river.benchmark;
+
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * create by river  2018/6/22
+ * desc: 压测使用的 spring 上下文 只加载 redis 访问层, 与线上使用同一套 RedisConfig 和 RedisManagerImpl
+ */
+@Configuration
+@EnableAutoConfiguration
+@ComponentScan(basePackages = "com.river.util.redis")
+public class BenchmarkApplication {
+}
@@ -0,0 +1,71 @@
+package com.river.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * create by river  2018/6/22
+ * desc: hash 读写 每个 key 有 FIELD_COUNT 个字段
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashBenchmark extends RedisBenchmarkSupport {
+
+    private static final String TYPE = "hash";
+    private static final int FIELD_COUNT = 16;
+
+    @Override
+    protected void prepare() {
+        Map<String, String> fields = new HashMap<String, String>();
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            fields.put(field(i), value);
+        }
+        for (int i = 0; i < KEY_COUNT; i++) {
+            redisManager.hmset(key(TYPE, i), fields);
+        }
+    }
+
+    private static String field(int index) {
+        return "f" + index;
+    }
+
+    private static String randomField() {
+        return field(ThreadLocalRandom.current().nextInt(FIELD_COUNT));
+    }
+
+    @Benchmark
+    public String hget() {
+        return redisManager.hget(key(TYPE, randomIndex()), randomField());
+    }
+
+    @Benchmark
+    public boolean hset() {
+        return redisManager.hset(key(TYPE, randomIndex()), randomField(), value);
+    }
+
+    @Benchmark
+    public boolean hsetWithTime() {
+        return redisManager.hset(key(TYPE, randomIndex()), randomField(), value, 3600);
+    }
+
+    @Benchmark
+    public Map<Object, Object> hmget() {
+        return redisManager.hmget(key(TYPE, randomIndex()));
+    }
+}
@@ -0,0 +1,125 @@
+package com.river.benchmark;
+
+import com.river.util.redis.RedisManager;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * create by river  2018/6/22
+ * desc: 压测公共部分 启动 redis 和 spring 上下文, 准备测试数据
+ * 默认在本机启动一个内嵌 redis, 指定 -Dbench.redis.host=xxx (-Dbench.redis.port=6379) 时改为压测该 redis
+ * codec: jdk-legacy 原有的 JDK 序列化(key 和值都按 JDK 序列化, 与老版本的格式相同), tagged 带编码标识的序列化, tagged-deflate 带标识且超过 1KB 压缩
+ */
+@State(Scope.Benchmark)
+public abstract class RedisBenchmarkSupport {
+
+    /**
+     * 每种数据预先写入的 key 个数
+     */
+    protected static final int KEY_COUNT = 1024;
+    protected static final String KEY_PREFIX = "bench:";
+
+    @Param({"tagged", "tagged-deflate", "jdk-legacy"})
+    public String codec;
+
+    @Param({"16", "1024", "16384"})
+    public int valueSize;
+
+    protected RedisManager redisManager;
+    protected String value;
+
+    private RedisServer redisServer;
+    private ConfigurableApplicationContext context;
+
+    @Setup(Level.Trial)
+    public void startRedis() throws IOException {
+        String host = System.getProperty("bench.redis.host");
+        int port = Integer.getInteger("bench.redis.port", 6379);
+        if (host == null) {
+            host = "127.0.0.1";
+            port = freePort();
+            redisServer = RedisServer.builder().port(port).setting("bind 127.0.0.1").setting("save \"\"")
+                    .setting("appendonly no").build();
+            redisServer.start();
+        }
+        List<String> args = new ArrayList<String>();
+        args.add("--spring.main.banner-mode=off");
+        args.add("--logging.level.root=WARN");
+        args.add("--spring.redis.host=" + host);
+        args.add("--spring.redis.port=" + port);
+        if ("jdk-legacy".equals(codec)) {
+            args.add("--redis.codec.legacy-write=true");
+        } else if ("tagged".equals(codec)) {
+            args.add("--redis.codec.compress-threshold=0");
+        } else if ("tagged-deflate".equals(codec)) {
+            args.add("--redis.codec.compress-threshold=1024");
+        } else {
+            throw new IllegalArgumentException("不支持的 codec=" + codec);
+        }
+        context = new SpringApplicationBuilder(BenchmarkApplication.class).web(false)
+                .run(args.toArray(new String[args.size()]));
+        redisManager = context.getBean(RedisManager.class);
+        value = value(valueSize);
+        prepare();
+    }
+
+    /**
+     * 写入测试数据
+     */
+    protected abstract void prepare();
+
+    @TearDown(Level.Trial)
+    public void stopRedis() {
+        if (context != null) {
+            context.close();
+        }
+        if (redisServer != null) {
+            redisServer.stop();
+        }
+    }
+
+    protected static String key(String type, int index) {
+        return KEY_PREFIX + type + ":" + index;
+    }
+
+    protected static int randomIndex() {
+        return ThreadLocalRandom.current().nextInt(KEY_COUNT);
+    }
+
+    /**
+     * 生成类似业务数据的值 由少量单词随机组成, 有一定重复, 可以被压缩
+     */
+    private static String value(int size) {
+        String[] words = {"river", "user", "order", "12345", "status", "true", "amount", "2018-06-22", "\"", ",", ":"};
+        Random random = new Random(size);
+        StringBuilder builder = new StringBuilder(size + 16);
+        while (builder.length() < size) {
+            builder.append(words[random.nextInt(words.length)]);
+        }
+        builder.setLength(size);
+        return builder.toString();
+    }
+
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.river.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * create by river  2018/6/22
+ * desc: 压测入口 java -jar target/benchmarks.jar [JMH 参数]
+ * 参数与 JMH 自带的入口相同, 例如只跑字符串读取的小值: java -jar target/benchmarks.jar StringBenchmark.get -p valueSize=16
+ * 未指定 -rf 时结果以 JSON 格式写入 jmh-result.json, 可以用 JMH Visualizer 等工具对比不同版本
+ */
+public class RedisBenchmarks {
+
+    private static final String DEFAULT_RESULT = "jmh-result.json";
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON).result(commandLine.getResult().orElse(DEFAULT_RESULT));
+        }
+        new Runner(options.build()).run();
+    }
+}
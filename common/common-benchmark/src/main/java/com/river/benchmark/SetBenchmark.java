@@ -0,0 +1,68 @@
+package com.river.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * create by river  2018/6/22
+ * desc: set 读写 每个 key 有 MEMBER_COUNT 个成员
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SetBenchmark extends RedisBenchmarkSupport {
+
+    private static final String TYPE = "set";
+    private static final int MEMBER_COUNT = 16;
+
+    private String[] members;
+
+    @Override
+    protected void prepare() {
+        members = new String[MEMBER_COUNT];
+        for (int i = 0; i < MEMBER_COUNT; i++) {
+            members[i] = i + value.substring(String.valueOf(i).length());
+        }
+        for (int i = 0; i < KEY_COUNT; i++) {
+            redisManager.sSet(key(TYPE, i), members);
+        }
+    }
+
+    private String randomMember() {
+        return members[ThreadLocalRandom.current().nextInt(MEMBER_COUNT)];
+    }
+
+    @Benchmark
+    public boolean sHasKey() {
+        return redisManager.sHasKey(key(TYPE, randomIndex()), randomMember());
+    }
+
+    @Benchmark
+    public long sSet() {
+        return redisManager.sSet(key(TYPE, randomIndex()), randomMember());
+    }
+
+    @Benchmark
+    public long sSetAndTime() {
+        return redisManager.sSetAndTime(key(TYPE, randomIndex()), 3600, randomMember());
+    }
+
+    @Benchmark
+    public Set<String> sGet() {
+        return redisManager.sGet(key(TYPE, randomIndex()));
+    }
+}
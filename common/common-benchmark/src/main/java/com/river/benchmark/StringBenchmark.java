@@ -0,0 +1,50 @@
+package com.river.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * create by river  2018/6/22
+ * desc: 字符串读写
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StringBenchmark extends RedisBenchmarkSupport {
+
+    private static final String TYPE = "string";
+
+    @Override
+    protected void prepare() {
+        for (int i = 0; i < KEY_COUNT; i++) {
+            redisManager.set(key(TYPE, i), value);
+        }
+    }
+
+    @Benchmark
+    public String get() {
+        return redisManager.get(key(TYPE, randomIndex()));
+    }
+
+    @Benchmark
+    public boolean set() {
+        return redisManager.set(key(TYPE, randomIndex()), value);
+    }
+
+    @Benchmark
+    public boolean setWithTime() {
+        return redisManager.set(key(TYPE, randomIndex()), value, 3600);
+    }
+}
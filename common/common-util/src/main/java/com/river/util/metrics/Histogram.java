@@ -0,0 +1,137 @@
+package com.river.util.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * create by river  2018/6/20
+ * desc: 固定分桶的直方图 记录只做一次二分查找和一次 LongAdder 累加, 无锁无分配
+ * 输出为 Prometheus histogram 格式, 同时可以按桶内线性插值估算分位数
+ */
+public class Histogram {
+
+    /**
+     * 耗时分桶(纳秒) 50us ~ 10s
+     */
+    public static final long[] LATENCY_BOUNDS = {
+            50000L, 100000L, 200000L, 400000L, 700000L,
+            1000000L, 1500000L, 2000000L, 3000000L, 5000000L, 7500000L,
+            10000000L, 15000000L, 25000000L, 50000000L, 100000000L, 250000000L, 500000000L,
+            1000000000L, 2500000000L, 5000000000L, 10000000000L};
+
+    /**
+     * 大小分桶(字节) 64B ~ 16MB
+     */
+    public static final long[] SIZE_BOUNDS = {
+            64L, 256L, 1024L, 4096L, 16384L, 65536L, 262144L, 1048576L, 4194304L, 16777216L};
+
+    private final long[] bounds;
+    /**
+     * 最后一个为 +Inf 桶
+     */
+    private final LongAdder[] buckets;
+    private final LongAdder sum = new LongAdder();
+
+    public Histogram(long[] bounds) {
+        this.bounds = bounds;
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long value) {
+        int low = 0;
+        int high = bounds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (bounds[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        buckets[low].increment();
+        sum.add(value);
+    }
+
+    public long count() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    /**
+     * 估算分位数 落在 +Inf 桶时返回最大的边界
+     * @param quantile 0~1
+     * @return 估算值 没有数据时返回0
+     */
+    public double quantile(double quantile) {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        double rank = quantile * total;
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (seen + counts[i] >= rank && counts[i] > 0) {
+                if (i == bounds.length) {
+                    return bounds[bounds.length - 1];
+                }
+                double lower = i == 0 ? 0 : bounds[i - 1];
+                return lower + (bounds[i] - lower) * ((rank - seen) / counts[i]);
+            }
+            seen += counts[i];
+        }
+        return bounds[bounds.length - 1];
+    }
+
+    /**
+     * 按 Prometheus histogram 格式输出 _bucket/_sum/_count
+     * @param out    输出
+     * @param name   指标名
+     * @param labels 标签 例如 op="get" 可以为空
+     * @param scale  输出时除以的倍数 纳秒输出为秒时为 1e9
+     */
+    public void write(StringBuilder out, String name, String labels, double scale) {
+        String prefix = labels == null || labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += buckets[i].sum();
+            out.append(name).append("_bucket{").append(prefix).append("le=\"")
+                    .append(format(bounds[i] / scale)).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += buckets[bounds.length].sum();
+        out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        String suffix = prefix.isEmpty() ? " " : "{" + labels + "} ";
+        out.append(name).append("_sum").append(suffix).append(format(sum.sum() / scale)).append('\n');
+        out.append(name).append("_count").append(suffix).append(cumulative).append('\n');
+    }
+
+    public static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * 转义标签值
+     */
+    public static String escape(String value) {
+        if (value.indexOf('\\') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,14 @@
+package com.river.util.metrics;
+
+/**
+ * create by river  2018/6/20
+ * desc: 指标来源, 由 metrics 接口统一收集并按 Prometheus 文本格式输出
+ */
+public interface MetricsSource {
+
+    /**
+     * 以 Prometheus 文本格式输出当前指标
+     * @param out 输出
+     */
+    void writeMetrics(StringBuilder out);
+}
@@ -0,0 +1,244 @@
+package com.river.util.redis;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * RedisManager 的异步版本, 命令发出后立即返回, 不占用调用线程
+ * 回调在 redis 客户端的 IO 线程上执行, 耗时的后续处理请使用 thenApplyAsync 等方法切换到业务线程池
+ * 失败时 future 以 ServiceException 异常完成
+ *
+ * @author river
+ */
+public interface AsyncRedisManager {
+
+
+    /**
+     * 指定缓存失效时间
+     * @param key 键
+     * @param time 时间(秒) time小于等于0 将设置无限期
+     * @return true 成功 false key不存在
+     */
+    CompletableFuture<Boolean> expire(String key, long time);
+
+    /**
+     * 获取key过期时间
+     * @param key
+     * @return 时间(秒)
+     */
+    CompletableFuture<Long> getExpire(String key);
+
+    /**
+     * 判断key是否存在
+     * @param key
+     * @return
+     */
+    CompletableFuture<Boolean> hasKey(String key);
+
+    /**
+     * 删除缓存
+     * @param keys
+     * @return 删除的个数
+     */
+    CompletableFuture<Long> del(List<String> keys);
+
+    /**
+     * 普通缓存获取
+     * @param key 键
+     * @return 值
+     */
+    CompletableFuture<String> get(String key);
+
+    /**
+     * 普通缓存放入
+     * @param key 键
+     * @param value 值
+     * @return true成功
+     */
+    CompletableFuture<Boolean> set(String key, String value);
+
+    /**
+     * 普通缓存放入并设置时间
+     * @param key 键
+     * @param value 值
+     * @param time 时间(秒) time要大于0 如果time小于等于0 将设置无限期
+     * @return true成功
+     */
+    CompletableFuture<Boolean> set(String key, String value, long time);
+
+    /**
+     * 递增
+     * @param key 键
+     * @param delta 要增加几(大于0)
+     * @return 递增后的值
+     */
+    CompletableFuture<Long> incr(String key, long delta);
+
+    /**
+     * 递减
+     * @param key 键
+     * @param delta 要减少几(大于0)
+     * @return 递减后的值
+     */
+    CompletableFuture<Long> decr(String key, long delta);
+
+    /**
+     * HashGet
+     * @param key 键 不能为null
+     * @param item 项 不能为null
+     * @return 值
+     */
+    CompletableFuture<String> hget(String key, String item);
+
+    /**
+     * 获取hashKey对应的所有键值
+     * @param key 键
+     * @return 对应的多个键值
+     */
+    CompletableFuture<Map<Object, Object>> hmget(String key);
+
+    /**
+     * HashSet
+     * @param key 键
+     * @param map 对应多个键值
+     * @return true 成功
+     */
+    CompletableFuture<Boolean> hmset(String key, Map<String, String> map);
+
+    /**
+     * HashSet 并设置时间
+     * @param key 键
+     * @param map 对应多个键值
+     * @param time 时间(秒)
+     * @return true成功
+     */
+    CompletableFuture<Boolean> hmset(String key, Map<String, String> map, long time);
+
+    /**
+     * 向一张hash表中放入数据,如果不存在将创建
+     * @param key 键
+     * @param item 项
+     * @param value 值
+     * @return true 成功
+     */
+    CompletableFuture<Boolean> hset(String key, String item, String value);
+
+    /**
+     * 向一张hash表中放入数据,如果不存在将创建
+     * @param key 键
+     * @param item 项
+     * @param value 值
+     * @param time 时间(秒)  注意:如果已存在的hash表有时间,这里将会替换原有的时间
+     * @return true 成功
+     */
+    CompletableFuture<Boolean> hset(String key, String item, String value, long time);
+
+    /**
+     * 删除hash表中的值
+     * @param key 键 不能为null
+     * @param item 项 可以使多个 不能为null
+     * @return 删除的个数
+     */
+    CompletableFuture<Long> hdel(String key, String... item);
+
+    /**
+     * 判断hash表中是否有该项的值
+     * @param key 键 不能为null
+     * @param item 项 不能为null
+     * @return true 存在 false不存在
+     */
+    CompletableFuture<Boolean> hHasKey(String key, String item);
+
+    /**
+     * hash递增 如果不存在,就会创建一个 并把新增后的值返回
+     * @param key 键
+     * @param item 项
+     * @param by 要增加几(大于0)
+     * @return
+     */
+    CompletableFuture<Double> hincr(String key, String item, double by);
+
+    //============================set=============================
+    /**
+     * 根据key获取Set中的所有值
+     * @param key 键
+     * @return
+     */
+    CompletableFuture<Set<String>> sGet(String key);
+
+    /**
+     * 根据value从一个set中查询,是否存在
+     * @param key 键
+     * @param value 值
+     * @return true 存在 false不存在
+     */
+    CompletableFuture<Boolean> sHasKey(String key, String value);
+
+    /**
+     * 将数据放入set缓存
+     * @param key 键
+     * @param values 值 可以是多个
+     * @return 成功个数
+     */
+    CompletableFuture<Long> sSet(String key, String... values);
+
+    /**
+     * 获取set缓存的长度
+     * @param key 键
+     * @return
+     */
+    CompletableFuture<Long> sGetSetSize(String key);
+
+    /**
+     * 移除值为value的
+     * @param key 键
+     * @param values 值 可以是多个
+     * @return 移除的个数
+     */
+    CompletableFuture<Long> setRemove(String key, String... values);
+
+    //===============================list=================================
+
+    /**
+     * 获取list缓存的内容
+     * @param key 键
+     * @param start 开始
+     * @param end 结束  0 到 -1代表所有值
+     * @return
+     */
+    CompletableFuture<List<String>> lGet(String key, long start, long end);
+
+    /**
+     * 获取list缓存的长度
+     * @param key 键
+     * @return
+     */
+    CompletableFuture<Long> lGetListSize(String key);
+
+    /**
+     * 通过索引 获取list中的值
+     * @param key 键
+     * @param index 索引  index>=0时， 0 表头，1 第二个元素，依次类推；index<0时，-1，表尾，-2倒数第二个元素，依次类推
+     * @return
+     */
+    CompletableFuture<String> lGetIndex(String key, long index);
+
+    /**
+     * 将list放入缓存
+     * @param key 键
+     * @param values 值 可以是多个
+     * @return 放入后list的长度
+     */
+    CompletableFuture<Long> lSet(String key, String... values);
+
+    /**
+     * 移除N个值为value
+     * @param key 键
+     * @param count 移除多少个
+     * @param value 值
+     * @return 移除的个数
+     */
+    CompletableFuture<Long> lRemove(String key, long count, String value);
+}
@@ -0,0 +1,625 @@
+package com.river.util.redis;
+
+import com.river.util.exception.ServiceException;
+import com.river.util.res.ResCodeEnum;
+import io.lettuce.core.KeyValue;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * create by river  2018/6/8
+ * desc: 基于 lettuce 非阻塞连接的 AsyncRedisManager 实现
+ * 序列化方式与 redisTemplate 保持一致, 同步和异步读写的是同一份数据
+ * 写入完成后与同步实现一样失效本地缓存并通知其他节点, 通知通过 lettuce 连接异步发送
+ * 开启分块存储时普通缓存的读写与同步实现一样按 ChunkedValueStore 的格式分块
+ *
+ * @author river
+ */
+@Service
+@ConditionalOnProperty(name = "redis.async.enabled", havingValue = "true")
+public class AsyncRedisManagerImpl implements AsyncRedisManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncRedisManagerImpl.class);
+
+    @Resource
+    private StatefulRedisConnection<byte[], byte[]> asyncRedisConnection;
+
+    @Resource
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Autowired(required = false)
+    private RedisMetrics redisMetrics;
+
+    @Resource
+    private RedisAuditLogger redisAuditLogger;
+
+    @Resource
+    private ChunkedValueStore chunkedValueStore;
+
+    /**
+     * 本地一级缓存 未开启时为null
+     */
+    @Autowired(required = false)
+    private NearCache nearCache;
+
+    /**
+     * 热点 key 识别 未开启时为null
+     */
+    @Autowired(required = false)
+    private HotKeyDetector hotKeyDetector;
+
+    private RedisAsyncCommands<byte[], byte[]> commands;
+    private RedisSerializer<String> keySerializer;
+    private RedisSerializer<String> valueSerializer;
+    private RedisSerializer<String> hashKeySerializer;
+    private RedisSerializer<String> hashValueSerializer;
+
+    private final Function<byte[], String> deserializeValue = new Function<byte[], String>() {
+        @Override
+        public String apply(byte[] raw) {
+            return valueSerializer.deserialize(raw);
+        }
+    };
+
+    private final Function<byte[], String> deserializeHashValue = new Function<byte[], String>() {
+        @Override
+        public String apply(byte[] raw) {
+            return hashValueSerializer.deserialize(raw);
+        }
+    };
+
+    private final Function<String, Boolean> isOk = new Function<String, Boolean>() {
+        @Override
+        public Boolean apply(String status) {
+            return "OK".equals(status);
+        }
+    };
+
+    private final Function<Object, Boolean> done = new Function<Object, Boolean>() {
+        @Override
+        public Boolean apply(Object result) {
+            return Boolean.TRUE;
+        }
+    };
+
+    private final Function<Long, Boolean> exists = new Function<Long, Boolean>() {
+        @Override
+        public Boolean apply(Long count) {
+            return count != null && count > 0;
+        }
+    };
+
+    private final Function<List<KeyValue<byte[], byte[]>>, List<byte[]>> values = new Function<List<KeyValue<byte[], byte[]>>, List<byte[]>>() {
+        @Override
+        public List<byte[]> apply(List<KeyValue<byte[], byte[]>> keyValues) {
+            List<byte[]> values = new ArrayList<byte[]>(keyValues.size());
+            for (KeyValue<byte[], byte[]> keyValue : keyValues) {
+                values.add(keyValue.getValueOrElse(null));
+            }
+            return values;
+        }
+    };
+
+    @PostConstruct
+    @SuppressWarnings("unchecked")
+    public void init() {
+        commands = asyncRedisConnection.async();
+        keySerializer = (RedisSerializer<String>) redisTemplate.getKeySerializer();
+        valueSerializer = (RedisSerializer<String>) redisTemplate.getValueSerializer();
+        hashKeySerializer = (RedisSerializer<String>) redisTemplate.getHashKeySerializer();
+        hashValueSerializer = (RedisSerializer<String>) redisTemplate.getHashValueSerializer();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> expire(String key, long time) {
+        if (redisAuditLogger.isEnabled("async.expire")) {
+            redisAuditLogger.log("异步指定缓存失效时间 key={},time={} s", key, time);
+        }
+        if (time > 0) {
+            return complete("async.expire", key, commands.expire(rawKey(key), time), "指定缓存失效时间");
+        }
+        return completeWrite("async.expire", key, commands.persist(rawKey(key)), "指定缓存失效时间",
+                Collections.singletonList(key));
+    }
+
+    @Override
+    public CompletableFuture<Long> getExpire(String key) {
+        return complete("async.getExpire", key, commands.ttl(rawKey(key)), "获取key过期时间");
+    }
+
+    @Override
+    public CompletableFuture<Boolean> hasKey(String key) {
+        return complete("async.hasKey", key, commands.exists(rawKey(key)).thenApply(exists), "判断key是否存在");
+    }
+
+    @Override
+    public CompletableFuture<Long> del(List<String> keys) {
+        if (redisAuditLogger.isEnabled("async.del")) {
+            redisAuditLogger.log("异步删除缓存 size={}", keys.size());
+        }
+        byte[][] rawKeys = new byte[keys.size()][];
+        for (int i = 0; i < keys.size(); i++) {
+            rawKeys[i] = rawKey(keys.get(i));
+        }
+        return completeWrite("async.del", null, commands.del(rawKeys), "删除缓存", keys);
+    }
+
+    @Override
+    public CompletableFuture<String> get(String key) {
+        if (!chunkedValueStore.isEnabled()) {
+            return complete("async.get", key, commands.get(rawKey(key)).thenApply(deserializeValue), "普通缓存获取");
+        }
+        return complete("async.get", key, readChunked(key, 0).thenApply(deserializeValue), "普通缓存获取");
+    }
+
+    /**
+     * 与同步实现一样用 CHUNK_GET 读取, 分块存储的值的其余分块用 HMGET 读取, 读取期间值被替换时整体重读
+     */
+    private CompletableFuture<byte[]> readChunked(final String key, final int attempt) {
+        final byte[] rawKey = rawKey(key);
+        return this.<List<Object>>eval(ChunkedValueStore.CHUNK_GET, ScriptOutputType.MULTI, new byte[][]{rawKey},
+                chunkedValueStore.headArg()).thenCompose(new Function<List<Object>, CompletionStage<byte[]>>() {
+            @Override
+            public CompletionStage<byte[]> apply(List<Object> head) {
+                if (chunkedValueStore.isPlain(head)) {
+                    return CompletableFuture.completedFuture((byte[]) head.get(1));
+                }
+                return readChunks(key, rawKey, head, attempt);
+            }
+        });
+    }
+
+    /**
+     * 读取描述之后的分块并拼接
+     */
+    private CompletionStage<byte[]> readChunks(final String key, byte[] rawKey, final List<Object> head, final int attempt) {
+        List<byte[][]> groups = chunkedValueStore.remainingFields(head);
+        final List<CompletableFuture<List<byte[]>>> reads = new ArrayList<CompletableFuture<List<byte[]>>>(groups.size());
+        for (byte[][] fields : groups) {
+            reads.add(commands.hmget(rawKey, fields).thenApply(values).toCompletableFuture());
+        }
+        return CompletableFuture.allOf(reads.toArray(new CompletableFuture[reads.size()]))
+                .thenCompose(new Function<Void, CompletionStage<byte[]>>() {
+                    @Override
+                    public CompletionStage<byte[]> apply(Void ignored) {
+                        List<List<byte[]>> chunks = new ArrayList<List<byte[]>>(reads.size());
+                        for (CompletableFuture<List<byte[]>> read : reads) {
+                            chunks.add(read.join());
+                        }
+                        byte[] value = chunkedValueStore.assemble(head, chunks);
+                        if (value != null) {
+                            return CompletableFuture.completedFuture(value);
+                        }
+                        if (attempt + 1 >= ChunkedValueStore.MAX_RETRIES) {
+                            logger.error("分块读取期间值被反复替换 key={}", key);
+                            return failed(new ServiceException(ResCodeEnum.sys_error));
+                        }
+                        return readChunked(key, attempt + 1);
+                    }
+                });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> set(String key, String value) {
+        if (redisAuditLogger.isEnabled("async.set")) {
+            redisAuditLogger.log("异步普通缓存放入 key={}", key);
+        }
+        return completeWrite("async.set", key, write(key, valueSerializer.serialize(value), 0),
+                "普通缓存放入", Collections.singletonList(key));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> set(String key, String value, long time) {
+        if (time <= 0) {
+            return set(key, value);
+        }
+        if (redisAuditLogger.isEnabled("async.set")) {
+            redisAuditLogger.log("异步普通缓存放入并设置时间 key={},time={} s", key, time);
+        }
+        return completeWrite("async.set", key, write(key, valueSerializer.serialize(value), time),
+                "普通缓存放入并设置时间", Collections.singletonList(key));
+    }
+
+    /**
+     * 写入普通缓存 超过阈值时与同步接口一样分块存储
+     *
+     * @param time 时间(秒) 小于等于0 为无限期
+     */
+    private CompletionStage<Boolean> write(String key, byte[] raw, long time) {
+        if (chunkedValueStore.shouldChunk(raw)) {
+            return writeChunked(key, raw, time);
+        }
+        if (time > 0) {
+            return commands.setex(rawKey(key), time, raw).thenApply(isOk);
+        }
+        return commands.set(rawKey(key), raw).thenApply(isOk);
+    }
+
+    /**
+     * 分块写入 各分块写入临时 key 后由 CHUNK_COMMIT 替换原有的值, 失败时删除临时 key
+     */
+    private CompletionStage<Boolean> writeChunked(final String key, byte[] raw, long time) {
+        final byte[] rawTempKey = rawKey(chunkedValueStore.tempKey(key));
+        List<byte[][]> fields = chunkedValueStore.chunkFields(raw);
+        List<CompletableFuture<?>> writes = new ArrayList<CompletableFuture<?>>(fields.size() + 1);
+        for (int i = 0; i < fields.size(); i++) {
+            writes.add(commands.hset(rawTempKey, fields.get(i)[0], fields.get(i)[1]).toCompletableFuture());
+            if (i == 0) {
+                writes.add(commands.expire(rawTempKey, chunkedValueStore.getWriteTimeout()).toCompletableFuture());
+            }
+        }
+        final byte[][] keys = {rawTempKey, rawKey(key)};
+        final byte[] timeArg = String.valueOf(time).getBytes(StandardCharsets.UTF_8);
+        final CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[writes.size()]))
+                .thenCompose(new Function<Void, CompletionStage<Long>>() {
+                    @Override
+                    public CompletionStage<Long> apply(Void ignored) {
+                        return AsyncRedisManagerImpl.this.<Long>eval(ChunkedValueStore.CHUNK_COMMIT, ScriptOutputType.INTEGER,
+                                keys, timeArg);
+                    }
+                })
+                .whenComplete(new BiConsumer<Long, Throwable>() {
+                    @Override
+                    public void accept(Long committed, Throwable e) {
+                        if (e == null && committed != null && committed == 1) {
+                            result.complete(Boolean.TRUE);
+                            return;
+                        }
+                        commands.del(rawTempKey);
+                        result.completeExceptionally(e != null ? e
+                                : new ServiceException("分块写入超时 key=" + key));
+                    }
+                });
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<Long> incr(String key, long delta) {
+        if (delta < 0) {
+            return failed(new ServiceException("递增因子必须大于0"));
+        }
+        return completeWrite("async.incr", key, commands.incrby(rawKey(key), delta), "递增", Collections.singletonList(key));
+    }
+
+    @Override
+    public CompletableFuture<Long> decr(String key, long delta) {
+        if (delta < 0) {
+            return failed(new ServiceException("递减因子必须大于0"));
+        }
+        return completeWrite("async.decr", key, commands.incrby(rawKey(key), -delta), "递减", Collections.singletonList(key));
+    }
+
+    @Override
+    public CompletableFuture<String> hget(String key, String item) {
+        return complete("async.hget", key, commands.hget(rawKey(key), hashKeySerializer.serialize(item))
+                .thenApply(deserializeHashValue), "HashGet");
+    }
+
+    @Override
+    public CompletableFuture<Map<Object, Object>> hmget(String key) {
+        return complete("async.hmget", key, commands.hgetall(rawKey(key))
+                .thenApply(new Function<Map<byte[], byte[]>, Map<Object, Object>>() {
+                    @Override
+                    public Map<Object, Object> apply(Map<byte[], byte[]> raw) {
+                        Map<Object, Object> map = new LinkedHashMap<Object, Object>(raw.size());
+                        for (Map.Entry<byte[], byte[]> entry : raw.entrySet()) {
+                            map.put(hashKeySerializer.deserialize(entry.getKey()), hashValueSerializer.deserialize(entry.getValue()));
+                        }
+                        return map;
+                    }
+                }), "获取hashKey对应的所有键值");
+    }
+
+    @Override
+    public CompletableFuture<Boolean> hmset(String key, Map<String, String> map) {
+        return hmset(key, map, 0);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> hmset(String key, Map<String, String> map, long time) {
+        if (redisAuditLogger.isEnabled("async.hmset")) {
+            redisAuditLogger.log("异步HashSet key={},size={},time={} s", key, map.size(), time);
+        }
+        if (time > 0) {
+            byte[][] args = new byte[map.size() * 2][];
+            int i = 0;
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                args[i++] = hashKeySerializer.serialize(entry.getKey());
+                args[i++] = hashValueSerializer.serialize(entry.getValue());
+            }
+            return completeWrite("async.hmset", key, executeWithExpire(RedisScripts.HSET_AND_EXPIRE, key, time, args)
+                    .thenApply(done), "HashSet", Collections.singletonList(key));
+        }
+        Map<byte[], byte[]> raw = new LinkedHashMap<byte[], byte[]>(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            raw.put(hashKeySerializer.serialize(entry.getKey()), hashValueSerializer.serialize(entry.getValue()));
+        }
+        return completeWrite("async.hmset", key, commands.hmset(rawKey(key), raw).thenApply(isOk), "HashSet",
+                Collections.singletonList(key));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> hset(String key, String item, String value) {
+        return hset(key, item, value, 0);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> hset(String key, String item, String value, long time) {
+        if (redisAuditLogger.isEnabled("async.hset")) {
+            redisAuditLogger.log("异步向一张hash表中放入数据 key={},item={},time={} s", key, item, time);
+        }
+        byte[] rawItem = hashKeySerializer.serialize(item);
+        byte[] rawValue = hashValueSerializer.serialize(value);
+        CompletionStage<?> put = time > 0
+                ? executeWithExpire(RedisScripts.HSET_AND_EXPIRE, key, time, rawItem, rawValue)
+                : commands.hset(rawKey(key), rawItem, rawValue);
+        return completeWrite("async.hset", key, put.thenApply(done), "向一张hash表中放入数据",
+                Collections.singletonList(key));
+    }
+
+    @Override
+    public CompletableFuture<Long> hdel(String key, String... item) {
+        if (redisAuditLogger.isEnabled("async.hdel")) {
+            redisAuditLogger.log("异步删除hash表中的值 key={}", key);
+        }
+        byte[][] rawItems = new byte[item.length][];
+        for (int i = 0; i < item.length; i++) {
+            rawItems[i] = hashKeySerializer.serialize(item[i]);
+        }
+        return completeWrite("async.hdel", key, commands.hdel(rawKey(key), rawItems), "删除hash表中的值",
+                Collections.singletonList(key));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> hHasKey(String key, String item) {
+        return complete("async.hHasKey", key, commands.hexists(rawKey(key), hashKeySerializer.serialize(item)), "判断hash表中是否有该项的值");
+    }
+
+    @Override
+    public CompletableFuture<Double> hincr(String key, String item, double by) {
+        if (by < 0) {
+            return failed(new ServiceException("递增因子必须大于0"));
+        }
+        return completeWrite("async.hincr", key, commands.hincrbyfloat(rawKey(key), hashKeySerializer.serialize(item), by),
+                "hash递增", Collections.singletonList(key));
+    }
+
+    @Override
+    public CompletableFuture<Set<String>> sGet(String key) {
+        return complete("async.sGet", key, commands.smembers(rawKey(key)).thenApply(new Function<Set<byte[]>, Set<String>>() {
+            @Override
+            public Set<String> apply(Set<byte[]> raw) {
+                Set<String> members = new LinkedHashSet<String>(raw.size());
+                for (byte[] member : raw) {
+                    members.add(valueSerializer.deserialize(member));
+                }
+                return members;
+            }
+        }), "根据key获取Set中的所有值");
+    }
+
+    @Override
+    public CompletableFuture<Boolean> sHasKey(String key, String value) {
+        return complete("async.sHasKey", key, commands.sismember(rawKey(key), valueSerializer.serialize(value)), "根据value从一个set中查询");
+    }
+
+    @Override
+    public CompletableFuture<Long> sSet(String key, String... values) {
+        if (redisAuditLogger.isEnabled("async.sSet")) {
+            redisAuditLogger.log("异步将数据放入set缓存 key={},size={}", key, values.length);
+        }
+        return completeWrite("async.sSet", key, commands.sadd(rawKey(key), rawValues(values)), "将数据放入set缓存",
+                Collections.singletonList(key));
+    }
+
+    @Override
+    public CompletableFuture<Long> sGetSetSize(String key) {
+        return complete("async.sGetSetSize", key, commands.scard(rawKey(key)), "获取set缓存的长度");
+    }
+
+    @Override
+    public CompletableFuture<Long> setRemove(String key, String... values) {
+        if (redisAuditLogger.isEnabled("async.setRemove")) {
+            redisAuditLogger.log("异步移除值为value的 key={},size={}", key, values.length);
+        }
+        return completeWrite("async.setRemove", key, commands.srem(rawKey(key), rawValues(values)), "移除值为value的",
+                Collections.singletonList(key));
+    }
+
+    @Override
+    public CompletableFuture<List<String>> lGet(String key, long start, long end) {
+        return complete("async.lGet", key, commands.lrange(rawKey(key), start, end).thenApply(new Function<List<byte[]>, List<String>>() {
+            @Override
+            public List<String> apply(List<byte[]> raw) {
+                List<String> values = new ArrayList<String>(raw.size());
+                for (byte[] value : raw) {
+                    values.add(valueSerializer.deserialize(value));
+                }
+                return values;
+            }
+        }), "获取list缓存的内容");
+    }
+
+    @Override
+    public CompletableFuture<Long> lGetListSize(String key) {
+        return complete("async.lGetListSize", key, commands.llen(rawKey(key)), "获取list缓存的长度");
+    }
+
+    @Override
+    public CompletableFuture<String> lGetIndex(String key, long index) {
+        return complete("async.lGetIndex", key, commands.lindex(rawKey(key), index).thenApply(deserializeValue), "通过索引获取list中的值");
+    }
+
+    @Override
+    public CompletableFuture<Long> lSet(String key, String... values) {
+        if (redisAuditLogger.isEnabled("async.lSet")) {
+            redisAuditLogger.log("异步将list放入缓存 key={},size={}", key, values.length);
+        }
+        return complete("async.lSet", key, commands.rpush(rawKey(key), rawValues(values)), "将list放入缓存");
+    }
+
+    @Override
+    public CompletableFuture<Long> lRemove(String key, long count, String value) {
+        if (redisAuditLogger.isEnabled("async.lRemove")) {
+            redisAuditLogger.log("异步移除N个值为value key={},count={}", key, count);
+        }
+        return complete("async.lRemove", key, commands.lrem(rawKey(key), count, valueSerializer.serialize(value)), "移除N个值为value");
+    }
+
+    /**
+     * 执行写入并设置时间的脚本
+     */
+    private CompletionStage<Long> executeWithExpire(RedisScript<Long> script, String key, long time, byte[]... values) {
+        byte[][] args = new byte[values.length + 1][];
+        args[0] = String.valueOf(time).getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(values, 0, args, 1, values.length);
+        return eval(script, ScriptOutputType.INTEGER, new byte[][]{rawKey(key)}, args);
+    }
+
+    /**
+     * 执行脚本, 优先 EVALSHA, 服务端没有缓存脚本时退回 EVAL
+     */
+    private <T> CompletableFuture<T> eval(final RedisScript<?> script, final ScriptOutputType type, final byte[][] keys,
+                                          final byte[]... args) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        commands.<T>evalsha(script.getSha1(), type, keys, args).whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable e) {
+                if (e != null && e.getMessage() != null && e.getMessage().startsWith("NOSCRIPT")) {
+                    commands.<T>eval(script.getScriptAsString(), type, keys, args).whenComplete(forward(result));
+                } else {
+                    forward(result).accept(value, e);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 将 lettuce 的结果转换为 CompletableFuture, 异常统一转换为 ServiceException
+     */
+    private <T> CompletableFuture<T> complete(final String command, final String key, CompletionStage<T> stage,
+                                              final String desc) {
+        final long start = System.nanoTime();
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        stage.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable e) {
+                if (redisMetrics != null) {
+                    redisMetrics.record(command, key, System.nanoTime() - start, e);
+                }
+                if (e != null) {
+                    logger.error("异步" + desc + "异常", e);
+                    result.completeExceptionally(new ServiceException(ResCodeEnum.sys_error));
+                } else {
+                    result.complete(value);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 写操作完成后(无论成功与否)失效本地缓存, 再完成返回的 future, 调用方在 future 完成后读取不会读到旧值
+     */
+    private <T> CompletableFuture<T> completeWrite(String command, String key, CompletionStage<T> stage, String desc,
+                                                   final Collection<String> keys) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        complete(command, key, stage, desc).whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable e) {
+                invalidateNearCache(keys);
+                forward(result).accept(value, e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 本地缓存失效, 并通过 lettuce 连接通知其他节点 不阻塞 lettuce 的 IO 线程
+     * 消息格式与 RedisManagerImpl 一致: 频道为 UTF-8, 内容为换行分隔的 key 按值序列化
+     */
+    private void invalidateNearCache(Collection<String> keys) {
+        if (hotKeyDetector != null) {
+            for (String key : keys) {
+                hotKeyDetector.invalidate(key);
+            }
+        }
+        if (nearCache == null || keys.isEmpty()) {
+            return;
+        }
+        for (String key : keys) {
+            nearCache.invalidate(key);
+        }
+        commands.publish(nearCache.getChannel().getBytes(StandardCharsets.UTF_8),
+                valueSerializer.serialize(StringUtils.join(keys, '\n'))).whenComplete(new BiConsumer<Long, Throwable>() {
+            @Override
+            public void accept(Long count, Throwable e) {
+                if (e != null) {
+                    logger.error("本地缓存失效通知发送异常", e);
+                }
+            }
+        });
+    }
+
+    private <T> CompletableFuture<T> failed(ServiceException e) {
+        CompletableFuture<T> result = new CompletableFuture<T>();
+        result.completeExceptionally(e);
+        return result;
+    }
+
+    /**
+     * 结果转发到 result
+     */
+    private <T> BiConsumer<T, Throwable> forward(final CompletableFuture<T> result) {
+        return new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable e) {
+                if (e != null) {
+                    result.completeExceptionally(e);
+                } else {
+                    result.complete(value);
+                }
+            }
+        };
+    }
+
+    private byte[] rawKey(String key) {
+        return keySerializer.serialize(key);
+    }
+
+    private byte[][] rawValues(String... values) {
+        byte[][] raw = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            raw[i] = valueSerializer.serialize(values[i]);
+        }
+        return raw;
+    }
+}
@@ -0,0 +1,67 @@
+package com.river.util.redis;
+
+import java.io.Serializable;
+
+/**
+ * create by river  2018/6/4
+ * desc: 批量操作的单项参数
+ * 普通缓存使用 key/value/time, hash 使用 key/item/value/time
+ */
+public class BatchItem implements Serializable {
+
+    private static final long serialVersionUID = 2810339741522016457L;
+
+    private String key;
+    private String item;
+    private String value;
+    /**
+     * 时间(秒) 小于等于0 表示不设置过期时间
+     */
+    private long time;
+
+    public BatchItem() {
+    }
+
+    public BatchItem(String key, String value, long time) {
+        this.key = key;
+        this.value = value;
+        this.time = time;
+    }
+
+    public BatchItem(String key, String item) {
+        this.key = key;
+        this.item = item;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public String getItem() {
+        return item;
+    }
+
+    public void setItem(String item) {
+        this.item = item;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public void setValue(String value) {
+        this.value = value;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public void setTime(long time) {
+        this.time = time;
+    }
+}
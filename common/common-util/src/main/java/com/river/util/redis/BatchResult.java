@@ -0,0 +1,39 @@
+package com.river.util.redis;
+
+import java.io.Serializable;
+
+/**
+ * create by river  2018/6/4
+ * desc: 批量操作的单项结果, 与入参顺序一一对应
+ * 单个key失败时 error 不为空, 不影响同批次其他key
+ */
+public class BatchResult<T> implements Serializable {
+
+    private static final long serialVersionUID = -4412861236107437781L;
+
+    private String key;
+    private T value;
+    private Exception error;
+
+    public BatchResult(String key, T value, Exception error) {
+        this.key = key;
+        this.value = value;
+        this.error = error;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public T getValue() {
+        return value;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
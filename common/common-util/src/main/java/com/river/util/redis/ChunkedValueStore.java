@@ -0,0 +1,511 @@
+package com.river.util.redis;
+
+import com.river.util.exception.ServiceException;
+import com.river.util.redis.codec.CodecRedisSerializer;
+import com.river.util.res.ResCodeEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * create by river  2018/7/4
+ * desc: 大value分块存储 序列化后超过阈值的值拆分为固定大小的分块, 避免单条命令读写几MB数据阻塞 redis
+ * 分块用一个管道写入临时 hash(字段 _v/_n/_l 为版本号、分块个数、总字节数, 字段 0..n-1 为分块),
+ * 写完后由脚本设置时间并 RENAME 为原来的键, 读取方要么读到完整的旧值要么读到完整的新值
+ * 读取时每条 HMGET 都带上版本号, 版本号变化说明读取期间值被替换, 整体重读
+ * del/expire/hasKey 等直接作用于 hash, 不需要额外处理; 分块存储的键需要用 CHUNK_GET 脚本读取, 脚本按 _v 字段识别分块
+ * 分片模式下一个值的临时 key 和分块都在键所在的节点上
+ */
+public class ChunkedValueStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedValueStore.class);
+
+    private static final byte[] VERSION_FIELD = bytes("_v");
+    private static final byte[] COUNT_FIELD = bytes("_n");
+    private static final byte[] LENGTH_FIELD = bytes("_l");
+    static final int MAX_RETRIES = 3;
+
+    /**
+     * 读取普通缓存 值为分块存储时返回描述和前几个分块
+     * ARGV[1] 一起返回的分块个数
+     * 返回 {0, 值} 或 {1, 版本号, 分块个数, 总字节数, 分块0, 分块1...}
+     */
+    @SuppressWarnings("rawtypes")
+    static final RedisScript<List> CHUNK_GET = new DefaultRedisScript<List>(
+            "if redis.call('TYPE', KEYS[1]).ok ~= 'hash' or redis.call('HEXISTS', KEYS[1], '_v') == 0 then "
+                    + "return {0, redis.call('GET', KEYS[1])} end "
+                    + "local fields = {'_v', '_n', '_l'} "
+                    + "for i = 0, tonumber(ARGV[1]) - 1 do fields[#fields + 1] = tostring(i) end "
+                    + "local values = redis.call('HMGET', KEYS[1], unpack(fields)) "
+                    + "table.insert(values, 1, 1) "
+                    + "return values", List.class);
+
+    /**
+     * 分块写入完成后替换原有的值 KEYS[1] 为写入分块的临时 key, KEYS[2] 为键
+     * ARGV[1] 时间(秒) 小于等于0 为无限期
+     * 返回 0 表示临时 key 已过期(写入超时)
+     */
+    static final RedisScript<Long> CHUNK_COMMIT = new DefaultRedisScript<Long>(
+            "if redis.call('EXISTS', KEYS[1]) == 0 then return 0 end "
+                    + "if tonumber(ARGV[1]) > 0 then redis.call('EXPIRE', KEYS[1], ARGV[1]) "
+                    + "else redis.call('PERSIST', KEYS[1]) end "
+                    + "redis.call('RENAME', KEYS[1], KEYS[2]) "
+                    + "return 1", Long.class);
+
+    private final RedisShardRouter router;
+    private final CodecRedisSerializer valueSerializer;
+    private final int threshold;
+    private final int chunkSize;
+    private final int prefetch;
+    private final long writeTimeout;
+
+    /**
+     * @param threshold    序列化后超过多少字节时分块存储 小于等于0 不分块
+     * @param chunkSize    每个分块的字节数
+     * @param prefetch     每次往返读取的分块个数
+     * @param writeTimeout 写入分块的最长时间(秒) 超时未完成的临时数据自动过期
+     */
+    public ChunkedValueStore(RedisShardRouter router, CodecRedisSerializer valueSerializer,
+                             int threshold, int chunkSize, int prefetch, long writeTimeout) {
+        if (threshold > 0 && (chunkSize <= 0 || prefetch <= 0 || writeTimeout <= 0)) {
+            throw new IllegalArgumentException("分块大小、预读个数和写入超时必须大于0");
+        }
+        this.router = router;
+        this.valueSerializer = valueSerializer;
+        this.threshold = threshold;
+        this.chunkSize = chunkSize;
+        this.prefetch = prefetch;
+        this.writeTimeout = writeTimeout;
+    }
+
+    public boolean isEnabled() {
+        return threshold > 0;
+    }
+
+    /**
+     * 是否需要分块存储
+     *
+     * @param raw 序列化后的值
+     */
+    public boolean shouldChunk(byte[] raw) {
+        return threshold > 0 && raw != null && raw.length > threshold;
+    }
+
+    /**
+     * 写入 超过阈值时分块存储, 否则直接 SET
+     *
+     * @param key  键
+     * @param raw  序列化后的值
+     * @param time 时间(秒) 小于等于0 为无限期
+     */
+    public void set(String key, final byte[] raw, final long time) {
+        RedisTemplate<String, String> redisTemplate = router.route(key);
+        final byte[] rawKey = keySerializer(redisTemplate).serialize(key);
+        if (!shouldChunk(raw)) {
+            redisTemplate.execute(new RedisCallback<Object>() {
+                @Override
+                public Object doInRedis(RedisConnection connection) {
+                    if (time > 0) {
+                        connection.setEx(rawKey, time, raw);
+                    } else {
+                        connection.set(rawKey, raw);
+                    }
+                    return null;
+                }
+            });
+            return;
+        }
+        String tempKey = tempKey(key);
+        final byte[] rawTempKey = keySerializer(redisTemplate).serialize(tempKey);
+        final List<byte[][]> fields = chunkFields(raw);
+        List<Object> replies = executePipeline(redisTemplate, new RedisCallback<Object>() {
+            @Override
+            public Object doInRedis(RedisConnection connection) {
+                for (int i = 0; i < fields.size(); i++) {
+                    connection.hSet(rawTempKey, fields.get(i)[0], fields.get(i)[1]);
+                    if (i == 0) {
+                        connection.expire(rawTempKey, writeTimeout);
+                    }
+                }
+                return null;
+            }
+        });
+        for (Object reply : replies) {
+            if (reply instanceof Exception) {
+                logger.error("分块写入异常 key={}", key, (Exception) reply);
+                redisTemplate.delete(tempKey);
+                throw new ServiceException(ResCodeEnum.sys_error);
+            }
+        }
+        Object[] args = {bytes(String.valueOf(time))};
+        Long committed = redisTemplate.execute(CHUNK_COMMIT, null, null, Arrays.asList(tempKey, key), args);
+        if (committed == null || committed == 0) {
+            logger.error("分块写入超时 key={},size={},chunks={}", key, raw.length, fields.size() - 3);
+            throw new ServiceException(ResCodeEnum.sys_error);
+        }
+    }
+
+    /**
+     * 读取序列化后的值 分块存储时拼接为一个数组
+     *
+     * @param key 键
+     * @return 序列化后的值 不存在时为null
+     */
+    public byte[] get(String key) {
+        return get(router.route(key), key);
+    }
+
+    /**
+     * 从指定节点读取序列化后的值 用于读副本, 分块值的替换是一次 RENAME, 副本上同样读不到不完整的值
+     *
+     * @param redisTemplate 节点
+     * @param key           键
+     * @return 序列化后的值 不存在时为null
+     */
+    public byte[] get(RedisTemplate<String, String> redisTemplate, String key) {
+        final byte[] rawKey = keySerializer(redisTemplate).serialize(key);
+        if (!isEnabled()) {
+            return redisTemplate.execute(new RedisCallback<byte[]>() {
+                @Override
+                public byte[] doInRedis(RedisConnection connection) {
+                    return connection.get(rawKey);
+                }
+            });
+        }
+        for (int attempt = 0; attempt < MAX_RETRIES; attempt++) {
+            List<Object> head = head(redisTemplate, key);
+            if (isPlain(head)) {
+                return (byte[]) head.get(1);
+            }
+            byte[] value = readChunks(redisTemplate, key, rawKey, head);
+            if (value != null) {
+                return value;
+            }
+        }
+        logger.error("分块读取期间值被反复替换 key={}", key);
+        throw new ServiceException(ResCodeEnum.sys_error);
+    }
+
+    /**
+     * 按流读取字符串值 分块存储时边读边返回, 每次往返读取 prefetch 个分块
+     * 读取期间值被替换时抛出 IOException
+     *
+     * @param key 键
+     * @return 字符串的 UTF-8 内容 不存在时为null
+     */
+    public InputStream openStream(String key) throws IOException {
+        InputStream raw;
+        if (!isEnabled()) {
+            byte[] value = get(key);
+            raw = value == null ? null : new ByteArrayInputStream(value);
+        } else {
+            RedisTemplate<String, String> redisTemplate = router.route(key);
+            List<Object> head = head(redisTemplate, key);
+            if (isPlain(head)) {
+                raw = head.get(1) == null ? null : new ByteArrayInputStream((byte[]) head.get(1));
+            } else {
+                raw = new ChunkInputStream(redisTemplate, key, keySerializer(redisTemplate).serialize(key), head);
+            }
+        }
+        return raw == null ? null : valueSerializer.decodeStream(raw);
+    }
+
+    /**
+     * 读取描述和前 prefetch 个分块
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private List<Object> head(RedisTemplate<String, String> redisTemplate, String key) {
+        return redisTemplate.execute(CHUNK_GET, (RedisSerializer<?>) null, (RedisSerializer<List>) null,
+                Collections.singletonList(key), headArg());
+    }
+
+    /**
+     * 按描述读取全部分块 描述之后的分块在一个管道中读取
+     *
+     * @return 拼接后的值 读取期间值被替换时返回null
+     */
+    @SuppressWarnings("unchecked")
+    private byte[] readChunks(RedisTemplate<String, String> redisTemplate, String key, final byte[] rawKey,
+                              List<Object> head) {
+        final List<byte[][]> groups = remainingFields(head);
+        List<Object> replies = Collections.emptyList();
+        if (!groups.isEmpty()) {
+            replies = executePipeline(redisTemplate, new RedisCallback<Object>() {
+                @Override
+                public Object doInRedis(RedisConnection connection) {
+                    for (byte[][] fields : groups) {
+                        connection.hMGet(rawKey, fields);
+                    }
+                    return null;
+                }
+            });
+        }
+        List<List<byte[]>> chunks = new ArrayList<List<byte[]>>(replies.size());
+        for (Object reply : replies) {
+            if (reply instanceof Exception) {
+                logger.error("分块读取异常 key={}", key, (Exception) reply);
+                throw new ServiceException(ResCodeEnum.sys_error);
+            }
+            chunks.add((List<byte[]>) reply);
+        }
+        return assemble(head, chunks);
+    }
+
+    /**
+     * 写入分块的临时 key 每次写入使用新的随机后缀, 提交时 RENAME 为键
+     */
+    String tempKey(String key) {
+        return key + ":chunking:" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * 写入临时 key 的字段和值 依次为版本号、各分块、分块个数和总字节数, 第一项写入后设置 writeTimeout
+     */
+    List<byte[][]> chunkFields(byte[] raw) {
+        int count = (raw.length + chunkSize - 1) / chunkSize;
+        List<byte[][]> fields = new ArrayList<byte[][]>(count + 3);
+        fields.add(new byte[][]{VERSION_FIELD, bytes(Long.toHexString(ThreadLocalRandom.current().nextLong()))});
+        for (int i = 0; i < count; i++) {
+            int from = i * chunkSize;
+            fields.add(new byte[][]{bytes(String.valueOf(i)), Arrays.copyOfRange(raw, from, Math.min(raw.length, from + chunkSize))});
+        }
+        fields.add(new byte[][]{COUNT_FIELD, bytes(String.valueOf(count))});
+        fields.add(new byte[][]{LENGTH_FIELD, bytes(String.valueOf(raw.length))});
+        return fields;
+    }
+
+    long getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    /**
+     * CHUNK_GET 脚本的参数 每次往返读取的分块个数
+     */
+    byte[] headArg() {
+        return bytes(String.valueOf(prefetch));
+    }
+
+    /**
+     * CHUNK_GET 的结果是否为普通(未分块)的值, 普通的值为结果的第二项
+     */
+    boolean isPlain(List<Object> head) {
+        return ((Long) head.get(0)) == 0;
+    }
+
+    /**
+     * 描述之后需要读取的分块 每组为一条 HMGET 的字段: 版本号及最多 prefetch 个分块
+     */
+    List<byte[][]> remainingFields(List<Object> head) {
+        int count = Integer.parseInt(string(head.get(2)));
+        List<byte[][]> groups = new ArrayList<byte[][]>();
+        for (int from = prefetch; from < count; from += prefetch) {
+            groups.add(fields(from, Math.min(count, from + prefetch)));
+        }
+        return groups;
+    }
+
+    /**
+     * 拼接描述中的分块和按 remainingFields 读取的分块
+     *
+     * @param replies 每组 HMGET 的结果, 第一项为版本号
+     * @return 拼接后的值 读取期间值被替换时返回null
+     */
+    byte[] assemble(List<Object> head, List<List<byte[]>> replies) {
+        byte[] version = (byte[]) head.get(1);
+        int count = Integer.parseInt(string(head.get(2)));
+        byte[] value = new byte[Integer.parseInt(string(head.get(3)))];
+        int offset = 0;
+        for (int i = 0; i < Math.min(count, prefetch); i++) {
+            offset = copy(value, offset, (byte[]) head.get(4 + i));
+            if (offset < 0) {
+                return null;
+            }
+        }
+        for (List<byte[]> chunks : replies) {
+            if (!Arrays.equals(version, chunks.get(0))) {
+                return null;
+            }
+            for (int i = 1; i < chunks.size(); i++) {
+                offset = copy(value, offset, chunks.get(i));
+                if (offset < 0) {
+                    return null;
+                }
+            }
+        }
+        return offset == value.length ? value : null;
+    }
+
+    /**
+     * 分块复制到结果中
+     *
+     * @return 复制后的位置 分块不存在或超出总长度时为 -1
+     */
+    private int copy(byte[] value, int offset, byte[] chunk) {
+        if (chunk == null || offset + chunk.length > value.length) {
+            return -1;
+        }
+        System.arraycopy(chunk, 0, value, offset, chunk.length);
+        return offset + chunk.length;
+    }
+
+    /**
+     * 版本号及 [from, to) 的分块字段
+     */
+    private byte[][] fields(int from, int to) {
+        byte[][] fields = new byte[to - from + 1][];
+        fields[0] = VERSION_FIELD;
+        for (int i = from; i < to; i++) {
+            fields[i - from + 1] = bytes(String.valueOf(i));
+        }
+        return fields;
+    }
+
+    private List<Object> executePipeline(RedisTemplate<String, String> redisTemplate, final RedisCallback<Object> commands) {
+        return redisTemplate.execute(new RedisCallback<List<Object>>() {
+            @Override
+            public List<Object> doInRedis(RedisConnection connection) {
+                connection.openPipeline();
+                boolean pipelineClosed = false;
+                try {
+                    commands.doInRedis(connection);
+                    pipelineClosed = true;
+                    return connection.closePipeline();
+                } catch (RedisPipelineException e) {
+                    if (e.getPipelineResult() == null || e.getPipelineResult().isEmpty()) {
+                        throw e;
+                    }
+                    return e.getPipelineResult();
+                } finally {
+                    if (!pipelineClosed) {
+                        connection.closePipeline();
+                    }
+                }
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private RedisSerializer<String> keySerializer(RedisTemplate<String, String> redisTemplate) {
+        return (RedisSerializer<String>) redisTemplate.getKeySerializer();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(Object value) {
+        return new String((byte[]) value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 分块存储的值的输入流 当前分块读完后再读取后面 prefetch 个分块
+     */
+    private class ChunkInputStream extends InputStream {
+
+        private final RedisTemplate<String, String> redisTemplate;
+        private final String key;
+        private final byte[] rawKey;
+        private final byte[] version;
+        private final int count;
+        private final List<byte[]> chunks = new ArrayList<byte[]>();
+        private int next;
+        private byte[] current;
+        private int position;
+
+        ChunkInputStream(RedisTemplate<String, String> redisTemplate, String key, byte[] rawKey, List<Object> head) {
+            this.redisTemplate = redisTemplate;
+            this.key = key;
+            this.rawKey = rawKey;
+            this.version = (byte[]) head.get(1);
+            this.count = Integer.parseInt(string(head.get(2)));
+            for (int i = 0; i < Math.min(count, prefetch); i++) {
+                chunks.add((byte[]) head.get(4 + i));
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return current[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int size = Math.min(length, current.length - position);
+            System.arraycopy(current, position, buffer, offset, size);
+            position += size;
+            return size;
+        }
+
+        @Override
+        public int available() {
+            return current == null ? 0 : current.length - position;
+        }
+
+        /**
+         * 当前分块读完时切换到下一个分块
+         *
+         * @return false 已读完所有分块
+         */
+        private boolean fill() throws IOException {
+            while (current == null || position >= current.length) {
+                if (next >= count) {
+                    return false;
+                }
+                if (chunks.isEmpty()) {
+                    fetch();
+                }
+                current = chunks.remove(0);
+                position = 0;
+                next++;
+                if (current == null) {
+                    throw new IOException("分块读取期间值已被替换或过期 key=" + key);
+                }
+            }
+            return true;
+        }
+
+        private void fetch() throws IOException {
+            final int to = Math.min(count, next + prefetch);
+            List<byte[]> values;
+            try {
+                values = redisTemplate.execute(new RedisCallback<List<byte[]>>() {
+                    @Override
+                    public List<byte[]> doInRedis(RedisConnection connection) {
+                        return connection.hMGet(rawKey, fields(next, to));
+                    }
+                });
+            } catch (Exception e) {
+                throw new IOException("分块读取异常 key=" + key, e);
+            }
+            if (values == null || !Arrays.equals(version, values.get(0))) {
+                throw new IOException("分块读取期间值已被替换或过期 key=" + key);
+            }
+            chunks.addAll(values.subList(1, values.size()));
+        }
+    }
+}
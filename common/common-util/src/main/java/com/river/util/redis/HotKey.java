@@ -0,0 +1,36 @@
+package com.river.util.redis;
+
+/**
+ * create by river  2018/7/3
+ * desc: 热点 key 统计结果
+ */
+public class HotKey {
+
+    private final String key;
+    /**
+     * 估算的本节点每秒读取次数
+     */
+    private final long qps;
+    /**
+     * 是否超过阈值
+     */
+    private final boolean hot;
+
+    public HotKey(String key, long qps, boolean hot) {
+        this.key = key;
+        this.qps = qps;
+        this.hot = hot;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getQps() {
+        return qps;
+    }
+
+    public boolean isHot() {
+        return hot;
+    }
+}
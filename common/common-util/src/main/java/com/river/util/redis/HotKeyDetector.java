@@ -0,0 +1,238 @@
+package com.river.util.redis;
+
+import com.river.util.metrics.Histogram;
+import com.river.util.metrics.MetricsSource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * create by river  2018/7/3
+ * desc: 热点 key 识别 RedisManager 的读操作按采样率记录到 Count-Min Sketch, 估算次数较大的 key 进入 top-K 表
+ * 每个窗口结束时按 key 在本窗口内增加的次数估算每秒读取次数, 然后所有计数减半(指数衰减),
+ * 衰减后的计数只用于 top-K 的淘汰, 访问停止的 key 下一个窗口就不再是热点
+ * 超过阈值的 key 为热点, 开启 promote 后热点 key 的读取使用短时间的本地缓存, 不再访问 redis
+ * 本地缓存只在本节点写入时失效, 其他节点的修改最多延迟 promote-ttl 秒可见
+ */
+public class HotKeyDetector implements MetricsSource {
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 4096;
+
+    private final double sampleRate;
+    private final int topK;
+    private final long windowMillis;
+    private final long threshold;
+    /**
+     * 热点 key 的本地缓存 未开启 promote 时为null
+     */
+    private final NearCache promotedCache;
+
+    private final AtomicLongArray sketch = new AtomicLongArray(DEPTH * WIDTH);
+
+    /**
+     * top-K 表 key -> {估算次数, 上个窗口结束时的次数} 读写都在 this 上同步
+     */
+    private final Map<String, long[]> top = new HashMap<String, long[]>();
+    /**
+     * top-K 表已满时的最小次数 估算次数不超过它的 key 不需要加锁
+     */
+    private volatile long minTopCount;
+
+    private volatile Set<String> hotKeys = Collections.emptySet();
+    private volatile List<HotKey> snapshot = Collections.emptyList();
+
+    private final ScheduledExecutorService decayExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "redis-hot-key-decay");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * @param sampleRate   采样率 0~1
+     * @param topK         最多跟踪的 key 个数
+     * @param windowMillis 衰减窗口(毫秒)
+     * @param threshold    热点阈值 本节点每秒读取次数
+     * @param promote      是否将热点 key 放入本地缓存
+     * @param promoteSize  本地缓存最多的 key 个数
+     * @param promoteTtl   本地缓存时间(秒)
+     */
+    public HotKeyDetector(double sampleRate, int topK, long windowMillis, long threshold,
+                          boolean promote, int promoteSize, long promoteTtl) {
+        if (sampleRate <= 0 || sampleRate > 1 || topK <= 0 || windowMillis <= 0) {
+            throw new IllegalArgumentException("采样率必须在 0~1 之间, top-K 和窗口必须大于0");
+        }
+        this.sampleRate = sampleRate;
+        this.topK = topK;
+        this.windowMillis = windowMillis;
+        this.threshold = threshold;
+        this.promotedCache = promote ? new NearCache(promoteSize, promoteTtl, null) : null;
+        decayExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                decay();
+            }
+        }, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 记录一次读取
+     * @param key redis 键
+     * @return key 为热点且开启 promote 时返回本地缓存, 否则返回null
+     */
+    public NearCache record(String key) {
+        if (sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            sample(key);
+        }
+        return promotedCache != null && hotKeys.contains(key) ? promotedCache : null;
+    }
+
+    /**
+     * 本节点修改 key 后失效本地缓存
+     */
+    public void invalidate(String key) {
+        if (promotedCache != null) {
+            promotedCache.invalidate(key);
+        }
+    }
+
+    /**
+     * 上一个窗口结束时的 top-K 按估算次数从大到小排列
+     */
+    public List<HotKey> getHotKeys() {
+        return snapshot;
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.contains(key);
+    }
+
+    public void close() {
+        decayExecutor.shutdownNow();
+    }
+
+    private void sample(String key) {
+        long[] hash = Murmur3.hash128(key.getBytes(StandardCharsets.UTF_8));
+        long combined = hash[0];
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = i * WIDTH + (int) ((combined & Long.MAX_VALUE) % WIDTH);
+            estimate = Math.min(estimate, sketch.incrementAndGet(index));
+            combined += hash[1];
+        }
+        if (estimate <= minTopCount) {
+            return;
+        }
+        synchronized (this) {
+            long[] counts = top.get(key);
+            if (counts != null) {
+                counts[0] = estimate;
+                return;
+            }
+            if (top.size() < topK) {
+                top.put(key, new long[]{estimate, 0});
+                if (top.size() >= topK) {
+                    minTopCount = minCount();
+                }
+                return;
+            }
+            String minKey = null;
+            long min = Long.MAX_VALUE;
+            for (Map.Entry<String, long[]> entry : top.entrySet()) {
+                if (entry.getValue()[0] < min) {
+                    min = entry.getValue()[0];
+                    minKey = entry.getKey();
+                }
+            }
+            if (estimate > min) {
+                top.remove(minKey);
+                top.put(key, new long[]{estimate, 0});
+                minTopCount = minCount();
+            }
+        }
+    }
+
+    private long minCount() {
+        long min = Long.MAX_VALUE;
+        for (long[] counts : top.values()) {
+            min = Math.min(min, counts[0]);
+        }
+        return min;
+    }
+
+    /**
+     * 窗口结束 按本窗口增加的次数估算 qps, 更新热点集合后全部计数减半
+     */
+    private void decay() {
+        double perSecond = sampleRate * windowMillis / 1000.0;
+        List<HotKey> keys = new ArrayList<HotKey>();
+        Set<String> hot = new HashSet<String>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, long[]>> iterator = top.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, long[]> entry = iterator.next();
+                long[] counts = entry.getValue();
+                long qps = Math.round(Math.max(0, counts[0] - counts[1]) / perSecond);
+                boolean isHot = threshold > 0 && qps >= threshold;
+                keys.add(new HotKey(entry.getKey(), qps, isHot));
+                if (isHot) {
+                    hot.add(entry.getKey());
+                }
+                counts[0] >>= 1;
+                counts[1] = counts[0];
+                if (counts[0] == 0) {
+                    iterator.remove();
+                }
+            }
+            minTopCount = top.size() >= topK ? minCount() : 0;
+        }
+        for (int i = 0; i < sketch.length(); i++) {
+            long value = sketch.get(i);
+            if (value != 0) {
+                sketch.addAndGet(i, -(value - (value >> 1)));
+            }
+        }
+        Collections.sort(keys, new Comparator<HotKey>() {
+            @Override
+            public int compare(HotKey a, HotKey b) {
+                return Long.compare(b.getQps(), a.getQps());
+            }
+        });
+        hotKeys = hot;
+        snapshot = Collections.unmodifiableList(keys);
+    }
+
+    @Override
+    public void writeMetrics(StringBuilder out) {
+        out.append("# TYPE redis_hot_key_qps gauge\n");
+        for (HotKey hotKey : snapshot) {
+            out.append("redis_hot_key_qps{key=\"").append(Histogram.escape(hotKey.getKey())).append("\"} ")
+                    .append(hotKey.getQps()).append('\n');
+        }
+        out.append("# TYPE redis_hot_keys gauge\n");
+        out.append("redis_hot_keys ").append(hotKeys.size()).append('\n');
+        if (promotedCache != null) {
+            out.append("# TYPE redis_hot_key_cache_hits_total counter\n");
+            out.append("redis_hot_key_cache_hits_total ").append(promotedCache.getHitCount()).append('\n');
+            out.append("# TYPE redis_hot_key_cache_misses_total counter\n");
+            out.append("redis_hot_key_cache_misses_total ").append(promotedCache.getMissCount()).append('\n');
+        }
+    }
+}
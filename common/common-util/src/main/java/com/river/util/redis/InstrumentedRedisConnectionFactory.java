@@ -0,0 +1,161 @@
+package com.river.util.redis;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.DecoratedRedisConnection;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisSentinelConnection;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * create by river  2018/6/20
+ * desc: 为每个 redis 连接加上耗时统计 RedisTemplate、CacheManager、脚本等所有经过连接工厂的命令都会被统计
+ * 管道和事务中的命令只是入队, 不单独计时, 以 closePipeline/exec 作为一次命令统计
+ * 代理实现 DecoratedRedisConnection, 需要原始连接的地方(例如设置管道保留状态回复)通过 getDelegate 获取
+ */
+public class InstrumentedRedisConnectionFactory implements RedisConnectionFactory, DisposableBean {
+
+    /**
+     * 不是 redis 命令的连接方法
+     */
+    private static final Set<String> NON_COMMANDS = new HashSet<String>(Arrays.asList(
+            "close", "isClosed", "getNativeConnection", "isQueueing", "isPipelined", "openPipeline",
+            "multi", "discard", "getSentinelConnection", "isSubscribed", "getSubscription",
+            "toString", "hashCode", "equals"));
+
+    private final RedisConnectionFactory delegate;
+    private final RedisMetrics metrics;
+
+    public InstrumentedRedisConnectionFactory(RedisConnectionFactory delegate, RedisMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    public RedisConnectionFactory getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public RedisConnection getConnection() {
+        final RedisConnection connection = delegate.getConnection();
+        Set<Class<?>> interfaces = ClassUtils.getAllInterfacesAsSet(connection);
+        interfaces.add(DecoratedRedisConnection.class);
+        return (RedisConnection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                interfaces.toArray(new Class<?>[interfaces.size()]),
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getDeclaringClass() == DecoratedRedisConnection.class) {
+                            return connection;
+                        }
+                        String command = method.getName();
+                        if (NON_COMMANDS.contains(command) || connection.isQueueing()
+                                || (connection.isPipelined() && !"closePipeline".equals(command))) {
+                            return invokeTarget(connection, method, args);
+                        }
+                        byte[] rawKey = args != null && args.length > 0 && args[0] instanceof byte[] ? (byte[]) args[0] : null;
+                        long start = System.nanoTime();
+                        try {
+                            Object result = invokeTarget(connection, method, args);
+                            metrics.record(command, rawKey, System.nanoTime() - start, null);
+                            metrics.recordSize(command, payloadSize(args, 1), payloadSize(result));
+                            return result;
+                        } catch (Throwable e) {
+                            metrics.record(command, rawKey, System.nanoTime() - start, e);
+                            throw e;
+                        }
+                    }
+                });
+    }
+
+    private static Object invokeTarget(RedisConnection connection, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(connection, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    /**
+     * 计算参数中 byte[] 的总大小 跳过前 skip 个参数(key)
+     */
+    private static long payloadSize(Object[] args, int skip) {
+        if (args == null) {
+            return 0;
+        }
+        long size = 0;
+        for (int i = skip; i < args.length; i++) {
+            size += payloadSize(args[i]);
+        }
+        return size;
+    }
+
+    private static long payloadSize(Object value) {
+        if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        }
+        if (value instanceof byte[][]) {
+            long size = 0;
+            for (byte[] bytes : (byte[][]) value) {
+                size += bytes == null ? 0 : bytes.length;
+            }
+            return size;
+        }
+        if (value instanceof Collection) {
+            long size = 0;
+            for (Object element : (Collection<?>) value) {
+                if (element instanceof byte[]) {
+                    size += ((byte[]) element).length;
+                }
+            }
+            return size;
+        }
+        if (value instanceof Map) {
+            long size = 0;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += payloadSize(entry.getKey()) + payloadSize(entry.getValue());
+            }
+            return size;
+        }
+        return 0;
+    }
+
+    @Override
+    public RedisClusterConnection getClusterConnection() {
+        return delegate.getClusterConnection();
+    }
+
+    @Override
+    public boolean getConvertPipelineAndTxResults() {
+        return delegate.getConvertPipelineAndTxResults();
+    }
+
+    @Override
+    public RedisSentinelConnection getSentinelConnection() {
+        return delegate.getSentinelConnection();
+    }
+
+    @Override
+    public DataAccessException translateExceptionIfPossible(RuntimeException ex) {
+        return delegate.translateExceptionIfPossible(ex);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (delegate instanceof DisposableBean) {
+            ((DisposableBean) delegate).destroy();
+        }
+    }
+}
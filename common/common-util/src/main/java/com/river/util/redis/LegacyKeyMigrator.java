@@ -0,0 +1,170 @@
+package com.river.util.redis;
+
+import com.river.util.redis.codec.StringKeyRedisSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * create by river  2018/6/15
+ * desc: 关闭 redis.codec.legacy-write 后把灰度期间 JDK 序列化的 key 改为 UTF-8 key
+ * 这些 key 不一定有过期时间, 不迁移会一直占用内存且新节点读不到
+ * RENAME 保留过期时间; UTF-8 key 已存在时说明新节点已写入更新的数据, 直接删除旧 key
+ * 脚本在 key 后拼接后缀生成的 key 一并迁移
+ * hash 中 JDK 序列化的项先在原 key 上改为 UTF-8 项, 同名的 UTF-8 项已存在时保留 UTF-8 项
+ * 迁移期间旧 key 可能被仍在运行的老节点重新写入, 全部节点关闭 legacy-write 后再执行
+ */
+public class LegacyKeyMigrator {
+
+    private static final Logger logger = LoggerFactory.getLogger(LegacyKeyMigrator.class);
+
+    private static final byte[] SCAN_START = "0".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] COUNT = "COUNT".getBytes(StandardCharsets.UTF_8);
+
+    private final JdkSerializationRedisSerializer jdkSerializer = new JdkSerializationRedisSerializer();
+
+    private final List<RedisTemplate<String, String>> templates;
+    private final int scanCount;
+
+    /**
+     * @param templates 需要迁移的节点, 同一个节点只出现一次
+     * @param scanCount 每次 SCAN 的 COUNT
+     */
+    public LegacyKeyMigrator(List<RedisTemplate<String, String>> templates, int scanCount) {
+        this.templates = new ArrayList<RedisTemplate<String, String>>(templates);
+        this.scanCount = scanCount;
+    }
+
+    /**
+     * 在后台线程执行一次迁移
+     */
+    public void start() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    logger.info("JDK 序列化 key 迁移完成 keys={}", migrate());
+                } catch (Exception e) {
+                    logger.error("JDK 序列化 key 迁移失败", e);
+                }
+            }
+        }, "redis-legacy-key-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 迁移所有节点
+     *
+     * @return 迁移(或删除)的 key 个数
+     */
+    public long migrate() {
+        long migrated = 0;
+        for (RedisTemplate<String, String> template : templates) {
+            migrated += migrate(template);
+        }
+        return migrated;
+    }
+
+    /**
+     * RedisConnection.scan 把 key 转成字符串, 二进制 key 会被破坏, 这里直接执行 SCAN 命令取原始字节
+     */
+    private long migrate(RedisTemplate<String, String> template) {
+        long migrated = 0;
+        final byte[] count = String.valueOf(scanCount).getBytes(StandardCharsets.UTF_8);
+        byte[] cursor = SCAN_START;
+        do {
+            final byte[] current = cursor;
+            List<?> reply = template.execute(new RedisCallback<List<?>>() {
+                @Override
+                public List<?> doInRedis(RedisConnection connection) throws DataAccessException {
+                    return (List<?>) connection.execute("SCAN", current, COUNT, count);
+                }
+            });
+            cursor = (byte[]) reply.get(0);
+            for (Object key : (List<?>) reply.get(1)) {
+                final byte[] raw = (byte[]) key;
+                if (!StringKeyRedisSerializer.isLegacy(raw)) {
+                    continue;
+                }
+                final byte[] target = utf8(raw);
+                if (target == null) {
+                    continue;
+                }
+                template.execute(new RedisCallback<Object>() {
+                    @Override
+                    public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                        migrate(connection, raw, target);
+                        return null;
+                    }
+                });
+                migrated++;
+            }
+        } while (!Arrays.equals(SCAN_START, cursor));
+        return migrated;
+    }
+
+    private void migrate(RedisConnection connection, byte[] raw, byte[] target) {
+        if (connection.type(raw) == DataType.HASH) {
+            migrateFields(connection, raw);
+        }
+        if (!connection.renameNX(raw, target)) {
+            connection.del(raw);
+        }
+    }
+
+    private void migrateFields(RedisConnection connection, byte[] key) {
+        Map<byte[], byte[]> entries = connection.hGetAll(key);
+        if (entries == null) {
+            return;
+        }
+        for (Map.Entry<byte[], byte[]> entry : entries.entrySet()) {
+            if (!StringKeyRedisSerializer.isLegacy(entry.getKey())) {
+                continue;
+            }
+            byte[] field = utf8(entry.getKey());
+            if (field != null) {
+                connection.hSetNX(key, field, entry.getValue());
+                connection.hDel(key, entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * JDK 序列化的 key 转为 UTF-8, 不是字符串(或无法反序列化)时返回 null 不迁移
+     * 脚本在 key 后拼接后缀生成的 key(布隆过滤器的位图等)只转换前面序列化的部分, 后缀保持不变
+     */
+    private byte[] utf8(byte[] raw) {
+        Object key;
+        try {
+            key = jdkSerializer.deserialize(raw);
+        } catch (SerializationException e) {
+            logger.warn("无法反序列化的 key, 跳过 size={}", raw.length);
+            return null;
+        }
+        if (!(key instanceof String)) {
+            return null;
+        }
+        byte[] serialized = jdkSerializer.serialize(key);
+        byte[] head = ((String) key).getBytes(StandardCharsets.UTF_8);
+        int suffix = raw.length - serialized.length;
+        if (suffix < 0 || !Arrays.equals(serialized, Arrays.copyOf(raw, serialized.length))) {
+            return null;
+        }
+        byte[] target = Arrays.copyOf(head, head.length + suffix);
+        System.arraycopy(raw, serialized.length, target, head.length, suffix);
+        return target;
+    }
+}
@@ -0,0 +1,215 @@
+package com.river.util.redis;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * create by river  2018/6/6
+ * desc: RedisManager 读操作前的本地一级缓存
+ * 按 redis key 分段 LRU, 每个 key 下缓存多个字段(普通值/hash项/set成员), 写入超过 ttl 后失效
+ * redis key 被修改时通过 invalidate 整体失效, 其他节点通过 pub/sub 收到 channel 上的失效通知
+ */
+public class NearCache {
+
+    /**
+     * 缓存的空值 区分 "未命中" 和 "redis中不存在"
+     */
+    public static final Object NULL_VALUE = new Object();
+
+    /**
+     * 普通缓存在 key 下使用的字段名
+     */
+    public static final String VALUE_FIELD = "";
+
+    private static final int SEGMENT_COUNT = 16;
+
+    /**
+     * 单个 key 下最多缓存的字段数, 防止大 hash/set 撑爆本地内存
+     */
+    private static final int MAX_FIELDS_PER_KEY = 256;
+
+    private final Segment[] segments;
+    private final long ttlMillis;
+    private final String channel;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @param maxSize 最多缓存的 key 个数
+     * @param ttl     时间(秒)
+     * @param channel 失效通知的 pub/sub channel
+     */
+    public NearCache(int maxSize, long ttl, String channel) {
+        if (maxSize <= 0 || ttl <= 0) {
+            throw new IllegalArgumentException("本地缓存大小和时间必须大于0");
+        }
+        this.ttlMillis = ttl * 1000;
+        this.channel = channel;
+        this.segments = new Segment[SEGMENT_COUNT];
+        int segmentSize = Math.max(1, maxSize / SEGMENT_COUNT);
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+    }
+
+    /**
+     * 获取缓存
+     * @param key   redis 键
+     * @param field 字段
+     * @return 未命中返回null, 命中空值返回 NULL_VALUE
+     */
+    public Object get(String key, String field) {
+        Segment segment = segmentFor(key);
+        Object value = null;
+        synchronized (segment) {
+            CacheEntry entry = segment.get(key);
+            if (entry != null) {
+                if (entry.expireAt < System.currentTimeMillis()) {
+                    segment.remove(key);
+                } else {
+                    value = entry.fields.get(field);
+                }
+            }
+        }
+        if (value == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * 读取 redis 前获取 key 的版本, 回填时版本不一致说明期间发生过失效, 放弃回填
+     * @param key redis 键
+     * @return 版本
+     */
+    public long stamp(String key) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.stamp;
+        }
+    }
+
+    /**
+     * 回填缓存
+     * @param key   redis 键
+     * @param field 字段
+     * @param value 值 null 将缓存为 NULL_VALUE
+     * @param stamp 读取 redis 前获取的版本
+     */
+    public void put(String key, String field, Object value, long stamp) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            if (segment.stamp != stamp) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            CacheEntry entry = segment.get(key);
+            if (entry == null || entry.expireAt < now) {
+                entry = new CacheEntry(now + ttlMillis);
+                segment.put(key, entry);
+            }
+            if (entry.fields.size() < MAX_FIELDS_PER_KEY || entry.fields.containsKey(field)) {
+                entry.fields.put(field, value == null ? NULL_VALUE : value);
+            }
+        }
+    }
+
+    /**
+     * 失效 key 下的全部缓存
+     * @param key redis 键
+     */
+    public void invalidate(String key) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.stamp++;
+            segment.remove(key);
+        }
+    }
+
+    /**
+     * 清空本地缓存
+     */
+    public void invalidateAll() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.stamp++;
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * 当前缓存的 key 个数
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    private Segment segmentFor(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENT_COUNT - 1)];
+    }
+
+    private static class CacheEntry {
+        private final long expireAt;
+        private final Map<String, Object> fields = new HashMap<String, Object>(4);
+
+        private CacheEntry(long expireAt) {
+            this.expireAt = expireAt;
+        }
+    }
+
+    /**
+     * 按访问顺序排列的 LinkedHashMap, 超出容量时淘汰最久未访问的 key
+     */
+    private class Segment extends LinkedHashMap<String, CacheEntry> {
+
+        private static final long serialVersionUID = -3068215916386405313L;
+
+        private final int capacity;
+        private long stamp;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            if (size() > capacity) {
+                evictionCount.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.river.util.redis;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+/**
+ * create by river  2018/6/6
+ * desc: 接收其他节点的本地缓存失效通知, 消息内容为换行分隔的 redis key
+ */
+public class NearCacheInvalidationListener implements MessageListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(NearCacheInvalidationListener.class);
+
+    private final NearCache nearCache;
+    private final RedisSerializer<?> serializer;
+
+    public NearCacheInvalidationListener(NearCache nearCache, RedisSerializer<?> serializer) {
+        this.nearCache = nearCache;
+        this.serializer = serializer;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            Object body = serializer.deserialize(message.getBody());
+            if (body == null) {
+                return;
+            }
+            for (String key : StringUtils.split(body.toString(), '\n')) {
+                nearCache.invalidate(key);
+            }
+        } catch (Exception e) {
+            logger.error("本地缓存失效通知处理异常,清空本地缓存", e);
+            nearCache.invalidateAll();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.river.util.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.util.Pool;
+
+import java.util.NoSuchElementException;
+
+/**
+ * create by river  2018/6/26
+ * desc: 带连接池指标的 JedisConnectionFactory
+ * 连接超时和读超时分开设置(JedisConnectionFactory 只有一个 timeout), 启动时预先建立 prewarm 个连接
+ */
+public class PooledJedisConnectionFactory extends JedisConnectionFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(PooledJedisConnectionFactory.class);
+
+    private final int connectTimeout;
+    private final int prewarm;
+    private final RedisPoolMetrics poolMetrics;
+
+    private Pool<Jedis> pool;
+
+    /**
+     * @param poolConfig     连接池配置
+     * @param connectTimeout 连接超时(毫秒)
+     * @param readTimeout    读超时(毫秒)
+     * @param prewarm        启动时预先建立的连接数
+     * @param poolMetrics    连接池指标
+     */
+    public PooledJedisConnectionFactory(JedisPoolConfig poolConfig, int connectTimeout, int readTimeout,
+                                        int prewarm, RedisPoolMetrics poolMetrics) {
+        super(poolConfig);
+        setTimeout(readTimeout);
+        this.connectTimeout = connectTimeout;
+        this.prewarm = prewarm;
+        this.poolMetrics = poolMetrics;
+    }
+
+    /**
+     * 连接另一个节点的工厂 连接池、超时、密码、库与当前工厂相同, 需要调用 afterPropertiesSet 后使用
+     *
+     * @param hostName 地址
+     * @param port     端口
+     */
+    public PooledJedisConnectionFactory newNode(String hostName, int port) {
+        PooledJedisConnectionFactory factory = new PooledJedisConnectionFactory(getPoolConfig(), connectTimeout,
+                getTimeout(), prewarm, poolMetrics);
+        factory.setHostName(hostName);
+        factory.setPort(port);
+        factory.setDatabase(getDatabase());
+        factory.setPassword(getPassword());
+        factory.setUseSsl(isUseSsl());
+        return factory;
+    }
+
+    @Override
+    protected Pool<Jedis> createRedisPool() {
+        pool = new JedisPool(getPoolConfig(), getHostName(), getPort(), connectTimeout, getTimeout(),
+                getPassword(), getDatabase(), getClientName(), isUseSsl(), null, null, null);
+        poolMetrics.addPool(getHostName() + ":" + getPort(), pool, getPoolConfig().getMaxTotal());
+        return pool;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        super.afterPropertiesSet();
+        if (pool != null && prewarm > 0) {
+            try {
+                pool.addObjects(Math.min(prewarm, getPoolConfig().getMaxTotal()));
+                logger.info("redis连接池预热完成 连接数={}", pool.getNumIdle());
+            } catch (Exception e) {
+                // redis 暂时不可用不影响启动, 连接在第一次使用时再建立
+                logger.warn("redis连接池预热失败 host={},port={}", getHostName(), getPort(), e);
+            }
+        }
+    }
+
+    @Override
+    protected Jedis fetchJedisConnector() {
+        long start = System.nanoTime();
+        try {
+            Jedis jedis = super.fetchJedisConnector();
+            poolMetrics.recordBorrow(System.nanoTime() - start);
+            return jedis;
+        } catch (RuntimeException e) {
+            if (isExhausted(e)) {
+                poolMetrics.recordExhausted();
+            } else {
+                poolMetrics.recordConnectFailure();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * commons-pool 等待超时时抛出 NoSuchElementException, 被 jedis 和 spring 逐层包装
+     */
+    private boolean isExhausted(Throwable error) {
+        for (Throwable e = error; e != null && e.getCause() != e; e = e.getCause()) {
+            if (e instanceof NoSuchElementException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,16 @@
+package com.river.util.redis;
+
+/**
+ * create by river  2018/6/27
+ * desc: 限流方式
+ */
+public enum RateLimitMode {
+    /**
+     * 令牌桶 按固定速率补充令牌, 允许不超过桶容量的突发
+     */
+    TOKEN_BUCKET,
+    /**
+     * 滑动窗口 任意一个窗口长度内的次数不超过限制
+     */
+    SLIDING_WINDOW
+}
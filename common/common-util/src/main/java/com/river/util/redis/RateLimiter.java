@@ -0,0 +1,19 @@
+package com.river.util.redis;
+
+/**
+ * create by river  2018/6/27
+ * desc: 基于 redis 的分布式限流 每次判断只有一次 redis 脚本调用
+ */
+public interface RateLimiter {
+
+    /**
+     * 尝试获取一次许可
+     * @param key    限流的键 例如 接口名 或 接口名:ip
+     * @param mode   限流方式
+     * @param limit  每个周期允许的次数
+     * @param period 周期(毫秒)
+     * @param burst  令牌桶容量 小于等于0 时与 limit 相同, 滑动窗口方式忽略
+     * @return 0 表示通过, 大于0 表示被限流, 为建议的重试等待时间(毫秒)
+     */
+    long tryAcquire(String key, RateLimitMode mode, long limit, long period, long burst);
+}
@@ -0,0 +1,177 @@
+package com.river.util.redis;
+
+import com.river.util.metrics.MetricsSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * create by river  2018/6/27
+ * desc: 限流实现
+ * 被 redis 拒绝后在本地记录该键的解除时间, 解除前的请求直接在本地拒绝, 不再访问 redis
+ * 时间取应用服务器的时间, 各节点时钟需要同步
+ * redis 异常时默认放行(redis.rate-limit.fail-open), 避免限流组件导致接口不可用
+ */
+@Service
+public class RateLimiterImpl implements RateLimiter, MetricsSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(RateLimiterImpl.class);
+
+    private static final String KEY_PREFIX = "rate-limit:";
+    private static final byte[] ONE = "1".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 令牌桶限流 KEYS[1] 为桶, 保存令牌数 t 和上次计算时间 ts
+     * ARGV[1] 容量, ARGV[2] 每毫秒补充的令牌数, ARGV[3] 当前时间(毫秒), ARGV[4] 本次需要的令牌数
+     * 返回 0 表示通过, 大于0 为令牌足够前还需等待的毫秒数
+     */
+    private static final RedisScript<Long> TOKEN_BUCKET = new DefaultRedisScript<Long>(
+            "local capacity = tonumber(ARGV[1]) "
+                    + "local rate = tonumber(ARGV[2]) "
+                    + "local now = tonumber(ARGV[3]) "
+                    + "local requested = tonumber(ARGV[4]) "
+                    + "local bucket = redis.call('HMGET', KEYS[1], 't', 'ts') "
+                    + "local tokens = tonumber(bucket[1]) "
+                    + "local ts = tonumber(bucket[2]) "
+                    + "if tokens == nil or ts == nil then tokens = capacity ts = now end "
+                    + "if now > ts then tokens = math.min(capacity, tokens + (now - ts) * rate) ts = now end "
+                    + "local wait = 0 "
+                    + "if tokens >= requested then tokens = tokens - requested "
+                    + "else wait = math.max(1, math.ceil((requested - tokens) / rate)) end "
+                    + "redis.call('HMSET', KEYS[1], 't', tostring(tokens), 'ts', tostring(ts)) "
+                    + "redis.call('PEXPIRE', KEYS[1], math.ceil(capacity / rate) + 1000) "
+                    + "return wait", Long.class);
+
+    /**
+     * 滑动窗口限流 按上一个窗口的计数在当前窗口中剩余的比例加权估算
+     * KEYS[1] 当前窗口计数, KEYS[2] 上一个窗口计数
+     * ARGV[1] 窗口大小(毫秒), ARGV[2] 窗口内允许的次数, ARGV[3] 当前时间(毫秒), ARGV[4] 本次的次数
+     * 返回 0 表示通过, 大于0 为估算的还需等待的毫秒数
+     */
+    private static final RedisScript<Long> SLIDING_WINDOW = new DefaultRedisScript<Long>(
+            "local window = tonumber(ARGV[1]) "
+                    + "local limit = tonumber(ARGV[2]) "
+                    + "local now = tonumber(ARGV[3]) "
+                    + "local requested = tonumber(ARGV[4]) "
+                    + "local current = tonumber(redis.call('GET', KEYS[1]) or '0') "
+                    + "local previous = tonumber(redis.call('GET', KEYS[2]) or '0') "
+                    + "local elapsed = (now % window) / window "
+                    + "if previous * (1 - elapsed) + current + requested <= limit then "
+                    + "redis.call('INCRBY', KEYS[1], requested) "
+                    + "redis.call('PEXPIRE', KEYS[1], window * 2) "
+                    + "return 0 end "
+                    + "local wait = window - now % window "
+                    + "if previous > 0 and current + requested <= limit then "
+                    + "wait = math.ceil((1 - (limit - current - requested) / previous - elapsed) * window) end "
+                    + "return math.max(1, wait)", Long.class);
+
+    @Resource
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Value("${redis.rate-limit.fail-open:true}")
+    private boolean failOpen;
+
+    @Value("${redis.rate-limit.local-max-size:10000}")
+    private int localMaxSize;
+
+    /**
+     * 本地记录的被拒绝的键 值为解除时间(毫秒), 超过 local-max-size 时淘汰最久未访问的键
+     */
+    private Map<String, Long> deniedUntil;
+
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder denied = new LongAdder();
+    private final LongAdder localDenied = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        deniedUntil = Collections.synchronizedMap(new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > localMaxSize;
+            }
+        });
+    }
+
+    @Override
+    public long tryAcquire(String key, RateLimitMode mode, long limit, long period, long burst) {
+        if (limit <= 0 || period <= 0) {
+            throw new IllegalArgumentException("limit 和 period 必须大于0");
+        }
+        long now = System.currentTimeMillis();
+        Long until = deniedUntil.get(key);
+        if (until != null) {
+            if (now < until) {
+                localDenied.increment();
+                return until - now;
+            }
+            deniedUntil.remove(key, until);
+        }
+        long wait;
+        try {
+            if (mode == RateLimitMode.TOKEN_BUCKET) {
+                long capacity = burst > 0 ? burst : limit;
+                wait = execute(TOKEN_BUCKET, Collections.singletonList(KEY_PREFIX + key),
+                        bytes(String.valueOf(capacity)), bytes(String.valueOf((double) limit / period)),
+                        bytes(String.valueOf(now)), ONE);
+            } else {
+                long window = now / period;
+                wait = execute(SLIDING_WINDOW,
+                        Arrays.asList(KEY_PREFIX + key + ":" + window, KEY_PREFIX + key + ":" + (window - 1)),
+                        bytes(String.valueOf(period)), bytes(String.valueOf(limit)), bytes(String.valueOf(now)), ONE);
+            }
+        } catch (Exception e) {
+            errors.increment();
+            logger.error("限流判断异常 key={}", key, e);
+            if (failOpen) {
+                return 0;
+            }
+            return period;
+        }
+        if (wait <= 0) {
+            allowed.increment();
+            return 0;
+        }
+        denied.increment();
+        rememberDenied(key, now + wait);
+        return wait;
+    }
+
+    private long execute(RedisScript<Long> script, List<String> keys,
+                         Object... args) {
+        Long result = redisTemplate.execute(script, null, null, keys, args);
+        return result == null ? 0 : result;
+    }
+
+    private void rememberDenied(String key, long until) {
+        deniedUntil.put(key, until);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void writeMetrics(StringBuilder out) {
+        out.append("# TYPE redis_rate_limit_requests_total counter\n");
+        out.append("redis_rate_limit_requests_total{result=\"allowed\"} ").append(allowed.sum()).append('\n');
+        out.append("redis_rate_limit_requests_total{result=\"denied\"} ").append(denied.sum()).append('\n');
+        out.append("redis_rate_limit_requests_total{result=\"local_denied\"} ").append(localDenied.sum()).append('\n');
+        out.append("redis_rate_limit_requests_total{result=\"error\"} ").append(errors.sum()).append('\n');
+    }
+}
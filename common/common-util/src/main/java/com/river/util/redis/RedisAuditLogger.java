@@ -0,0 +1,174 @@
+package com.river.util.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * create by river  2018/6/25
+ * desc: redis 访问审计日志 输出到名为 redis.audit 的 logger, 由 logback 的异步 appender 写文件
+ * 调用方先用 isEnabled 判断, 关闭或未被采样时不拼接字符串、不装箱, 热点路径上没有额外开销
+ * <pre>
+ * if (redisAuditLogger.isEnabled("set")) {
+ *     redisAuditLogger.log("普通缓存放入 key={},value={}", key, value);
+ * }
+ * </pre>
+ * 参数中的字符串、集合、Map、数组在日志事件格式化时才展开, 超过 maxValueLength 个字符的部分截断
+ * 注意 logback 的 AsyncAppender 入队前会在调用线程上执行 prepareForDeferredProcessing 格式化消息,
+ * 所以被采样的日志仍在调用线程上展开参数, 异步的只是写文件; 截断长度决定了这部分开销
+ */
+public class RedisAuditLogger {
+
+    public static final String LOGGER_NAME = "redis.audit";
+
+    private static final Logger logger = LoggerFactory.getLogger(LOGGER_NAME);
+
+    private final boolean enabled;
+    private final int maxValueLength;
+    private final double defaultSampleRate;
+    private final Map<String, Double> sampleRates = new HashMap<String, Double>();
+
+    /**
+     * @param enabled           是否开启
+     * @param maxValueLength    每个参数最多输出的字符数
+     * @param defaultSampleRate 默认采样率 0~1
+     * @param opSampleRates     按操作指定的采样率 格式为 操作:采样率, 例如 set:0.01
+     */
+    public RedisAuditLogger(boolean enabled, int maxValueLength, double defaultSampleRate, String[] opSampleRates) {
+        this.enabled = enabled;
+        this.maxValueLength = maxValueLength;
+        this.defaultSampleRate = defaultSampleRate;
+        if (opSampleRates != null) {
+            for (String opSampleRate : opSampleRates) {
+                if (opSampleRate.trim().isEmpty()) {
+                    continue;
+                }
+                int index = opSampleRate.indexOf(':');
+                if (index <= 0) {
+                    throw new IllegalArgumentException("采样率格式应为 操作:采样率 " + opSampleRate);
+                }
+                sampleRates.put(opSampleRate.substring(0, index).trim(),
+                        Double.valueOf(opSampleRate.substring(index + 1).trim()));
+            }
+        }
+    }
+
+    /**
+     * 本次操作是否需要输出 同时完成采样, 每次操作只能调用一次
+     * @param op 操作 与 RedisManager 的方法名一致
+     */
+    public boolean isEnabled(String op) {
+        if (!enabled || !logger.isInfoEnabled()) {
+            return false;
+        }
+        Double rate = sampleRates.get(op);
+        double sampleRate = rate == null ? defaultSampleRate : rate;
+        if (sampleRate >= 1) {
+            return true;
+        }
+        return sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    /**
+     * 输出审计日志 必须在 isEnabled 返回 true 后调用
+     * @param format slf4j 格式 用 {} 占位
+     * @param args   参数
+     */
+    public void log(String format, Object... args) {
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            if (arg != null && !(arg instanceof Number) && !(arg instanceof Boolean)) {
+                args[i] = new Truncated(arg, maxValueLength);
+            }
+        }
+        logger.info(format, args);
+    }
+
+    /**
+     * 延迟展开并截断的参数 在日志事件格式化时(AsyncAppender 入队前, 调用线程上)才调用 toString,
+     * 级别关闭时不会调用
+     */
+    private static class Truncated {
+
+        private final Object value;
+        private final int maxLength;
+
+        private Truncated(Object value, int maxLength) {
+            this.value = value;
+            this.maxLength = maxLength;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(Math.min(maxLength, 64) + 16);
+            append(builder, value);
+            return builder.toString();
+        }
+
+        private void append(StringBuilder builder, Object value) {
+            if (builder.length() >= maxLength) {
+                return;
+            }
+            if (value instanceof CharSequence) {
+                CharSequence chars = (CharSequence) value;
+                int room = maxLength - builder.length();
+                if (chars.length() <= room) {
+                    builder.append(chars);
+                } else {
+                    builder.append(chars, 0, room).append("...(length=").append(chars.length()).append(')');
+                }
+            } else if (value instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) value;
+                builder.append('{');
+                Iterator<? extends Map.Entry<?, ?>> iterator = map.entrySet().iterator();
+                while (iterator.hasNext() && builder.length() < maxLength) {
+                    Map.Entry<?, ?> entry = iterator.next();
+                    append(builder, entry.getKey());
+                    builder.append('=');
+                    append(builder, entry.getValue());
+                    if (iterator.hasNext()) {
+                        builder.append(", ");
+                    }
+                }
+                closeContainer(builder, iterator.hasNext(), map.size(), '}');
+            } else if (value instanceof Collection) {
+                Collection<?> collection = (Collection<?>) value;
+                builder.append('[');
+                Iterator<?> iterator = collection.iterator();
+                while (iterator.hasNext() && builder.length() < maxLength) {
+                    append(builder, iterator.next());
+                    if (iterator.hasNext()) {
+                        builder.append(", ");
+                    }
+                }
+                closeContainer(builder, iterator.hasNext(), collection.size(), ']');
+            } else if (value != null && value.getClass().isArray()) {
+                int length = Array.getLength(value);
+                builder.append('[');
+                int i = 0;
+                for (; i < length && builder.length() < maxLength; i++) {
+                    append(builder, Array.get(value, i));
+                    if (i < length - 1) {
+                        builder.append(", ");
+                    }
+                }
+                closeContainer(builder, i < length, length, ']');
+            } else {
+                append(builder, String.valueOf(value));
+            }
+        }
+
+        private void closeContainer(StringBuilder builder, boolean truncated, int size, char close) {
+            if (truncated) {
+                builder.append("...(size=").append(size).append(')');
+            }
+            builder.append(close);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.river.util.redis;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * create by river  2018/6/30
+ * desc: 布隆过滤器 判断为不存在的元素一定不存在, 判断为存在的元素按创建时的误判率可能不存在
+ * 元素不能删除, 删除的数据较多导致误判率上升时, 用 rebuild 从数据库全量重建
+ * 过滤器不存在或 redis 异常时判断结果为存在, 由调用方继续查询数据库
+ */
+public class RedisBloomFilter {
+
+    private final RedisBloomFilterManagerImpl manager;
+    private final String name;
+    private final long bitSize;
+    private final int hashCount;
+
+    RedisBloomFilter(RedisBloomFilterManagerImpl manager, String name, long bitSize, int hashCount) {
+        this.manager = manager;
+        this.name = name;
+        this.bitSize = bitSize;
+        this.hashCount = hashCount;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 位图的位数
+     */
+    public long getBitSize() {
+        return bitSize;
+    }
+
+    /**
+     * 哈希函数个数 每个元素占用的位数
+     */
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * 加入元素
+     * @param value 元素
+     * @return true 之前一定不存在, false 之前可能已存在
+     */
+    public boolean add(String value) {
+        return manager.add(this, value);
+    }
+
+    /**
+     * 批量加入元素
+     * @param values 元素
+     * @return 之前一定不存在的元素个数
+     */
+    public long addAll(Collection<String> values) {
+        return manager.addAll(this, values);
+    }
+
+    /**
+     * 判断元素是否可能存在
+     * @param value 元素
+     * @return false 一定不存在
+     */
+    public boolean mightContain(String value) {
+        return manager.mightContain(this, value);
+    }
+
+    /**
+     * 批量判断元素是否可能存在
+     * @param values 元素
+     * @return 元素 -> 是否可能存在 顺序与参数一致
+     */
+    public Map<String, Boolean> mightContainAll(Collection<String> values) {
+        return manager.mightContainAll(this, values);
+    }
+
+    /**
+     * 全量重建 写入新位图完成后原子切换, 重建期间的读取使用旧位图, 新加入的元素同时写入新旧位图
+     * 参数不变; 需要扩容时创建新名称的过滤器
+     * @param values 全部元素 通常为数据库中所有id
+     * @return 是否完成 其他节点正在重建时返回false
+     */
+    public boolean rebuild(Iterator<String> values) {
+        return manager.rebuild(this, values);
+    }
+}
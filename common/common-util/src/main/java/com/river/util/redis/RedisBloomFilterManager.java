@@ -0,0 +1,40 @@
+package com.river.util.redis;
+
+/**
+ * create by river  2018/6/30
+ * desc: 基于 redis 位图的布隆过滤器 用于在缓存未命中时拦截一定不存在的id, 防止缓存穿透
+ * <pre>
+ * RedisBloomFilter filter = redisBloomFilterManager.create("user", 10000000, 0.001);
+ * // 新增数据后
+ * filter.add(userId);
+ * // 读取时
+ * if (!filter.mightContain(userId)) {
+ *     return null;
+ * }
+ * return redisManager.getOrLoad("user:" + userId, 3600, loader);
+ * </pre>
+ */
+public interface RedisBloomFilterManager {
+
+    /**
+     * 创建过滤器 已存在时直接返回, 保持原有参数
+     * @param name               名称
+     * @param expectedInsertions 预计元素个数
+     * @param fpp                期望的误判率 0~1
+     * @return 过滤器
+     */
+    RedisBloomFilter create(String name, long expectedInsertions, double fpp);
+
+    /**
+     * 获取已创建的过滤器
+     * @param name 名称
+     * @return 过滤器 不存在时返回null
+     */
+    RedisBloomFilter getFilter(String name);
+
+    /**
+     * 删除过滤器
+     * @param name 名称
+     */
+    void delete(String name);
+}
@@ -0,0 +1,482 @@
+package com.river.util.redis;
+
+import com.river.util.exception.ServiceException;
+import com.river.util.metrics.Histogram;
+import com.river.util.metrics.MetricsSource;
+import com.river.util.res.ResCodeEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * create by river  2018/6/30
+ * desc: 布隆过滤器实现
+ * 描述保存在 bloom:名称 的 hash 中(size/hashes/version/rebuilding/deadline), 位图为 bloom:名称:版本号
+ * 偏移在本地计算(murmur3_128 双重哈希, 与 Guava BloomFilter 一致), 每批元素的写入或判断是一次脚本调用
+ * 当前位图的版本由脚本在服务端读取, 重建切换对所有节点同时生效
+ * 位数和哈希函数个数创建后不变, 本地缓存; 其他节点删除后以不同参数重新创建时, 脚本返回 -2, 重新读取参数后重试
+ */
+@Service
+public class RedisBloomFilterManagerImpl implements RedisBloomFilterManager, MetricsSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisBloomFilterManagerImpl.class);
+
+    private static final String KEY_PREFIX = "bloom:";
+    /**
+     * redis 位图最大 512MB
+     */
+    private static final long MAX_BIT_SIZE = 1L << 32;
+    private static final byte[] SIZE = bytes("size");
+    private static final byte[] HASHES = bytes("hashes");
+    private static final long NOT_EXISTS = -1;
+    private static final long SPEC_CHANGED = -2;
+
+    /**
+     * 创建布隆过滤器 已存在时不修改 ARGV[1] 位数, ARGV[2] 哈希函数个数
+     * 返回实际的 位数,哈希函数个数
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> BLOOM_CREATE = new DefaultRedisScript<List>(
+            "if redis.call('HSETNX', KEYS[1], 'size', ARGV[1]) == 1 then "
+                    + "redis.call('HMSET', KEYS[1], 'hashes', ARGV[2], 'version', '1') end "
+                    + "return redis.call('HMGET', KEYS[1], 'size', 'hashes')", List.class);
+
+    /**
+     * 布隆过滤器写入 ARGV[1] 位数, ARGV[2] 哈希函数个数, ARGV[3..] 每个元素的 哈希函数个数 个偏移
+     * 重建期间同时写入新位图; 返回之前不存在的元素个数, 过滤器不存在返回 -1, 参数与描述不一致返回 -2
+     */
+    private static final RedisScript<Long> BLOOM_ADD = new DefaultRedisScript<Long>(
+            "local meta = redis.call('HMGET', KEYS[1], 'size', 'hashes', 'version', 'rebuilding') "
+                    + "if not meta[3] then return -1 end "
+                    + "if meta[1] ~= ARGV[1] or meta[2] ~= ARGV[2] then return -2 end "
+                    + "local k = tonumber(ARGV[2]) "
+                    + "local added = 0 "
+                    + "for i = 3, #ARGV, k do "
+                    + "local changed = 0 "
+                    + "for j = i, i + k - 1 do "
+                    + "changed = changed + 1 - redis.call('SETBIT', KEYS[1] .. ':' .. meta[3], ARGV[j], 1) "
+                    + "if meta[4] then redis.call('SETBIT', KEYS[1] .. ':' .. meta[4], ARGV[j], 1) end "
+                    + "end "
+                    + "if changed > 0 then added = added + 1 end "
+                    + "end "
+                    + "return added", Long.class);
+
+    /**
+     * 布隆过滤器判断 参数同 BLOOM_ADD
+     * 按顺序返回每个元素 1 可能存在 0 一定不存在, 过滤器不存在返回 {-1}, 参数与描述不一致返回 {-2}
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> BLOOM_CHECK = new DefaultRedisScript<List>(
+            "local meta = redis.call('HMGET', KEYS[1], 'size', 'hashes', 'version') "
+                    + "if not meta[3] then return {-1} end "
+                    + "if meta[1] ~= ARGV[1] or meta[2] ~= ARGV[2] then return {-2} end "
+                    + "local k = tonumber(ARGV[2]) "
+                    + "local result = {} "
+                    + "for i = 3, #ARGV, k do "
+                    + "local found = 1 "
+                    + "for j = i, i + k - 1 do "
+                    + "if redis.call('GETBIT', KEYS[1] .. ':' .. meta[3], ARGV[j]) == 0 then found = 0 break end "
+                    + "end "
+                    + "result[#result + 1] = found "
+                    + "end "
+                    + "return result", List.class);
+
+    /**
+     * 开始重建 ARGV[1] 当前时间(毫秒), ARGV[2] 超时(毫秒)
+     * 返回新位图的版本号; 其他节点正在重建返回 0, 过滤器不存在返回 -1
+     * 之前的重建超时未完成时(节点宕机)放弃它的位图重新开始
+     */
+    private static final RedisScript<Long> BLOOM_BEGIN_REBUILD = new DefaultRedisScript<Long>(
+            "local meta = redis.call('HMGET', KEYS[1], 'version', 'rebuilding', 'deadline') "
+                    + "if not meta[1] then return -1 end "
+                    + "local target = tonumber(meta[1]) + 1 "
+                    + "if meta[2] then "
+                    + "if tonumber(meta[3] or '0') > tonumber(ARGV[1]) then return 0 end "
+                    + "redis.call('DEL', KEYS[1] .. ':' .. meta[2]) "
+                    + "target = tonumber(meta[2]) + 1 end "
+                    + "redis.call('DEL', KEYS[1] .. ':' .. target) "
+                    + "redis.call('HMSET', KEYS[1], 'rebuilding', target, 'deadline', tonumber(ARGV[1]) + tonumber(ARGV[2])) "
+                    + "return target", Long.class);
+
+    /**
+     * 重建时写入一批 ARGV[1] 新版本号, ARGV[2] 新的超时时间点(毫秒), ARGV[3..] 偏移
+     * 返回 1, 重建已被其他节点接管或取消返回 0
+     */
+    private static final RedisScript<Long> BLOOM_REBUILD_ADD = new DefaultRedisScript<Long>(
+            "if redis.call('HGET', KEYS[1], 'rebuilding') ~= ARGV[1] then return 0 end "
+                    + "redis.call('HSET', KEYS[1], 'deadline', ARGV[2]) "
+                    + "for i = 3, #ARGV do redis.call('SETBIT', KEYS[1] .. ':' .. ARGV[1], ARGV[i], 1) end "
+                    + "return 1", Long.class);
+
+    /**
+     * 结束重建 ARGV[1] 新版本号, ARGV[2] 1 切换到新位图 0 放弃新位图
+     * 返回 1, 重建已被其他节点接管返回 0
+     */
+    private static final RedisScript<Long> BLOOM_END_REBUILD = new DefaultRedisScript<Long>(
+            "if redis.call('HGET', KEYS[1], 'rebuilding') ~= ARGV[1] then return 0 end "
+                    + "redis.call('HDEL', KEYS[1], 'rebuilding', 'deadline') "
+                    + "if ARGV[2] == '0' then redis.call('DEL', KEYS[1] .. ':' .. ARGV[1]) return 1 end "
+                    + "local version = redis.call('HGET', KEYS[1], 'version') "
+                    + "redis.call('HSET', KEYS[1], 'version', ARGV[1]) "
+                    + "redis.call('DEL', KEYS[1] .. ':' .. version) "
+                    + "return 1", Long.class);
+
+    /**
+     * 删除布隆过滤器 包括描述和所有位图
+     */
+    private static final RedisScript<Long> BLOOM_DELETE = new DefaultRedisScript<Long>(
+            "local meta = redis.call('HMGET', KEYS[1], 'version', 'rebuilding') "
+                    + "if not meta[1] then return 0 end "
+                    + "redis.call('DEL', KEYS[1] .. ':' .. meta[1]) "
+                    + "if meta[2] then redis.call('DEL', KEYS[1] .. ':' .. meta[2]) end "
+                    + "redis.call('DEL', KEYS[1]) "
+                    + "return 1", Long.class);
+
+    @Resource
+    private RedisTemplate<String, String> redisTemplate;
+
+    /**
+     * 每次脚本调用包含的元素个数
+     */
+    @Value("${redis.bloom.batch-size:500}")
+    private int batchSize;
+
+    /**
+     * 重建超时(毫秒) 重建节点超过该时间没有进展时, 其他节点可以重新开始重建
+     */
+    @Value("${redis.bloom.rebuild-timeout:60000}")
+    private long rebuildTimeout;
+
+    private final ConcurrentMap<String, RedisBloomFilter> filters = new ConcurrentHashMap<String, RedisBloomFilter>();
+    private final ConcurrentMap<String, FilterMetrics> metrics = new ConcurrentHashMap<String, FilterMetrics>();
+
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public RedisBloomFilter create(String name, long expectedInsertions, double fpp) {
+        if (expectedInsertions <= 0 || fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("expectedInsertions 必须大于0, fpp 必须在 0~1 之间");
+        }
+        long bitSize = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        bitSize = Math.min(Math.max(bitSize, 64), MAX_BIT_SIZE);
+        int hashCount = Math.max(1, (int) Math.round((double) bitSize / expectedInsertions * Math.log(2)));
+        List<byte[]> spec;
+        try {
+            spec = redisTemplate.execute(BLOOM_CREATE, (RedisSerializer<?>) null, (RedisSerializer<List>) null,
+                    Collections.singletonList(key(name)), bytes(String.valueOf(bitSize)), bytes(String.valueOf(hashCount)));
+        } catch (Exception e) {
+            logger.error("创建布隆过滤器异常 name={}", name, e);
+            throw new ServiceException(ResCodeEnum.sys_error);
+        }
+        RedisBloomFilter filter = toFilter(name, spec);
+        if (filter.getBitSize() != bitSize || filter.getHashCount() != hashCount) {
+            logger.warn("布隆过滤器已存在, 使用原有参数 name={},bitSize={},hashCount={}",
+                    name, filter.getBitSize(), filter.getHashCount());
+        }
+        filters.put(name, filter);
+        return filter;
+    }
+
+    @Override
+    public RedisBloomFilter getFilter(String name) {
+        RedisBloomFilter filter = filters.get(name);
+        if (filter != null) {
+            return filter;
+        }
+        filter = load(name);
+        if (filter != null) {
+            filters.put(name, filter);
+        }
+        return filter;
+    }
+
+    @Override
+    public void delete(String name) {
+        execute(BLOOM_DELETE, key(name));
+        filters.remove(name);
+    }
+
+    boolean add(RedisBloomFilter filter, String value) {
+        return addAll(filter, Collections.singletonList(value)) > 0;
+    }
+
+    long addAll(RedisBloomFilter filter, Collection<String> values) {
+        long added = 0;
+        List<String> batch = new ArrayList<String>(Math.min(values.size(), batchSize));
+        for (String value : values) {
+            batch.add(value);
+            if (batch.size() >= batchSize) {
+                added += addBatch(filter.getName(), batch, true);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            added += addBatch(filter.getName(), batch, true);
+        }
+        metrics(filter.getName()).added.add(values.size());
+        return added;
+    }
+
+    private long addBatch(String name, List<String> values, boolean retry) {
+        RedisBloomFilter filter = getFilter(name);
+        if (filter == null) {
+            logger.warn("布隆过滤器不存在 name={}", name);
+            return 0;
+        }
+        Long result;
+        try {
+            result = redisTemplate.execute(BLOOM_ADD, null, null, Collections.singletonList(key(name)),
+                    args(filter, values));
+        } catch (Exception e) {
+            metrics(name).errors.increment();
+            logger.error("布隆过滤器写入异常 name={}", name, e);
+            throw new ServiceException(ResCodeEnum.sys_error);
+        }
+        if (result == null || result == NOT_EXISTS) {
+            filters.remove(name, filter);
+            logger.warn("布隆过滤器不存在 name={}", name);
+            return 0;
+        }
+        if (result == SPEC_CHANGED) {
+            filters.remove(name, filter);
+            return retry ? addBatch(name, values, false) : 0;
+        }
+        return result;
+    }
+
+    boolean mightContain(RedisBloomFilter filter, String value) {
+        return mightContainAll(filter, Collections.singletonList(value)).get(value);
+    }
+
+    Map<String, Boolean> mightContainAll(RedisBloomFilter filter, Collection<String> values) {
+        Map<String, Boolean> result = new LinkedHashMap<String, Boolean>(values.size() * 4 / 3 + 1);
+        List<String> batch = new ArrayList<String>(Math.min(values.size(), batchSize));
+        for (String value : values) {
+            batch.add(value);
+            if (batch.size() >= batchSize) {
+                checkBatch(filter.getName(), batch, result, true);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            checkBatch(filter.getName(), batch, result, true);
+        }
+        return result;
+    }
+
+    /**
+     * 过滤器不存在或异常时全部按存在处理
+     */
+    @SuppressWarnings("unchecked")
+    private void checkBatch(String name, List<String> values, Map<String, Boolean> result, boolean retry) {
+        FilterMetrics filterMetrics = metrics(name);
+        RedisBloomFilter filter = getFilter(name);
+        List<Long> found = null;
+        if (filter != null) {
+            try {
+                found = redisTemplate.execute(BLOOM_CHECK, null, null,
+                        Collections.singletonList(key(name)), args(filter, values));
+            } catch (Exception e) {
+                filterMetrics.errors.increment();
+                logger.error("布隆过滤器判断异常 name={}", name, e);
+            }
+        }
+        if (found != null && found.size() == 1 && found.get(0) < 0) {
+            filters.remove(name, filter);
+            if (found.get(0) == SPEC_CHANGED && retry) {
+                checkBatch(name, values, result, false);
+                return;
+            }
+            found = null;
+        }
+        for (int i = 0; i < values.size(); i++) {
+            boolean contains = found == null || i >= found.size() || found.get(i) != 0;
+            if (contains) {
+                filterMetrics.positive.increment();
+            } else {
+                filterMetrics.negative.increment();
+            }
+            result.put(values.get(i), contains);
+        }
+    }
+
+    boolean rebuild(RedisBloomFilter filter, Iterator<String> values) {
+        String name = filter.getName();
+        filter = getFilter(name);
+        if (filter == null) {
+            logger.warn("布隆过滤器不存在 name={}", name);
+            return false;
+        }
+        String key = key(name);
+        long version = execute(BLOOM_BEGIN_REBUILD, key,
+                bytes(String.valueOf(System.currentTimeMillis())), bytes(String.valueOf(rebuildTimeout)));
+        if (version <= 0) {
+            return false;
+        }
+        byte[] rawVersion = bytes(String.valueOf(version));
+        long count = 0;
+        boolean completed = false;
+        try {
+            List<String> batch = new ArrayList<String>(batchSize);
+            while (values.hasNext()) {
+                batch.add(values.next());
+                if (batch.size() >= batchSize || !values.hasNext()) {
+                    List<byte[]> args = new ArrayList<byte[]>(batch.size() * filter.getHashCount() + 2);
+                    args.add(rawVersion);
+                    args.add(bytes(String.valueOf(System.currentTimeMillis() + rebuildTimeout)));
+                    for (String value : batch) {
+                        offsets(filter, value, args);
+                    }
+                    if (execute(BLOOM_REBUILD_ADD, key, args.toArray()) == 0) {
+                        logger.warn("布隆过滤器重建已被其他节点接管 name={},version={}", name, version);
+                        return false;
+                    }
+                    count += batch.size();
+                    batch.clear();
+                }
+            }
+            completed = execute(BLOOM_END_REBUILD, key, rawVersion, bytes("1")) == 1;
+            logger.info("布隆过滤器重建完成 name={},version={},count={}", name, version, count);
+            return completed;
+        } finally {
+            if (!completed) {
+                try {
+                    execute(BLOOM_END_REBUILD, key, rawVersion, bytes("0"));
+                } catch (Exception e) {
+                    logger.error("布隆过滤器放弃重建异常 name={},version={}", name, version, e);
+                }
+            }
+        }
+    }
+
+    private long execute(RedisScript<Long> script, String key, Object... args) {
+        Long result;
+        try {
+            result = redisTemplate.execute(script, null, null, Collections.singletonList(key), args);
+        } catch (Exception e) {
+            logger.error("布隆过滤器操作异常 key={}", key, e);
+            throw new ServiceException(ResCodeEnum.sys_error);
+        }
+        return result == null ? 0 : result;
+    }
+
+    private RedisBloomFilter load(String name) {
+        final byte[] rawKey = bytes(key(name));
+        List<byte[]> spec;
+        try {
+            spec = redisTemplate.execute(new RedisCallback<List<byte[]>>() {
+                @Override
+                public List<byte[]> doInRedis(RedisConnection connection) throws DataAccessException {
+                    return connection.hMGet(rawKey, SIZE, HASHES);
+                }
+            });
+        } catch (Exception e) {
+            logger.error("读取布隆过滤器异常 name={}", name, e);
+            return null;
+        }
+        if (spec == null || spec.size() < 2 || spec.get(0) == null || spec.get(1) == null) {
+            return null;
+        }
+        return toFilter(name, spec);
+    }
+
+    private RedisBloomFilter toFilter(String name, List<byte[]> spec) {
+        return new RedisBloomFilter(this, name,
+                Long.parseLong(new String(spec.get(0), StandardCharsets.UTF_8)),
+                Integer.parseInt(new String(spec.get(1), StandardCharsets.UTF_8)));
+    }
+
+    private Object[] args(RedisBloomFilter filter, List<String> values) {
+        List<byte[]> args = new ArrayList<byte[]>(values.size() * filter.getHashCount() + 2);
+        args.add(bytes(String.valueOf(filter.getBitSize())));
+        args.add(bytes(String.valueOf(filter.getHashCount())));
+        for (String value : values) {
+            offsets(filter, value, args);
+        }
+        return args.toArray();
+    }
+
+    /**
+     * 双重哈希 第i个偏移为 (h1 + i * h2) mod 位数
+     */
+    private void offsets(RedisBloomFilter filter, String value, List<byte[]> args) {
+        long[] hash = Murmur3.hash128(bytes(value));
+        long combined = hash[0];
+        for (int i = 0; i < filter.getHashCount(); i++) {
+            args.add(bytes(Long.toString((combined & Long.MAX_VALUE) % filter.getBitSize())));
+            combined += hash[1];
+        }
+    }
+
+    /**
+     * 名称放在 {} 中, 集群模式下描述和位图在同一个槽
+     */
+    private static String key(String name) {
+        return KEY_PREFIX + "{" + name + "}";
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private FilterMetrics metrics(String name) {
+        FilterMetrics filterMetrics = metrics.get(name);
+        if (filterMetrics == null) {
+            FilterMetrics created = new FilterMetrics();
+            filterMetrics = metrics.putIfAbsent(name, created);
+            if (filterMetrics == null) {
+                filterMetrics = created;
+            }
+        }
+        return filterMetrics;
+    }
+
+    @Override
+    public void writeMetrics(StringBuilder out) {
+        out.append("# TYPE redis_bloom_filter_checks_total counter\n");
+        for (Map.Entry<String, FilterMetrics> entry : metrics.entrySet()) {
+            String filter = Histogram.escape(entry.getKey());
+            out.append("redis_bloom_filter_checks_total{filter=\"").append(filter).append("\",result=\"positive\"} ")
+                    .append(entry.getValue().positive.sum()).append('\n');
+            out.append("redis_bloom_filter_checks_total{filter=\"").append(filter).append("\",result=\"negative\"} ")
+                    .append(entry.getValue().negative.sum()).append('\n');
+        }
+        out.append("# TYPE redis_bloom_filter_added_total counter\n");
+        for (Map.Entry<String, FilterMetrics> entry : metrics.entrySet()) {
+            out.append("redis_bloom_filter_added_total{filter=\"").append(Histogram.escape(entry.getKey())).append("\"} ")
+                    .append(entry.getValue().added.sum()).append('\n');
+        }
+        out.append("# TYPE redis_bloom_filter_errors_total counter\n");
+        for (Map.Entry<String, FilterMetrics> entry : metrics.entrySet()) {
+            out.append("redis_bloom_filter_errors_total{filter=\"").append(Histogram.escape(entry.getKey())).append("\"} ")
+                    .append(entry.getValue().errors.sum()).append('\n');
+        }
+    }
+
+    private static class FilterMetrics {
+        private final LongAdder positive = new LongAdder();
+        private final LongAdder negative = new LongAdder();
+        private final LongAdder added = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+    }
+}
@@ -1,13 +1,36 @@
 package com.river.util.redis;
 
+import com.river.util.redis.codec.CodecRedisSerializer;
+import com.river.util.redis.codec.JdkValueCodec;
+import com.river.util.redis.codec.JsonValueCodec;
+import com.river.util.redis.codec.RedisValueCodec;
+import com.river.util.redis.codec.StringKeyRedisSerializer;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.codec.ByteArrayCodec;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CachingConfigurerSupport;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.cache.RedisCacheManager;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * create by river  2018/5/15
@@ -17,18 +40,390 @@ import org.springframework.data.redis.core.RedisTemplate;
 @EnableCaching
 public class RedisConfig extends CachingConfigurerSupport {
 
+    /**
+     * 与 spring boot 的 JedisConnectionFactory 默认超时相同(毫秒)
+     */
+    private static final int DEFAULT_TIMEOUT = 2000;
+
 
+    /**
+     * 连接池指标
+     */
     @Bean
-    public CacheManager cacheManager(RedisTemplate<?,?> redisTemplate) {
-        CacheManager cacheManager = new RedisCacheManager(redisTemplate);
+    public RedisPoolMetrics redisPoolMetrics() {
+        return new RedisPoolMetrics();
+    }
+
+    /**
+     * redis 连接工厂 地址、密码、库沿用 spring.redis 配置, 连接池和超时使用 redis.pool 配置
+     * max-wait 为连接池耗尽时获取连接的最长等待时间(毫秒), 超时后抛出异常而不是一直阻塞
+     * connect-timeout/read-timeout 没有配置时使用 spring.redis.timeout, 都没有配置(或为0)时与 spring boot 一样为 2000 毫秒
+     */
+    @Bean
+    public RedisConnectionFactory redisConnectionFactory(RedisProperties redisProperties,
+                                                         RedisPoolMetrics redisPoolMetrics,
+                                                         @Value("${redis.pool.max-total:64}") int maxTotal,
+                                                         @Value("${redis.pool.max-idle:64}") int maxIdle,
+                                                         @Value("${redis.pool.min-idle:8}") int minIdle,
+                                                         @Value("${redis.pool.max-wait:200}") long maxWait,
+                                                         @Value("${redis.pool.connect-timeout:${spring.redis.timeout:0}}") int connectTimeout,
+                                                         @Value("${redis.pool.read-timeout:${spring.redis.timeout:0}}") int readTimeout,
+                                                         @Value("${redis.pool.time-between-eviction-runs:30000}") long timeBetweenEvictionRuns,
+                                                         @Value("${redis.pool.min-evictable-idle-time:60000}") long minEvictableIdleTime,
+                                                         @Value("${redis.pool.prewarm:8}") int prewarm) {
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(maxTotal);
+        poolConfig.setMaxIdle(maxIdle);
+        poolConfig.setMinIdle(minIdle);
+        poolConfig.setMaxWaitMillis(maxWait);
+        // 空闲检测线程同时负责回收超过 min-evictable-idle-time 的空闲连接并补足 min-idle
+        poolConfig.setTestWhileIdle(true);
+        poolConfig.setTimeBetweenEvictionRunsMillis(timeBetweenEvictionRuns);
+        poolConfig.setMinEvictableIdleTimeMillis(minEvictableIdleTime);
+        PooledJedisConnectionFactory factory = new PooledJedisConnectionFactory(poolConfig, timeout(connectTimeout),
+                timeout(readTimeout), prewarm, redisPoolMetrics);
+        factory.setHostName(redisProperties.getHost());
+        factory.setPort(redisProperties.getPort());
+        factory.setDatabase(redisProperties.getDatabase());
+        if (StringUtils.isNotBlank(redisProperties.getPassword())) {
+            factory.setPassword(redisProperties.getPassword());
+        }
+        factory.setUseSsl(redisProperties.isSsl());
+        return factory;
+    }
+
+    private static int timeout(int timeout) {
+        return timeout > 0 ? timeout : DEFAULT_TIMEOUT;
+    }
+
+    /**
+     * &#64;Cacheable 使用的缓存 过期时间单位为秒, 0 表示不过期
+     * redis.cache.ttls 按缓存名指定过期时间, 格式为 缓存名:秒, 多个用逗号分隔, 例如 user:600,order:60
+     */
+    @Bean
+    public CacheManager cacheManager(RedisTemplate<String,String> redisTemplate, SingleFlight singleFlight,
+                                     @Value("${redis.cache.default-ttl:3600}") long defaultTtl,
+                                     @Value("${redis.cache.ttls:}") String[] ttls,
+                                     @Value("${redis.cache.ttl-jitter:0.1}") double ttlJitter,
+                                     @Value("${redis.cache.early-refresh:0.2}") double earlyRefresh,
+                                     @Value("${redis.cache.cache-null-values:false}") boolean cacheNullValues,
+                                     @Value("${redis.cache.null-ttl:60}") long nullTtl,
+                                     @Value("${redis.cache.use-prefix:true}") boolean usePrefix,
+                                     @Value("${redis.cache.refresh-threads:2}") int refreshThreads) {
+        Map<String, Long> expires = new HashMap<String, Long>();
+        for (String ttl : ttls) {
+            if (StringUtils.isBlank(ttl)) {
+                continue;
+            }
+            int index = ttl.lastIndexOf(':');
+            if (index <= 0) {
+                throw new IllegalArgumentException("缓存过期时间格式应为 缓存名:秒 " + ttl);
+            }
+            expires.put(ttl.substring(0, index).trim(), Long.valueOf(ttl.substring(index + 1).trim()));
+        }
+        RefreshingRedisCacheManager cacheManager = new RefreshingRedisCacheManager(redisTemplate, cacheNullValues,
+                singleFlight, refreshThreads);
+        cacheManager.setDefaultExpiration(defaultTtl);
+        cacheManager.setExpires(expires);
+        cacheManager.setUsePrefix(usePrefix);
+        cacheManager.setTtlJitter(ttlJitter);
+        cacheManager.setEarlyRefresh(earlyRefresh);
+        cacheManager.setNullExpiration(nullTtl);
         return cacheManager;
     }
 
+    /**
+     * key 和 hash 项默认为 UTF-8 字符串, redis.codec.legacy-write=true 时与值一样按老版本的 JDK 序列化写入,
+     * 保证灰度期间新老节点读写同一个物理 key; 关闭后需要用 redis.codec.migrate-legacy-keys 迁移旧 key
+     */
     @Bean
-    public RedisTemplate<String,String> redisTemplate(RedisConnectionFactory factory) {
+    public RedisTemplate<String,String> redisTemplate(RedisConnectionFactory factory, CodecRedisSerializer redisValueSerializer,
+                                                      @Value("${redis.codec.legacy-write:false}") boolean legacyWrite) {
         RedisTemplate<String,String> redisTemplate = new RedisTemplate<String, String>();
         redisTemplate.setConnectionFactory(factory);
+        StringKeyRedisSerializer keySerializer = new StringKeyRedisSerializer(legacyWrite);
+        redisTemplate.setKeySerializer(keySerializer);
+        redisTemplate.setHashKeySerializer(keySerializer);
+        redisTemplate.setValueSerializer(redisValueSerializer);
+        redisTemplate.setHashValueSerializer(redisValueSerializer);
         return  redisTemplate;
     }
 
+    /**
+     * 值的序列化 redis.codec.object 为非字符串值的编码方式 json/jdk
+     * 灰度期间老节点只能读取 JDK 序列化数据, 先以 redis.codec.legacy-write=true 全量发布, 再关闭
+     */
+    @Bean
+    public CodecRedisSerializer redisValueSerializer(@Value("${redis.codec.object:json}") String objectCodec,
+                                                     @Value("${redis.codec.compress-threshold:4096}") int compressThreshold,
+                                                     @Value("${redis.codec.legacy-write:false}") boolean legacyWrite,
+                                                     @Value("${redis.codec.json-accept:com.river.}") String[] jsonAccept) {
+        RedisValueCodec codec;
+        if ("json".equalsIgnoreCase(objectCodec)) {
+            codec = new JsonValueCodec(jsonAccept);
+        } else if ("jdk".equalsIgnoreCase(objectCodec)) {
+            codec = new JdkValueCodec();
+        } else {
+            throw new IllegalArgumentException("不支持的编码方式 redis.codec.object=" + objectCodec);
+        }
+        return new CodecRedisSerializer(codec, compressThreshold, legacyWrite);
+    }
+
+    /**
+     * 关闭 redis.codec.legacy-write 后把 JDK 序列化的 key 迁移为 UTF-8 key, 启动后在后台执行一次
+     * 迁移 spring.redis 和所有分片节点, 副本只读不迁移
+     */
+    @Bean(initMethod = "start")
+    @ConditionalOnProperty(name = "redis.codec.migrate-legacy-keys", havingValue = "true")
+    public LegacyKeyMigrator legacyKeyMigrator(RedisTemplate<String, String> redisTemplate,
+                                               RedisShardRouter redisShardRouter,
+                                               @Value("${redis.codec.legacy-write:false}") boolean legacyWrite,
+                                               @Value("${redis.codec.migrate-scan-count:1000}") int scanCount) {
+        if (legacyWrite) {
+            throw new IllegalArgumentException("redis.codec.legacy-write 开启时不能迁移 key");
+        }
+        List<RedisTemplate<String, String>> templates = new ArrayList<RedisTemplate<String, String>>();
+        templates.add(redisTemplate);
+        for (RedisTemplate<String, String> template : redisShardRouter.getTemplates()) {
+            if (!templates.contains(template)) {
+                templates.add(template);
+            }
+        }
+        return new LegacyKeyMigrator(templates, scanCount);
+    }
+
+    /**
+     * 客户端分片 redis.shard.nodes 为空时只使用 spring.redis 一个节点
+     * 节点格式为 名称=host:port 或 host:port(名称即地址), 名称决定 key 的分布, 更换地址时保持名称不变
+     * 密码和库沿用 spring.redis, 连接池使用 redis.pool 配置, 与 spring.redis 地址相同的节点复用同一个连接池
+     * 只有 RedisManager(及分块存储、写回计数器)分片, 缓存注解、分布式锁、限流、布隆过滤器、消息仍使用 spring.redis
+     */
+    @Bean(destroyMethod = "close")
+    public RedisShardRouter redisShardRouter(RedisTemplate<String, String> redisTemplate,
+                                             RedisConnectionFactory redisConnectionFactory,
+                                             RedisProperties redisProperties,
+                                             RedisMetrics redisMetrics,
+                                             @Value("${redis.shard.nodes:}") String[] nodes,
+                                             @Value("${redis.shard.virtual-nodes:160}") int virtualNodes,
+                                             @Value("${redis.shard.batch-threads:8}") int batchThreads,
+                                             @Value("${redis.async.enabled:false}") boolean asyncEnabled) {
+        List<RedisConnectionFactory> ownedFactories = new ArrayList<RedisConnectionFactory>();
+        Map<String, RedisTemplate<String, String>> templates = nodeTemplates(nodes, "分片", redisTemplate,
+                redisConnectionFactory, redisProperties, redisMetrics, ownedFactories);
+        if (templates.isEmpty()) {
+            templates.put(redisProperties.getHost() + ":" + redisProperties.getPort(), redisTemplate);
+        }
+        if (templates.size() > 1 && asyncEnabled) {
+            throw new IllegalStateException("分片模式不支持 redis.async.enabled=true");
+        }
+        return new RedisShardRouter(templates, ownedFactories, virtualNodes, batchThreads);
+    }
+
+    /**
+     * 读写分离 redis.replica.nodes 为空时所有读操作访问 spring.redis
+     * 节点格式为 名称=host:port 或 host:port, 密码和库沿用 spring.redis, 连接池使用 redis.pool 配置
+     * 只有 RedisManager 的读操作使用副本, 分片模式下不支持
+     */
+    @Bean(destroyMethod = "close")
+    public RedisReplicaRouter redisReplicaRouter(RedisTemplate<String, String> redisTemplate,
+                                                 RedisConnectionFactory redisConnectionFactory,
+                                                 RedisProperties redisProperties,
+                                                 RedisMetrics redisMetrics,
+                                                 RedisShardRouter redisShardRouter,
+                                                 @Value("${redis.replica.nodes:}") String[] nodes,
+                                                 @Value("${redis.replica.selection:round-robin}") String selection,
+                                                 @Value("${redis.replica.health-check-interval:1000}") long healthCheckInterval,
+                                                 @Value("${redis.replica.max-lag:30}") long maxLag) {
+        List<RedisConnectionFactory> ownedFactories = new ArrayList<RedisConnectionFactory>();
+        Map<String, RedisTemplate<String, String>> templates = nodeTemplates(nodes, "副本", redisTemplate,
+                redisConnectionFactory, redisProperties, redisMetrics, ownedFactories);
+        if (!templates.isEmpty() && redisShardRouter.isSharded()) {
+            throw new IllegalStateException("分片模式不支持 redis.replica.nodes");
+        }
+        ReplicaSelection replicaSelection = ReplicaSelection.valueOf(selection.trim().toUpperCase().replace('-', '_'));
+        return new RedisReplicaRouter(redisTemplate, templates, ownedFactories, replicaSelection, healthCheckInterval, maxLag);
+    }
+
+    /**
+     * 解析 名称=host:port 或 host:port 格式的节点列表, 名称 -> 节点的 RedisTemplate, 按配置顺序
+     *
+     * @param kind 节点用途 用于错误信息
+     */
+    private Map<String, RedisTemplate<String, String>> nodeTemplates(String[] nodes, String kind,
+                                                                     RedisTemplate<String, String> redisTemplate,
+                                                                     RedisConnectionFactory redisConnectionFactory,
+                                                                     RedisProperties redisProperties, RedisMetrics redisMetrics,
+                                                                     List<RedisConnectionFactory> ownedFactories) {
+        Map<String, RedisTemplate<String, String>> templates = new LinkedHashMap<String, RedisTemplate<String, String>>();
+        for (String node : nodes) {
+            if (StringUtils.isBlank(node)) {
+                continue;
+            }
+            String address = node.trim();
+            String name = address;
+            int index = address.indexOf('=');
+            if (index >= 0) {
+                name = address.substring(0, index).trim();
+                address = address.substring(index + 1).trim();
+            }
+            if (templates.containsKey(name)) {
+                throw new IllegalArgumentException(kind + "节点名称重复 " + name);
+            }
+            templates.put(name, nodeTemplate(address, redisTemplate, redisConnectionFactory, redisProperties,
+                    redisMetrics, ownedFactories));
+        }
+        return templates;
+    }
+
+    /**
+     * host:port 对应节点的 RedisTemplate 与 spring.redis 地址相同时复用主节点的 RedisTemplate
+     * 新建的连接工厂加入 ownedFactories, 由使用方关闭
+     */
+    private RedisTemplate<String, String> nodeTemplate(String address, RedisTemplate<String, String> redisTemplate,
+                                                       RedisConnectionFactory redisConnectionFactory,
+                                                       RedisProperties redisProperties, RedisMetrics redisMetrics,
+                                                       List<RedisConnectionFactory> ownedFactories) {
+        int colon = address.lastIndexOf(':');
+        String host = colon > 0 ? address.substring(0, colon) : address;
+        int port = colon > 0 ? Integer.parseInt(address.substring(colon + 1)) : 6379;
+        if (host.equals(redisProperties.getHost()) && port == redisProperties.getPort()) {
+            return redisTemplate;
+        }
+        RedisConnectionFactory primary = redisConnectionFactory instanceof InstrumentedRedisConnectionFactory
+                ? ((InstrumentedRedisConnectionFactory) redisConnectionFactory).getDelegate() : redisConnectionFactory;
+        if (!(primary instanceof PooledJedisConnectionFactory)) {
+            throw new IllegalStateException("分片和读写分离需要使用 PooledJedisConnectionFactory");
+        }
+        PooledJedisConnectionFactory factory = ((PooledJedisConnectionFactory) primary).newNode(host, port);
+        factory.afterPropertiesSet();
+        RedisConnectionFactory instrumented = new InstrumentedRedisConnectionFactory(factory, redisMetrics);
+        ownedFactories.add(instrumented);
+        RedisTemplate<String, String> template = new RedisTemplate<String, String>();
+        template.setConnectionFactory(instrumented);
+        template.setKeySerializer(redisTemplate.getKeySerializer());
+        template.setHashKeySerializer(redisTemplate.getHashKeySerializer());
+        template.setValueSerializer(redisTemplate.getValueSerializer());
+        template.setHashValueSerializer(redisTemplate.getHashValueSerializer());
+        template.afterPropertiesSet();
+        return template;
+    }
+
+    /**
+     * 大value分块存储 redis.chunk.threshold 小于等于0 时不分块
+     */
+    @Bean
+    public ChunkedValueStore chunkedValueStore(RedisShardRouter redisShardRouter,
+                                               CodecRedisSerializer redisValueSerializer,
+                                               @Value("${redis.chunk.threshold:0}") int threshold,
+                                               @Value("${redis.chunk.size:262144}") int chunkSize,
+                                               @Value("${redis.chunk.prefetch:4}") int prefetch,
+                                               @Value("${redis.chunk.write-timeout:60}") long writeTimeout) {
+        return new ChunkedValueStore(redisShardRouter, redisValueSerializer, threshold, chunkSize, prefetch, writeTimeout);
+    }
+
+    /**
+     * 缓存读取/加载的请求合并
+     */
+    @Bean
+    public SingleFlight singleFlight(@Value("${redis.single-flight.timeout:3000}") long timeout) {
+        return new SingleFlight(timeout);
+    }
+
+    /**
+     * redis 访问审计日志 redis.audit.op-sample-rates 按操作指定采样率, 例如 set:0.01,hset:0.1
+     */
+    @Bean
+    public RedisAuditLogger redisAuditLogger(@Value("${redis.audit.enabled:true}") boolean enabled,
+                                             @Value("${redis.audit.max-value-length:256}") int maxValueLength,
+                                             @Value("${redis.audit.sample-rate:1}") double sampleRate,
+                                             @Value("${redis.audit.op-sample-rates:}") String[] opSampleRates) {
+        return new RedisAuditLogger(enabled, maxValueLength, sampleRate, opSampleRates);
+    }
+
+    /**
+     * redis 命令指标
+     */
+    @Bean
+    public RedisMetrics redisMetrics(ObjectProvider<NearCache> nearCache, SingleFlight singleFlight) {
+        RedisMetrics redisMetrics = new RedisMetrics();
+        redisMetrics.setNearCache(nearCache.getIfAvailable());
+        redisMetrics.setSingleFlight(singleFlight);
+        return redisMetrics;
+    }
+
+    /**
+     * 为 RedisConnectionFactory 加上命令耗时统计
+     */
+    @Bean
+    public static RedisMetricsPostProcessor redisMetricsPostProcessor() {
+        return new RedisMetricsPostProcessor();
+    }
+
+    /**
+     * 本地一级缓存 redis.near-cache.enabled=true 时开启
+     */
+    @Bean
+    @ConditionalOnProperty(name = "redis.near-cache.enabled", havingValue = "true")
+    public NearCache nearCache(@Value("${redis.near-cache.max-size:10000}") int maxSize,
+                               @Value("${redis.near-cache.ttl:30}") long ttl,
+                               @Value("${redis.near-cache.channel:near-cache:invalidate}") String channel) {
+        return new NearCache(maxSize, ttl, channel);
+    }
+
+    /**
+     * 订阅其他节点的本地缓存失效通知
+     */
+    @Bean
+    @ConditionalOnProperty(name = "redis.near-cache.enabled", havingValue = "true")
+    public RedisMessageListenerContainer nearCacheListenerContainer(RedisConnectionFactory factory,
+                                                                    NearCache nearCache,
+                                                                    RedisTemplate<String,String> redisTemplate) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(factory);
+        container.addMessageListener(new NearCacheInvalidationListener(nearCache, redisTemplate.getValueSerializer()),
+                new ChannelTopic(nearCache.getChannel()));
+        return container;
+    }
+
+    /**
+     * 热点 key 识别 redis.hot-key.enabled=true 时开启, redis.hot-key.promote=true 时热点 key 使用短时间的本地缓存
+     */
+    @Bean
+    @ConditionalOnProperty(name = "redis.hot-key.enabled", havingValue = "true")
+    public HotKeyDetector hotKeyDetector(@Value("${redis.hot-key.sample-rate:0.01}") double sampleRate,
+                                         @Value("${redis.hot-key.top-k:50}") int topK,
+                                         @Value("${redis.hot-key.window:5000}") long window,
+                                         @Value("${redis.hot-key.threshold:1000}") long threshold,
+                                         @Value("${redis.hot-key.promote:false}") boolean promote,
+                                         @Value("${redis.hot-key.promote-max-size:1000}") int promoteMaxSize,
+                                         @Value("${redis.hot-key.promote-ttl:2}") long promoteTtl) {
+        return new HotKeyDetector(sampleRate, topK, window, threshold, promote, promoteMaxSize, promoteTtl);
+    }
+
+    /**
+     * 异步访问使用的 lettuce 客户端 redis.async.enabled=true 时开启, 与 spring.redis 使用同一个 redis
+     */
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(name = "redis.async.enabled", havingValue = "true")
+    public RedisClient asyncRedisClient(RedisProperties redisProperties) {
+        RedisURI.Builder builder = RedisURI.Builder.redis(redisProperties.getHost(), redisProperties.getPort())
+                .withDatabase(redisProperties.getDatabase());
+        if (StringUtils.isNotBlank(redisProperties.getPassword())) {
+            builder.withPassword(redisProperties.getPassword());
+        }
+        if (redisProperties.getTimeout() > 0) {
+            builder.withTimeout(Duration.ofMillis(redisProperties.getTimeout()));
+        }
+        return RedisClient.create(builder.build());
+    }
+
+    /**
+     * 非阻塞连接 线程安全, 所有异步命令共用这一个连接并自动管道化
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "redis.async.enabled", havingValue = "true")
+    public StatefulRedisConnection<byte[], byte[]> asyncRedisConnection(RedisClient asyncRedisClient) {
+        return asyncRedisClient.connect(ByteArrayCodec.INSTANCE);
+    }
+
 }
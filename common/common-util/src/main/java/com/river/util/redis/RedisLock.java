@@ -0,0 +1,96 @@
+package com.river.util.redis;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * create by river  2018/6/28
+ * desc: 基于 redis 的可重入分布式锁 持有者为 节点标识:线程id, 只有持有者能释放
+ * 不指定租约时使用默认租约并在持有期间自动续期, 节点宕机后锁在租约到期后自动释放
+ */
+public class RedisLock implements Lock {
+
+    private final RedisLockManagerImpl manager;
+    private final String name;
+
+    RedisLock(RedisLockManagerImpl manager, String name) {
+        this.manager = manager;
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 获取锁
+     * @param waitTime  最长等待时间 小于等于0 时只尝试一次
+     * @param leaseTime 租约 到期后自动释放, 小于等于0 时使用默认租约并自动续期
+     * @param unit      时间单位
+     * @return 是否获取成功
+     */
+    public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException {
+        return manager.tryLock(name, unit.toMillis(waitTime), unit.toMillis(leaseTime));
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        return tryLock(time, -1, unit);
+    }
+
+    @Override
+    public boolean tryLock() {
+        try {
+            return manager.tryLock(name, 0, -1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        manager.tryLock(name, Long.MAX_VALUE, -1);
+    }
+
+    @Override
+    public void lock() {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    manager.tryLock(name, Long.MAX_VALUE, -1);
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 释放锁 重入时需要释放相同次数
+     * @throws IllegalMonitorStateException 当前线程不是持有者(包括租约已到期)
+     */
+    @Override
+    public void unlock() {
+        manager.unlock(name);
+    }
+
+    /**
+     * 当前线程是否持有锁
+     */
+    public boolean isHeldByCurrentThread() {
+        return manager.isHeldByCurrentThread(name);
+    }
+
+    @Override
+    public Condition newCondition() {
+        throw new UnsupportedOperationException("分布式锁不支持 Condition");
+    }
+}
@@ -0,0 +1,25 @@
+package com.river.util.redis;
+
+/**
+ * create by river  2018/6/28
+ * desc: 分布式锁
+ * <pre>
+ * RedisLock lock = redisLockManager.getLock("job:report");
+ * if (lock.tryLock(3, -1, TimeUnit.SECONDS)) {
+ *     try {
+ *         ...
+ *     } finally {
+ *         lock.unlock();
+ *     }
+ * }
+ * </pre>
+ */
+public interface RedisLockManager {
+
+    /**
+     * 获取锁对象 锁对象本身不持有状态, 可以重复获取
+     * @param name 锁名
+     * @return 锁
+     */
+    RedisLock getLock(String name);
+}
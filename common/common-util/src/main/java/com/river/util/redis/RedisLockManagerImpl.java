@@ -0,0 +1,358 @@
+package com.river.util.redis;
+
+import com.river.util.exception.ServiceException;
+import com.river.util.res.ResCodeEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * create by river  2018/6/28
+ * desc: 分布式锁实现
+ * 锁为 hash 结构, 字段为持有者标识, 值为重入次数
+ * 加锁、解锁、续期都是一次脚本调用; 完全释放时在 redis.lock.channel 上发布锁名,
+ * 等待者收到通知后立即重试, 没有通知时最多等到锁的剩余时间, 不轮询 redis
+ * 第一次需要等待锁时才订阅通知频道, 从不等待锁的节点不占用订阅连接
+ */
+@Service
+public class RedisLockManagerImpl implements RedisLockManager, MessageListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisLockManagerImpl.class);
+
+    private static final String KEY_PREFIX = "lock:";
+
+    /**
+     * 加锁 KEYS[1] 锁, ARGV[1] 租约(毫秒), ARGV[2] 持有者
+     * 获取成功(包括重入)返回 nil, 否则返回锁剩余的时间(毫秒)
+     */
+    private static final RedisScript<Long> LOCK = new DefaultRedisScript<Long>(
+            "if redis.call('EXISTS', KEYS[1]) == 0 or redis.call('HEXISTS', KEYS[1], ARGV[2]) == 1 then "
+                    + "redis.call('HINCRBY', KEYS[1], ARGV[2], 1) "
+                    + "redis.call('PEXPIRE', KEYS[1], ARGV[1]) "
+                    + "return nil end "
+                    + "return redis.call('PTTL', KEYS[1])", Long.class);
+
+    /**
+     * 解锁 KEYS[1] 锁, ARGV[1] 持有者, ARGV[2] 租约(毫秒), ARGV[3] 释放通知的频道, ARGV[4] 通知内容
+     * 不是持有者返回 -1, 重入未完全释放返回剩余次数, 完全释放后删除锁并发布通知, 返回 0
+     */
+    private static final RedisScript<Long> UNLOCK = new DefaultRedisScript<Long>(
+            "if redis.call('HEXISTS', KEYS[1], ARGV[1]) == 0 then return -1 end "
+                    + "local count = redis.call('HINCRBY', KEYS[1], ARGV[1], -1) "
+                    + "if count > 0 then redis.call('PEXPIRE', KEYS[1], ARGV[2]) return count end "
+                    + "redis.call('DEL', KEYS[1]) "
+                    + "redis.call('PUBLISH', ARGV[3], ARGV[4]) "
+                    + "return 0", Long.class);
+
+    /**
+     * 续期 KEYS[1] 锁, ARGV[1] 持有者, ARGV[2] 租约(毫秒) 仍是持有者时返回 1, 否则返回 0
+     */
+    private static final RedisScript<Long> RENEW_LOCK = new DefaultRedisScript<Long>(
+            "if redis.call('HEXISTS', KEYS[1], ARGV[1]) == 1 then "
+                    + "redis.call('PEXPIRE', KEYS[1], ARGV[2]) "
+                    + "return 1 end "
+                    + "return 0", Long.class);
+
+    @Resource
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Value("${redis.lock.channel:lock:release}")
+    private String channel;
+
+    /**
+     * 自动续期的锁的租约(毫秒) 每隔三分之一租约续期一次
+     */
+    @Value("${redis.lock.lease-time:30000}")
+    private long defaultLeaseTime;
+
+    /**
+     * 本节点标识 与线程id一起组成持有者
+     */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    /**
+     * 本节点正在等待的锁
+     */
+    private final ConcurrentMap<String, Waiters> waiters = new ConcurrentHashMap<String, Waiters>();
+
+    /**
+     * 本节点持有的锁 key为 持有者@锁名
+     */
+    private final ConcurrentMap<String, HeldLock> heldLocks = new ConcurrentHashMap<String, HeldLock>();
+
+    /**
+     * 释放通知的订阅 第一次等待锁时创建
+     */
+    private volatile RedisMessageListenerContainer listenerContainer;
+
+    private final ScheduledExecutorService renewExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "redis-lock-renew");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    @Override
+    public RedisLock getLock(String name) {
+        return new RedisLock(this, name);
+    }
+
+    boolean tryLock(String name, long waitTime, long leaseTime) throws InterruptedException {
+        String owner = owner();
+        boolean renew = leaseTime <= 0;
+        long lease = renew ? defaultLeaseTime : leaseTime;
+        Long ttl = acquire(name, owner, lease);
+        if (ttl == null) {
+            onAcquired(name, owner, lease, renew);
+            return true;
+        }
+        if (waitTime <= 0) {
+            return false;
+        }
+        long deadline = System.currentTimeMillis() + waitTime;
+        if (deadline < 0) {
+            deadline = Long.MAX_VALUE;
+        }
+        Waiters lockWaiters = register(name);
+        subscribe();
+        try {
+            while (true) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                long generation = lockWaiters.generation();
+                ttl = acquire(name, owner, lease);
+                if (ttl == null) {
+                    onAcquired(name, owner, lease, renew);
+                    return true;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                lockWaiters.await(generation, ttl > 0 ? Math.min(ttl, remaining) : remaining);
+            }
+        } finally {
+            unregister(name, lockWaiters);
+        }
+    }
+
+    void unlock(String name) {
+        String owner = owner();
+        HeldLock held = heldLocks.get(heldKey(name, owner));
+        long lease = held == null ? defaultLeaseTime : held.lease;
+        Long result = execute(UNLOCK, name, owner, String.valueOf(lease), channel, name);
+        if (result == null || result < 0) {
+            cancelRenewal(name, owner);
+            throw new IllegalMonitorStateException("当前线程不是锁的持有者 name=" + name);
+        }
+        if (result == 0) {
+            cancelRenewal(name, owner);
+        }
+    }
+
+    boolean isHeldByCurrentThread(String name) {
+        try {
+            return redisTemplate.opsForHash().hasKey(KEY_PREFIX + name, owner());
+        } catch (Exception e) {
+            logger.error("查询锁持有者异常 name={}", name, e);
+            throw new ServiceException(ResCodeEnum.sys_error);
+        }
+    }
+
+    /**
+     * 释放通知 唤醒本节点等待该锁的线程
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        Waiters lockWaiters = waiters.get(new String(message.getBody(), StandardCharsets.UTF_8));
+        if (lockWaiters != null) {
+            lockWaiters.signal();
+        }
+    }
+
+    @PreDestroy
+    public void destroy() throws Exception {
+        renewExecutor.shutdownNow();
+        if (listenerContainer != null) {
+            listenerContainer.destroy();
+        }
+    }
+
+    /**
+     * 订阅释放通知 订阅完成前发布的通知会丢失, 此时等待者最多等到锁的剩余时间
+     */
+    private void subscribe() {
+        if (listenerContainer != null) {
+            return;
+        }
+        synchronized (this) {
+            if (listenerContainer == null) {
+                RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+                container.setConnectionFactory(redisTemplate.getConnectionFactory());
+                container.addMessageListener(this, new ChannelTopic(channel));
+                container.afterPropertiesSet();
+                container.start();
+                listenerContainer = container;
+            }
+        }
+    }
+
+    private Long acquire(String name, String owner, long lease) {
+        return execute(LOCK, name, String.valueOf(lease), owner);
+    }
+
+    private Long execute(RedisScript<Long> script, String name, String... args) {
+        Object[] rawArgs = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            rawArgs[i] = args[i].getBytes(StandardCharsets.UTF_8);
+        }
+        try {
+            return redisTemplate.execute(script, null, null, Collections.singletonList(KEY_PREFIX + name), rawArgs);
+        } catch (Exception e) {
+            logger.error("分布式锁操作异常 name={}", name, e);
+            throw new ServiceException(ResCodeEnum.sys_error);
+        }
+    }
+
+    private void onAcquired(String name, String owner, long lease, boolean renew) {
+        String key = heldKey(name, owner);
+        if (heldLocks.containsKey(key)) {
+            // 重入 沿用第一次加锁时的租约和续期任务
+            return;
+        }
+        HeldLock held = new HeldLock(lease);
+        if (renew) {
+            long period = Math.max(lease / 3, 1);
+            held.renewal = renewExecutor.scheduleAtFixedRate(new RenewTask(name, owner, lease), period, period,
+                    TimeUnit.MILLISECONDS);
+        }
+        heldLocks.put(key, held);
+    }
+
+    private void cancelRenewal(String name, String owner) {
+        HeldLock held = heldLocks.remove(heldKey(name, owner));
+        if (held != null && held.renewal != null) {
+            held.renewal.cancel(false);
+        }
+    }
+
+    private Waiters register(String name) {
+        while (true) {
+            Waiters lockWaiters = waiters.get(name);
+            if (lockWaiters == null) {
+                Waiters created = new Waiters();
+                lockWaiters = waiters.putIfAbsent(name, created);
+                if (lockWaiters == null) {
+                    lockWaiters = created;
+                }
+            }
+            synchronized (lockWaiters) {
+                if (lockWaiters.count >= 0) {
+                    lockWaiters.count++;
+                    return lockWaiters;
+                }
+            }
+            // 已被最后一个等待者移除, 重新创建
+        }
+    }
+
+    private void unregister(String name, Waiters lockWaiters) {
+        synchronized (lockWaiters) {
+            if (--lockWaiters.count == 0) {
+                lockWaiters.count = -1;
+                waiters.remove(name, lockWaiters);
+            }
+        }
+    }
+
+    private static String heldKey(String name, String owner) {
+        return owner + "@" + name;
+    }
+
+    private String owner() {
+        return nodeId + ":" + Thread.currentThread().getId();
+    }
+
+    private static class HeldLock {
+        private final long lease;
+        private ScheduledFuture<?> renewal;
+
+        private HeldLock(long lease) {
+            this.lease = lease;
+        }
+    }
+
+    /**
+     * 同一个锁在本节点的等待者 generation 在每次收到释放通知时加一, 避免通知在等待之前到达时被错过
+     */
+    private static class Waiters {
+        private int count;
+        private long generation;
+
+        private synchronized long generation() {
+            return generation;
+        }
+
+        private synchronized void await(long expected, long millis) throws InterruptedException {
+            if (generation == expected) {
+                wait(millis);
+            }
+        }
+
+        private synchronized void signal() {
+            generation++;
+            notifyAll();
+        }
+    }
+
+    private class RenewTask implements Runnable {
+
+        private final String name;
+        private final String owner;
+        private final long lease;
+
+        private RenewTask(String name, String owner, long lease) {
+            this.name = name;
+            this.owner = owner;
+            this.lease = lease;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Long renewed = execute(RENEW_LOCK, name, owner, String.valueOf(lease));
+                if (renewed == null || renewed == 0) {
+                    logger.warn("锁已不再持有, 停止续期 name={}", name);
+                    cancelRenewal(name, owner);
+                }
+            } catch (Exception e) {
+                // 下一次继续尝试, 租约内恢复即可保住锁
+                logger.error("锁续期异常 name={}", name, e);
+            }
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package com.river.util.redis;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
 
 /**
  * @author river
@@ -47,9 +51,34 @@ public interface RedisManager {
      */
     String get(String key);
 
+    /**
+     * 普通缓存按流获取 用于几MB的大value, 分块存储的值边读边返回, 不需要在内存中拼接完整的字符串
+     * 读取期间值被替换时抛出 IOException
+     * @param key 键
+     * @return 值的 UTF-8 内容 不存在时为null
+     */
+    InputStream getStream(String key) throws IOException;
+
+    /**
+     * 回调中当前线程的读操作都访问主节点 配置了读副本时用于写后立即读, 未配置时直接执行
+     * @param reads 读操作
+     * @return 回调的返回值
+     */
+    <T> T readPrimary(Callable<T> reads);
+
+    /**
+     * 普通缓存获取 不存在时通过loader加载并放入缓存
+     * 同一个key的并发调用合并为一次redis读取和一次加载, 其余调用等待并共享结果
+     * @param key 键
+     * @param time 时间(秒) time小于等于0 将设置无限期
+     * @param loader 缓存不存在时的加载逻辑 返回null时不放入缓存
+     * @return 值
+     */
+    String getOrLoad(String key, long time, Callable<String> loader);
+
 
     /**
-     * 普通缓存放入
+     * 普通缓存放入 序列化后超过 redis.chunk.threshold 时分块存储, 读取方式不变
      * @param key 键
      * @param value 值
      * @return true成功 false失败
@@ -300,5 +329,80 @@ public interface RedisManager {
      * @return 移除的个数
      */
      long lRemove(String key,long count,String value);
-}
 
+    //===============================batch=================================
+
+    /**
+     * 批量获取普通缓存 一次管道往返
+     * @param keys 键
+     * @return 与keys顺序一致的结果 单个key失败不影响其他key
+     */
+     List<BatchResult<String>> batchGet(List<String> keys);
+
+    /**
+     * 批量放入普通缓存 一次管道往返
+     * @param items 键值及各自的时间(秒) time小于等于0 将设置无限期
+     * @return 与items顺序一致的结果
+     */
+     List<BatchResult<Boolean>> batchSet(List<BatchItem> items);
+
+    /**
+     * 批量获取多张hash表中的值 一次管道往返
+     * @param items 键及项
+     * @return 与items顺序一致的结果
+     */
+     List<BatchResult<String>> batchHget(List<BatchItem> items);
+
+    /**
+     * 批量删除缓存 一次管道往返
+     * @param keys 键
+     * @return 与keys顺序一致的结果 true 删除成功 false key不存在
+     */
+     List<BatchResult<Boolean>> batchDel(List<String> keys);
+
+    /**
+     * 批量指定缓存失效时间 一次管道往返
+     * @param keys 键
+     * @param time 时间(秒) time小于等于0 将设置无限期
+     * @return 与keys顺序一致的结果 true 成功 false key不存在
+     */
+     List<BatchResult<Boolean>> batchExpire(List<String> keys, long time);
+
+    //===============================scan=================================
+
+    /**
+     * 基于 SCAN 逐批遍历匹配的key 不会阻塞redis
+     * 返回的 Stream 占用一个连接, 必须在 try-with-resources 中使用或手动 close
+     * @param pattern 匹配规则 例如 user:*
+     * @param batchSize 每批数量(提示值)
+     * @return key
+     */
+     Stream<String> scan(String pattern, int batchSize);
+
+    /**
+     * 基于 HSCAN 逐批遍历hash表 用于替代大hash的 hmget
+     * 返回的 Stream 占用一个连接, 必须在 try-with-resources 中使用或手动 close
+     * @param key 键
+     * @param batchSize 每批数量(提示值)
+     * @return 项和值
+     */
+     Stream<Map.Entry<Object, Object>> hScan(String key, int batchSize);
+
+    /**
+     * 基于 SSCAN 逐批遍历set 用于替代大set的 sGet
+     * 返回的 Stream 占用一个连接, 必须在 try-with-resources 中使用或手动 close
+     * @param key 键
+     * @param batchSize 每批数量(提示值)
+     * @return 值
+     */
+     Stream<String> sScan(String key, int batchSize);
+
+    /**
+     * 按 LRANGE 分段遍历list 用于替代 lGet(key,0,-1)
+     * 遍历期间list被修改时可能重复或遗漏元素
+     * @param key 键
+     * @param batchSize 每批数量
+     * @return 值
+     */
+     Stream<String> lScan(String key, int batchSize);
+}
\ No newline at end of file
@@ -2,16 +2,46 @@ package com.river.util.redis;
 
 import com.river.util.exception.ServiceException;
 import com.river.util.res.ResCodeEnum;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.redis.connection.DecoratedRedisConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.jedis.JedisConnection;
+import org.springframework.data.redis.core.ConvertingCursor;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * create by river  2018/5/15
@@ -27,6 +57,33 @@ public class RedisManagerImpl implements RedisManager {
     @Resource
     private RedisTemplate<String, String> redisTemplate;
 
+    @Resource
+    private SingleFlight singleFlight;
+
+    @Resource
+    private RedisAuditLogger redisAuditLogger;
+
+    @Resource
+    private ChunkedValueStore chunkedValueStore;
+
+    @Resource
+    private RedisShardRouter redisShardRouter;
+
+    @Resource
+    private RedisReplicaRouter redisReplicaRouter;
+
+    /**
+     * 本地一级缓存 未开启时为null
+     */
+    @Autowired(required = false)
+    private NearCache nearCache;
+
+    /**
+     * 热点 key 识别 未开启时为null
+     */
+    @Autowired(required = false)
+    private HotKeyDetector hotKeyDetector;
+
     /**
      * 指定缓存失效时间
      *
@@ -36,12 +93,15 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public boolean expire(String key, long time) {
-        logger.info("指定缓存失效时间：key={},time={} s", key, time);
+        if (redisAuditLogger.isEnabled("expire")) {
+            redisAuditLogger.log("指定缓存失效时间 key={},time={} s", key, time);
+        }
         try {
             if (time > 0) {
-                redisTemplate.expire(key, time, TimeUnit.SECONDS);
+                template(key).expire(key, time, TimeUnit.SECONDS);
             } else {
-                redisTemplate.expire(key, -1, TimeUnit.SECONDS);
+                template(key).expire(key, -1, TimeUnit.SECONDS);
+                invalidateNearCache(key);
             }
             return false;
         } catch (Exception e) {
@@ -58,7 +118,12 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public Long getExpire(String key) {
-        return redisTemplate.getExpire(key, TimeUnit.SECONDS);
+        return read(key, new Function<RedisTemplate<String, String>, Long>() {
+            @Override
+            public Long apply(RedisTemplate<String, String> template) {
+                return template.getExpire(key, TimeUnit.SECONDS);
+            }
+        });
     }
 
     /**
@@ -69,7 +134,12 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public boolean hasKey(String key) {
-        return redisTemplate.hasKey(key);
+        return read(key, new Function<RedisTemplate<String, String>, Boolean>() {
+            @Override
+            public Boolean apply(RedisTemplate<String, String> template) {
+                return template.hasKey(key);
+            }
+        });
     }
 
     /**
@@ -79,7 +149,10 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public void del(List<String> keys) {
-        redisTemplate.delete(keys);
+        for (Map.Entry<RedisTemplate<String, String>, List<Integer>> group : redisShardRouter.partition(keys).entrySet()) {
+            group.getKey().delete(select(keys, group.getValue()));
+        }
+        invalidateNearCache(keys);
 
     }
 
@@ -91,7 +164,73 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public String get(String key) {
-        return redisTemplate.opsForValue().get(key);
+        NearCache cache = localCache(key);
+        if (cache == null) {
+            return readValue(key, false);
+        }
+        Object cached = cache.get(key, NearCache.VALUE_FIELD);
+        if (cached != null) {
+            return cached == NearCache.NULL_VALUE ? null : (String) cached;
+        }
+        long stamp = cache.stamp(key);
+        String value = readValue(key, true);
+        cache.put(key, NearCache.VALUE_FIELD, value, stamp);
+        return value;
+    }
+
+    /**
+     * 普通缓存按流获取
+     *
+     * @param key 键
+     * @return 值的 UTF-8 内容
+     */
+    @Override
+    public InputStream getStream(String key) throws IOException {
+        recordRead(key);
+        return chunkedValueStore.openStream(key);
+    }
+
+    /**
+     * 回调中当前线程的读操作都访问主节点
+     *
+     * @param reads 读操作
+     * @return 回调的返回值
+     */
+    @Override
+    public <T> T readPrimary(Callable<T> reads) {
+        try {
+            return redisReplicaRouter.readPrimary(reads);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("主节点读取异常", e);
+            throw new ServiceException(ResCodeEnum.sys_error);
+        }
+    }
+
+    /**
+     * 普通缓存获取 不存在时加载并放入缓存, 并发调用合并为一次
+     *
+     * @param key    键
+     * @param time   时间(秒)
+     * @param loader 加载逻辑
+     * @return 值
+     */
+    @Override
+    public String getOrLoad(final String key, final long time, final Callable<String> loader) {
+        return singleFlight.execute(key, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                String value = get(key);
+                if (value == null) {
+                    value = loader.call();
+                    if (value != null) {
+                        set(key, value, time);
+                    }
+                }
+                return value;
+            }
+        });
     }
 
     /**
@@ -103,9 +242,12 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public boolean set(String key, String value) {
-        logger.info("普通缓存放入key={},value={}", key, value);
+        if (redisAuditLogger.isEnabled("set")) {
+            redisAuditLogger.log("普通缓存放入 key={},value={}", key, value);
+        }
         try {
-            redisTemplate.opsForValue().set(key, value);
+            writeValue(key, value, 0);
+            invalidateNearCache(key);
             return true;
         } catch (Exception e) {
             logger.error("普通缓存放入异常", e);
@@ -123,10 +265,13 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public boolean set(String key, String value, long time) {
-        logger.info("普通缓存放入并设置时间key=【" + key + "】 value=【" + value + "】 time=【" + time + "】 s");
+        if (redisAuditLogger.isEnabled("set")) {
+            redisAuditLogger.log("普通缓存放入并设置时间 key={},value={},time={} s", key, value, time);
+        }
         try {
             if (time > 0) {
-                redisTemplate.opsForValue().set(key, value, time, TimeUnit.SECONDS);
+                writeValue(key, value, time);
+                invalidateNearCache(key);
             } else {
                 set(key, value);
             }
@@ -147,11 +292,15 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public long incr(String key, long delta) {
-        logger.info("递增key=[{}] delta=[{}]", key, delta);
+        if (redisAuditLogger.isEnabled("incr")) {
+            redisAuditLogger.log("递增 key={},delta={}", key, delta);
+        }
         if (delta < 0) {
             throw new ServiceException("递增因子必须大于0");
         }
-        return redisTemplate.opsForValue().increment(key, delta);
+        long value = template(key).opsForValue().increment(key, delta);
+        invalidateNearCache(key);
+        return value;
     }
 
     /**
@@ -163,11 +312,15 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public long decr(String key, long delta) {
-        logger.info("递减key=[{}] delta=[{}]", key, delta);
+        if (redisAuditLogger.isEnabled("decr")) {
+            redisAuditLogger.log("递减 key={},delta={}", key, delta);
+        }
         if (delta < 0) {
             throw new ServiceException("递增因子必须大于0");
         }
-        return redisTemplate.opsForValue().increment(key, -delta);
+        long value = template(key).opsForValue().increment(key, -delta);
+        invalidateNearCache(key);
+        return value;
     }
 
     /**
@@ -179,7 +332,25 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public String hget(String key, String item) {
-        return (String) redisTemplate.opsForHash().get(key, item);
+        Function<RedisTemplate<String, String>, String> operation = new Function<RedisTemplate<String, String>, String>() {
+            @Override
+            public String apply(RedisTemplate<String, String> template) {
+                return (String) template.opsForHash().get(key, item);
+            }
+        };
+        NearCache cache = localCache(key);
+        if (cache == null) {
+            return read(key, false, operation);
+        }
+        String field = "h:" + item;
+        Object cached = cache.get(key, field);
+        if (cached != null) {
+            return cached == NearCache.NULL_VALUE ? null : (String) cached;
+        }
+        long stamp = cache.stamp(key);
+        String value = read(key, true, operation);
+        cache.put(key, field, value, stamp);
+        return value;
     }
 
     /**
@@ -190,7 +361,13 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public Map<Object, Object> hmget(String key) {
-        return redisTemplate.opsForHash().entries(key);
+        recordRead(key);
+        return read(key, new Function<RedisTemplate<String, String>, Map<Object, Object>>() {
+            @Override
+            public Map<Object, Object> apply(RedisTemplate<String, String> template) {
+                return template.opsForHash().entries(key);
+            }
+        });
     }
 
     /**
@@ -202,9 +379,12 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public boolean hmset(String key, Map<String, String> map) {
-        logger.info("HashSet  key=" + key + " map=" + map);
+        if (redisAuditLogger.isEnabled("hmset")) {
+            redisAuditLogger.log("HashSet key={},map={}", key, map);
+        }
         try {
-            redisTemplate.opsForHash().putAll(key, map);
+            template(key).opsForHash().putAll(key, map);
+            invalidateNearCache(key);
             return true;
         } catch (Exception e) {
             logger.error("HashSet异常", e);
@@ -222,12 +402,21 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public boolean hmset(String key, Map<String, String> map, long time) {
-        logger.info("HashSet 并设置时间  key=" + key + " map=" + map + "time=" + time + " s");
+        if (redisAuditLogger.isEnabled("hmset")) {
+            redisAuditLogger.log("HashSet 并设置时间 key={},map={},time={} s", key, map, time);
+        }
         try {
-            redisTemplate.opsForHash().putAll(key, map);
             if (time > 0) {
-                expire(key, time);
+                List<byte[]> args = new ArrayList<byte[]>(map.size() * 2);
+                for (Map.Entry<String, String> entry : map.entrySet()) {
+                    args.add(hashKeySerializer().serialize(entry.getKey()));
+                    args.add(hashValueSerializer().serialize(entry.getValue()));
+                }
+                executeWithExpire(RedisScripts.HSET_AND_EXPIRE, key, time, args);
+            } else {
+                template(key).opsForHash().putAll(key, map);
             }
+            invalidateNearCache(key);
             return true;
         } catch (Exception e) {
             logger.error("HashSet 并设置时间异常", e);
@@ -245,9 +434,12 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public boolean hset(String key, String item, String value) {
-        logger.info("一张hash表中放入数据,如果不存在将创建 key=" + key + " item=" + item + " value=" + value);
+        if (redisAuditLogger.isEnabled("hset")) {
+            redisAuditLogger.log("一张hash表中放入数据,如果不存在将创建 key={},item={},value={}", key, item, value);
+        }
         try {
-            redisTemplate.opsForHash().put(key, item, value);
+            template(key).opsForHash().put(key, item, value);
+            invalidateNearCache(key);
             return true;
         } catch (Exception e) {
             logger.error(" 向一张hash表中放入数据,如果不存在将创建异常", e);
@@ -266,12 +458,19 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public boolean hset(String key, String item, String value, long time) {
-        logger.info("一张hash表中放入数据,设置时间 key=" + key + " item=" + item + " value=" + value + " time=" + time + " s");
+        if (redisAuditLogger.isEnabled("hset")) {
+            redisAuditLogger.log("一张hash表中放入数据,设置时间 key={},item={},value={},time={} s", key, item, value, time);
+        }
         try {
-            redisTemplate.opsForHash().put(key, item, value);
             if (time > 0) {
-                expire(key, time);
+                List<byte[]> args = new ArrayList<byte[]>(2);
+                args.add(hashKeySerializer().serialize(item));
+                args.add(hashValueSerializer().serialize(value));
+                executeWithExpire(RedisScripts.HSET_AND_EXPIRE, key, time, args);
+            } else {
+                template(key).opsForHash().put(key, item, value);
             }
+            invalidateNearCache(key);
             return true;
         } catch (Exception e) {
             logger.error("一张hash表中放入数据,设置时间异常", e);
@@ -287,8 +486,11 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public void hdel(String key, String... item) {
-        logger.info("删除hash表中的值 key=" + key + "item=" + item);
-        redisTemplate.opsForHash().delete(key, item);
+        if (redisAuditLogger.isEnabled("hdel")) {
+            redisAuditLogger.log("删除hash表中的值 key={},item={}", key, item);
+        }
+        template(key).opsForHash().delete(key, item);
+        invalidateNearCache(key);
     }
 
     /**
@@ -300,7 +502,12 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public boolean hHasKey(String key, String item) {
-        return redisTemplate.opsForHash().hasKey(key,item);
+        return read(key, new Function<RedisTemplate<String, String>, Boolean>() {
+            @Override
+            public Boolean apply(RedisTemplate<String, String> template) {
+                return template.opsForHash().hasKey(key, item);
+            }
+        });
     }
 
     /**
@@ -313,12 +520,16 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public double hincr(String key, String item, double by) {
-        logger.info("hash递增 key=" + key + " item=" +item + " by=" + by);
+        if (redisAuditLogger.isEnabled("hincr")) {
+            redisAuditLogger.log("hash递增 key={},item={},by={}", key, item, by);
+        }
         try {
             if(by < 0) {
                 throw new ServiceException("递增因子必须大于0");
             }
-            return redisTemplate.opsForHash().increment(key,item,by);
+            double value = template(key).opsForHash().increment(key,item,by);
+            invalidateNearCache(key);
+            return value;
         } catch (Exception e) {
             logger.error("hash递增异常", e);
             throw new ServiceException(ResCodeEnum.sys_error);
@@ -335,12 +546,16 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public double hdecr(String key, String item, double by) {
-        logger.info("hash递减 key=" + key + " item=" +item + " by=" + by);
+        if (redisAuditLogger.isEnabled("hdecr")) {
+            redisAuditLogger.log("hash递减 key={},item={},by={}", key, item, by);
+        }
         try {
             if(by < 0) {
                 throw new ServiceException("递减因子必须大于0");
             }
-            return redisTemplate.opsForHash().increment(key,item,-by);
+            double value = template(key).opsForHash().increment(key,item,-by);
+            invalidateNearCache(key);
+            return value;
         } catch (Exception e) {
             logger.error("hash递减异常", e);
             throw new ServiceException(ResCodeEnum.sys_error);
@@ -355,7 +570,13 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public Set<String> sGet(String key) {
-        return redisTemplate.opsForSet().members(key);
+        recordRead(key);
+        return read(key, new Function<RedisTemplate<String, String>, Set<String>>() {
+            @Override
+            public Set<String> apply(RedisTemplate<String, String> template) {
+                return template.opsForSet().members(key);
+            }
+        });
     }
 
     /**
@@ -367,7 +588,25 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public boolean sHasKey(String key, String value) {
-        return redisTemplate.opsForSet().isMember(key,value);
+        Function<RedisTemplate<String, String>, Boolean> operation = new Function<RedisTemplate<String, String>, Boolean>() {
+            @Override
+            public Boolean apply(RedisTemplate<String, String> template) {
+                return template.opsForSet().isMember(key, value);
+            }
+        };
+        NearCache cache = localCache(key);
+        if (cache == null) {
+            return read(key, false, operation);
+        }
+        String field = "s:" + value;
+        Object cached = cache.get(key, field);
+        if (cached != null) {
+            return (Boolean) cached;
+        }
+        long stamp = cache.stamp(key);
+        boolean member = read(key, true, operation);
+        cache.put(key, field, member, stamp);
+        return member;
     }
 
     /**
@@ -379,9 +618,13 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public long sSet(String key, String... values) {
-        logger.info("将数据放入set缓存 key=" + key +" value=" + values);
+        if (redisAuditLogger.isEnabled("sSet")) {
+            redisAuditLogger.log("将数据放入set缓存 key={},value={}", key, values);
+        }
         try {
-            return redisTemplate.opsForSet().add(key,values);
+            long count = template(key).opsForSet().add(key,values);
+            invalidateNearCache(key);
+            return count;
         } catch (Exception e) {
             logger.error("将数据放入set缓存异常", e);
             throw new ServiceException(ResCodeEnum.sys_error);
@@ -398,12 +641,17 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public long sSetAndTime(String key, long time, String... values) {
-        logger.info("将数据放入set缓存 key=" + key +" value=" + values + " time=" + time + " s");
+        if (redisAuditLogger.isEnabled("sSetAndTime")) {
+            redisAuditLogger.log("将数据放入set缓存 key={},value={},time={} s", key, values, time);
+        }
         try {
-            long count =  redisTemplate.opsForSet().add(key,values);
-            if(time > 0) {
-                expire(key,time);
+            long count;
+            if (time > 0) {
+                count = executeWithExpire(RedisScripts.SADD_AND_EXPIRE, key, time, rawValues(Arrays.asList(values)));
+            } else {
+                count = template(key).opsForSet().add(key,values);
             }
+            invalidateNearCache(key);
             return count;
         } catch (Exception e) {
             logger.error("将数据放入set缓存异常", e);
@@ -419,7 +667,12 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public long sGetSetSize(String key) {
-        return redisTemplate.opsForSet().size(key);
+        return read(key, new Function<RedisTemplate<String, String>, Long>() {
+            @Override
+            public Long apply(RedisTemplate<String, String> template) {
+                return template.opsForSet().size(key);
+            }
+        });
     }
 
     /**
@@ -431,9 +684,13 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public long setRemove(String key, String... values) {
-        logger.info("移除值为value的 key=" + key +" value=" + values);
+        if (redisAuditLogger.isEnabled("setRemove")) {
+            redisAuditLogger.log("移除值为value的 key={},value={}", key, values);
+        }
         try {
-            return   redisTemplate.opsForSet().remove(key,values);
+            long count = template(key).opsForSet().remove(key,values);
+            invalidateNearCache(key);
+            return count;
         } catch (Exception e) {
             logger.error("移除值为value的异常", e);
             throw new ServiceException(ResCodeEnum.sys_error);
@@ -450,7 +707,13 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public List<String> lGet(String key, long start, long end) {
-        return redisTemplate.opsForList().range(key,start,end);
+        recordRead(key);
+        return read(key, new Function<RedisTemplate<String, String>, List<String>>() {
+            @Override
+            public List<String> apply(RedisTemplate<String, String> template) {
+                return template.opsForList().range(key, start, end);
+            }
+        });
     }
 
     /**
@@ -461,7 +724,13 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public long lGetListSize(String key) {
-        return redisTemplate.opsForList().size(key);
+        recordRead(key);
+        return read(key, new Function<RedisTemplate<String, String>, Long>() {
+            @Override
+            public Long apply(RedisTemplate<String, String> template) {
+                return template.opsForList().size(key);
+            }
+        });
     }
 
     /**
@@ -473,7 +742,13 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public String lGetIndex(String key, long index) {
-        return redisTemplate.opsForList().index(key,index);
+        recordRead(key);
+        return read(key, new Function<RedisTemplate<String, String>, String>() {
+            @Override
+            public String apply(RedisTemplate<String, String> template) {
+                return template.opsForList().index(key, index);
+            }
+        });
     }
 
     /**
@@ -485,9 +760,11 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public boolean lSet(String key, String value) {
-        logger.info("将list放入缓存 key=" + key +" value=" + value);
+        if (redisAuditLogger.isEnabled("lSet")) {
+            redisAuditLogger.log("将list放入缓存 key={},value={}", key, value);
+        }
         try {
-            redisTemplate.opsForList().rightPush(key,value);
+            template(key).opsForList().rightPush(key,value);
             return true;
         } catch (Exception e) {
             logger.error("将list放入缓存异常", e);
@@ -505,11 +782,14 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public boolean lSet(String key, String value, long time) {
-        logger.info("将list放入缓存  key=" + key +" value=" + value +" time= " +time+ " s" );
+        if (redisAuditLogger.isEnabled("lSet")) {
+            redisAuditLogger.log("将list放入缓存 key={},value={},time={} s", key, value, time);
+        }
         try {
-            redisTemplate.opsForList().rightPush(key,value);
-            if(time > 0) {
-                expire(key,time);
+            if (time > 0) {
+                executeWithExpire(RedisScripts.RPUSH_AND_EXPIRE, key, time, rawValues(Collections.singletonList(value)));
+            } else {
+                template(key).opsForList().rightPush(key,value);
             }
             return true;
         } catch (Exception e) {
@@ -527,9 +807,11 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public boolean lSet(String key, List<String> value) {
-        logger.info("将list放入缓存  key=" + key +" value=" + value);
+        if (redisAuditLogger.isEnabled("lSet")) {
+            redisAuditLogger.log("将list放入缓存 key={},value={}", key, value);
+        }
         try {
-            redisTemplate.opsForList().rightPushAll(key,value);
+            template(key).opsForList().rightPushAll(key,value);
             return true;
         } catch (Exception e) {
             logger.error("将list放入缓存异常", e);
@@ -547,11 +829,14 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public boolean lSet(String key, List<String> value, long time) {
-        logger.info("将list放入缓存  key=" + key +" value=" + value +" time= " +time+ " s" );
+        if (redisAuditLogger.isEnabled("lSet")) {
+            redisAuditLogger.log("将list放入缓存 key={},value={},time={} s", key, value, time);
+        }
         try {
-            redisTemplate.opsForList().rightPushAll(key,value);
-            if(time > 0) {
-                expire(key,time);
+            if (time > 0) {
+                executeWithExpire(RedisScripts.RPUSH_AND_EXPIRE, key, time, rawValues(value));
+            } else {
+                template(key).opsForList().rightPushAll(key,value);
             }
             return true;
         } catch (Exception e) {
@@ -570,9 +855,11 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public boolean lUpdateIndex(String key, long index, String value) {
-        logger.info("根据索引修改list中的某条数据  key=" + key +" value=" + value +" index= " +index);
+        if (redisAuditLogger.isEnabled("lUpdateIndex")) {
+            redisAuditLogger.log("根据索引修改list中的某条数据 key={},value={},index={}", key, value, index);
+        }
         try {
-            redisTemplate.opsForList().set(key,index,value);
+            template(key).opsForList().set(key,index,value);
             return true;
         } catch (Exception e) {
             logger.error("根据索引修改list中的某条数据异常", e);
@@ -590,13 +877,822 @@ public class RedisManagerImpl implements RedisManager {
      */
     @Override
     public long lRemove(String key, long count, String value) {
-        logger.info("移除N个值为value  key=" + key +" value=" + value +" count= " +count);
+        if (redisAuditLogger.isEnabled("lRemove")) {
+            redisAuditLogger.log("移除N个值为value key={},value={},count={}", key, value, count);
+        }
         try {
-            Long remove = redisTemplate.opsForList().remove(key,count,value);
+            Long remove = template(key).opsForList().remove(key,count,value);
             return remove;
         } catch (Exception e) {
             logger.error("移除N个值为value异常", e);
             throw new ServiceException(ResCodeEnum.sys_error);
         }
     }
-}
+
+    /**
+     * 批量获取普通缓存
+     *
+     * @param keys 键
+     * @return 与keys顺序一致的结果
+     */
+    @Override
+    public List<BatchResult<String>> batchGet(final List<String> keys) {
+        if (keys == null || keys.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return executeSharded(keys, new ShardBatch<String>() {
+            @Override
+            public List<BatchResult<String>> execute(RedisTemplate<String, String> template, List<Integer> indices) {
+                final List<String> shardKeys = select(keys, indices);
+                final RedisSerializer<String> keySerializer = keySerializer();
+                List<Object> replies = readPipeline(template, new RedisCallback<Object>() {
+                    @Override
+                    public Object doInRedis(RedisConnection connection) {
+                        for (String key : shardKeys) {
+                            recordRead(key);
+                            connection.get(keySerializer.serialize(key));
+                        }
+                        return null;
+                    }
+                });
+                if (chunkedValueStore.isEnabled()) {
+                    replies = resolveChunked(shardKeys, replies);
+                }
+                return toBatchResults(shardKeys, replies, valueSerializer());
+            }
+        });
+    }
+
+    /**
+     * 批量放入普通缓存
+     *
+     * @param items 键值及各自的时间(秒)
+     * @return 与items顺序一致的结果
+     */
+    @Override
+    public List<BatchResult<Boolean>> batchSet(final List<BatchItem> items) {
+        if (items == null || items.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (redisAuditLogger.isEnabled("batchSet")) {
+            redisAuditLogger.log("批量放入普通缓存 size={}", items.size());
+        }
+        List<String> keys = keysOf(items);
+        List<BatchResult<Boolean>> results = executeSharded(keys, new ShardBatch<Boolean>() {
+            @Override
+            public List<BatchResult<Boolean>> execute(RedisTemplate<String, String> template, List<Integer> indices) {
+                return batchSet(template, select(items, indices));
+            }
+        });
+        if (nearCache != null || hotKeyDetector != null) {
+            invalidateNearCache(keys);
+        }
+        return results;
+    }
+
+    /**
+     * 在一个节点上批量放入普通缓存
+     */
+    private List<BatchResult<Boolean>> batchSet(RedisTemplate<String, String> template, List<BatchItem> items) {
+        final RedisSerializer<String> keySerializer = keySerializer();
+        RedisSerializer<String> valueSerializer = valueSerializer();
+        /**
+         * 超过分块阈值的值单独分块写入, 其余的在一个管道中写入
+         */
+        final List<BatchItem> pipelined = new ArrayList<BatchItem>(items.size());
+        final List<byte[]> rawValues = new ArrayList<byte[]>(items.size());
+        Map<Integer, BatchResult<Boolean>> chunked = new HashMap<Integer, BatchResult<Boolean>>();
+        for (int i = 0; i < items.size(); i++) {
+            BatchItem item = items.get(i);
+            byte[] rawValue = valueSerializer.serialize(item.getValue());
+            if (chunkedValueStore.shouldChunk(rawValue)) {
+                try {
+                    chunkedValueStore.set(item.getKey(), rawValue, item.getTime());
+                    chunked.put(i, new BatchResult<Boolean>(item.getKey(), true, null));
+                } catch (Exception e) {
+                    chunked.put(i, new BatchResult<Boolean>(item.getKey(), false, e));
+                }
+            } else {
+                pipelined.add(item);
+                rawValues.add(rawValue);
+            }
+        }
+        List<Object> replies = Collections.emptyList();
+        if (!pipelined.isEmpty()) {
+            replies = executeStatusPipeline(template, new RedisCallback<Object>() {
+                @Override
+                public Object doInRedis(RedisConnection connection) {
+                    for (int i = 0; i < pipelined.size(); i++) {
+                        BatchItem item = pipelined.get(i);
+                        byte[] rawKey = keySerializer.serialize(item.getKey());
+                        byte[] rawValue = rawValues.get(i);
+                        if (item.getTime() > 0) {
+                            connection.setEx(rawKey, item.getTime(), rawValue);
+                        } else {
+                            connection.set(rawKey, rawValue);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        /**
+         * 管道保留了 SET/SETEX 的状态回复, 结果与命令逐个对应, 失败的命令为异常
+         * 连接不支持保留状态回复时只有失败的命令留下异常, 无法定位具体key, 整批按失败返回(SET可安全重试)
+         */
+        List<BatchResult<Boolean>> results = new ArrayList<BatchResult<Boolean>>(items.size());
+        Exception cause = null;
+        for (Object reply : replies) {
+            if (reply instanceof Exception) {
+                cause = (Exception) reply;
+                break;
+            }
+        }
+        boolean aligned = replies.size() == pipelined.size();
+        int index = 0;
+        for (int i = 0; i < items.size(); i++) {
+            BatchResult<Boolean> result = chunked.get(i);
+            if (result != null) {
+                results.add(result);
+                continue;
+            }
+            Object reply = aligned ? replies.get(index) : cause;
+            Exception error = reply instanceof Exception ? (Exception) reply : null;
+            index++;
+            results.add(new BatchResult<Boolean>(items.get(i).getKey(), error == null, error));
+        }
+        return results;
+    }
+
+    /**
+     * 批量获取多张hash表中的值
+     *
+     * @param items 键及项
+     * @return 与items顺序一致的结果
+     */
+    @Override
+    public List<BatchResult<String>> batchHget(final List<BatchItem> items) {
+        if (items == null || items.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return executeSharded(keysOf(items), new ShardBatch<String>() {
+            @Override
+            public List<BatchResult<String>> execute(RedisTemplate<String, String> template, List<Integer> indices) {
+                final List<BatchItem> shardItems = select(items, indices);
+                final RedisSerializer<String> keySerializer = keySerializer();
+                final RedisSerializer<String> hashKeySerializer = hashKeySerializer();
+                List<Object> replies = readPipeline(template, new RedisCallback<Object>() {
+                    @Override
+                    public Object doInRedis(RedisConnection connection) {
+                        for (BatchItem item : shardItems) {
+                            recordRead(item.getKey());
+                            connection.hGet(keySerializer.serialize(item.getKey()), hashKeySerializer.serialize(item.getItem()));
+                        }
+                        return null;
+                    }
+                });
+                return toBatchResults(keysOf(shardItems), replies, hashValueSerializer());
+            }
+        });
+    }
+
+    /**
+     * 批量删除缓存
+     *
+     * @param keys 键
+     * @return 与keys顺序一致的结果
+     */
+    @Override
+    public List<BatchResult<Boolean>> batchDel(final List<String> keys) {
+        if (keys == null || keys.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (redisAuditLogger.isEnabled("batchDel")) {
+            redisAuditLogger.log("批量删除缓存 size={}", keys.size());
+        }
+        List<BatchResult<Boolean>> results = executeSharded(keys, new ShardBatch<Boolean>() {
+            @Override
+            public List<BatchResult<Boolean>> execute(RedisTemplate<String, String> template, List<Integer> indices) {
+                final List<String> shardKeys = select(keys, indices);
+                final RedisSerializer<String> keySerializer = keySerializer();
+                List<Object> replies = executePipeline(template, new RedisCallback<Object>() {
+                    @Override
+                    public Object doInRedis(RedisConnection connection) {
+                        for (String key : shardKeys) {
+                            connection.del(keySerializer.serialize(key));
+                        }
+                        return null;
+                    }
+                });
+                return toBooleanResults(shardKeys, replies);
+            }
+        });
+        invalidateNearCache(keys);
+        return results;
+    }
+
+    /**
+     * 批量指定缓存失效时间
+     *
+     * @param keys 键
+     * @param time 时间(秒) time小于等于0 将设置无限期
+     * @return 与keys顺序一致的结果
+     */
+    @Override
+    public List<BatchResult<Boolean>> batchExpire(final List<String> keys, final long time) {
+        if (keys == null || keys.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (redisAuditLogger.isEnabled("batchExpire")) {
+            redisAuditLogger.log("批量指定缓存失效时间 size={},time={} s", keys.size(), time);
+        }
+        return executeSharded(keys, new ShardBatch<Boolean>() {
+            @Override
+            public List<BatchResult<Boolean>> execute(RedisTemplate<String, String> template, List<Integer> indices) {
+                final List<String> shardKeys = select(keys, indices);
+                final RedisSerializer<String> keySerializer = keySerializer();
+                List<Object> replies = executePipeline(template, new RedisCallback<Object>() {
+                    @Override
+                    public Object doInRedis(RedisConnection connection) {
+                        for (String key : shardKeys) {
+                            if (time > 0) {
+                                connection.expire(keySerializer.serialize(key), time);
+                            } else {
+                                connection.persist(keySerializer.serialize(key));
+                            }
+                        }
+                        return null;
+                    }
+                });
+                return toBooleanResults(shardKeys, replies);
+            }
+        });
+    }
+
+    /**
+     * 基于 SCAN 逐批遍历匹配的key
+     *
+     * @param pattern   匹配规则
+     * @param batchSize 每批数量
+     * @return key
+     */
+    @Override
+    public Stream<String> scan(final String pattern, int batchSize) {
+        final ScanOptions options = ScanOptions.scanOptions().match(pattern).count(batchSize).build();
+        final RedisSerializer<String> keySerializer = keySerializer();
+        if (redisShardRouter.isSharded()) {
+            return scanShards(options, keySerializer);
+        }
+        Cursor<byte[]> cursor = openScan(redisShardRouter.getTemplates().get(0), options);
+        return toStream(new ConvertingCursor<byte[], String>(cursor, new Converter<byte[], String>() {
+            @Override
+            public String convert(byte[] source) {
+                return keySerializer.deserialize(source);
+            }
+        }));
+    }
+
+    /**
+     * 分片模式下逐个节点 SCAN, 上一个节点遍历完后才打开下一个节点的游标, 同一时间只占用一个连接
+     */
+    private Stream<String> scanShards(final ScanOptions options, final RedisSerializer<String> keySerializer) {
+        final Iterator<RedisTemplate<String, String>> templates = redisShardRouter.getTemplates().iterator();
+        final AtomicReference<Cursor<byte[]>> current = new AtomicReference<Cursor<byte[]>>();
+        Iterator<String> iterator = new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                Cursor<byte[]> cursor = current.get();
+                while (cursor == null || !cursor.hasNext()) {
+                    closeCursor(current.getAndSet(null));
+                    if (!templates.hasNext()) {
+                        return false;
+                    }
+                    cursor = openScan(templates.next(), options);
+                    current.set(cursor);
+                }
+                return true;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return keySerializer.deserialize(current.get().next());
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+                .onClose(new Runnable() {
+                    @Override
+                    public void run() {
+                        closeCursor(current.getAndSet(null));
+                    }
+                });
+    }
+
+    private Cursor<byte[]> openScan(RedisTemplate<String, String> template, final ScanOptions options) {
+        return template.executeWithStickyConnection(new RedisCallback<Cursor<byte[]>>() {
+            @Override
+            public Cursor<byte[]> doInRedis(RedisConnection connection) {
+                return connection.scan(options);
+            }
+        });
+    }
+
+    /**
+     * 基于 HSCAN 逐批遍历hash表
+     *
+     * @param key       键
+     * @param batchSize 每批数量
+     * @return 项和值
+     */
+    @Override
+    public Stream<Map.Entry<Object, Object>> hScan(String key, int batchSize) {
+        return toStream(template(key).opsForHash().scan(key, ScanOptions.scanOptions().count(batchSize).build()));
+    }
+
+    /**
+     * 基于 SSCAN 逐批遍历set
+     *
+     * @param key       键
+     * @param batchSize 每批数量
+     * @return 值
+     */
+    @Override
+    public Stream<String> sScan(String key, int batchSize) {
+        return toStream(template(key).opsForSet().scan(key, ScanOptions.scanOptions().count(batchSize).build()));
+    }
+
+    /**
+     * 按 LRANGE 分段遍历list
+     *
+     * @param key       键
+     * @param batchSize 每批数量
+     * @return 值
+     */
+    @Override
+    public Stream<String> lScan(final String key, final int batchSize) {
+        if (batchSize <= 0) {
+            throw new ServiceException("每批数量必须大于0");
+        }
+        Iterator<String> iterator = new Iterator<String>() {
+            private List<String> batch = Collections.emptyList();
+            private int index;
+            private long start;
+            private boolean last;
+
+            @Override
+            public boolean hasNext() {
+                if (index < batch.size()) {
+                    return true;
+                }
+                if (last) {
+                    return false;
+                }
+                batch = lGet(key, start, start + batchSize - 1);
+                index = 0;
+                start += batchSize;
+                last = batch.size() < batchSize;
+                return !batch.isEmpty();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return batch.get(index++);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+    }
+
+    /**
+     * 将 redis 游标包装为 Stream, 关闭 Stream 时关闭游标并释放连接
+     */
+    private <T> Stream<T> toStream(final Cursor<T> cursor) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED), false)
+                .onClose(new Runnable() {
+                    @Override
+                    public void run() {
+                        closeCursor(cursor);
+                    }
+                });
+    }
+
+    private void closeCursor(Cursor<?> cursor) {
+        if (cursor == null) {
+            return;
+        }
+        try {
+            cursor.close();
+        } catch (IOException e) {
+            logger.error("关闭redis游标异常", e);
+        }
+    }
+
+    /**
+     * 执行写入并设置时间的脚本, 写入和过期在服务端原子完成, 只有一次往返
+     *
+     * @param script 脚本
+     * @param key    键
+     * @param time   时间(秒)
+     * @param values 已序列化的写入数据
+     * @return 脚本返回值
+     */
+    private long executeWithExpire(RedisScript<Long> script, String key, long time, List<byte[]> values) {
+        Object[] args = new Object[values.size() + 1];
+        args[0] = String.valueOf(time).getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < values.size(); i++) {
+            args[i + 1] = values.get(i);
+        }
+        Long result = template(key).execute(script, null, null, Collections.singletonList(key), args);
+        return result == null ? 0 : result;
+    }
+
+    /**
+     * 读取普通缓存 开启分块存储时兼容分块存储的值
+     *
+     * @param primary 是否只读主节点
+     */
+    private String readValue(final String key, boolean primary) {
+        if (!chunkedValueStore.isEnabled()) {
+            return read(key, primary, new Function<RedisTemplate<String, String>, String>() {
+                @Override
+                public String apply(RedisTemplate<String, String> template) {
+                    return template.opsForValue().get(key);
+                }
+            });
+        }
+        return valueSerializer().deserialize(readChunked(key, primary));
+    }
+
+    /**
+     * 读取分块存储(或普通)的值 返回序列化后的值
+     */
+    private byte[] readChunked(final String key, boolean primary) {
+        return read(key, primary, new Function<RedisTemplate<String, String>, byte[]>() {
+            @Override
+            public byte[] apply(RedisTemplate<String, String> template) {
+                return chunkedValueStore.get(template, key);
+            }
+        });
+    }
+
+    /**
+     * 写入普通缓存 开启分块存储时超过阈值的值分块写入
+     *
+     * @param time 时间(秒) 小于等于0 为无限期
+     */
+    private void writeValue(String key, String value, long time) {
+        if (!chunkedValueStore.isEnabled()) {
+            if (time > 0) {
+                template(key).opsForValue().set(key, value, time, TimeUnit.SECONDS);
+            } else {
+                template(key).opsForValue().set(key, value);
+            }
+            return;
+        }
+        chunkedValueStore.set(key, valueSerializer().serialize(value), time);
+    }
+
+    /**
+     * 批量读取时分块存储的 key(hash)的 GET 返回错误, 出错的 key 单独用 CHUNK_GET 读取,
+     * 由脚本检查类型和分块标记(_v), 不依赖错误信息的内容; 不是分块存储的 key 再次读取仍然返回错误
+     */
+    private List<Object> resolveChunked(List<String> keys, List<Object> replies) {
+        List<Object> resolved = new ArrayList<Object>(replies);
+        for (int i = 0; i < keys.size(); i++) {
+            Object reply = resolved.get(i);
+            if (reply instanceof Exception) {
+                try {
+                    resolved.set(i, readChunked(keys.get(i), false));
+                } catch (Exception e) {
+                    resolved.set(i, e);
+                }
+            }
+        }
+        return resolved;
+    }
+
+    private List<byte[]> rawValues(List<String> values) {
+        List<byte[]> raw = new ArrayList<byte[]>(values.size());
+        for (String value : values) {
+            raw.add(valueSerializer().serialize(value));
+        }
+        return raw;
+    }
+
+    /**
+     * 本地缓存失效, 并通知其他节点
+     *
+     * @param key 键
+     */
+    private void invalidateNearCache(String key) {
+        if (hotKeyDetector != null) {
+            hotKeyDetector.invalidate(key);
+        }
+        if (nearCache == null) {
+            return;
+        }
+        nearCache.invalidate(key);
+        publishInvalidation(key);
+    }
+
+    /**
+     * 本地缓存批量失效, 只发送一条通知
+     *
+     * @param keys 键
+     */
+    private void invalidateNearCache(Collection<String> keys) {
+        if (hotKeyDetector != null && keys != null) {
+            for (String key : keys) {
+                hotKeyDetector.invalidate(key);
+            }
+        }
+        if (nearCache == null || keys == null || keys.isEmpty()) {
+            return;
+        }
+        for (String key : keys) {
+            nearCache.invalidate(key);
+        }
+        publishInvalidation(StringUtils.join(keys, '\n'));
+    }
+
+    /**
+     * 读操作使用的本地缓存 同时记录热点 key
+     * 开启一级缓存时返回一级缓存, 否则 key 为热点且开启 promote 时返回热点 key 的本地缓存, 都不满足时返回null
+     *
+     * @param key 键
+     * @return 本地缓存
+     */
+    private NearCache localCache(String key) {
+        NearCache promoted = hotKeyDetector == null ? null : hotKeyDetector.record(key);
+        return nearCache != null ? nearCache : promoted;
+    }
+
+    /**
+     * 记录不经过本地缓存的读操作
+     *
+     * @param key 键
+     */
+    private void recordRead(String key) {
+        if (hotKeyDetector != null) {
+            hotKeyDetector.record(key);
+        }
+    }
+
+    private void publishInvalidation(String message) {
+        try {
+            redisTemplate.convertAndSend(nearCache.getChannel(), message);
+        } catch (Exception e) {
+            logger.error("本地缓存失效通知发送异常", e);
+        }
+    }
+
+    /**
+     * key 所在节点的 RedisTemplate
+     */
+    private RedisTemplate<String, String> template(String key) {
+        return redisShardRouter.route(key);
+    }
+
+    /**
+     * 执行只读操作 配置了副本时优先读副本
+     */
+    private <T> T read(String key, Function<RedisTemplate<String, String>, T> operation) {
+        return read(key, false, operation);
+    }
+
+    /**
+     * 执行只读操作
+     *
+     * @param primary 是否只读主节点 填充本地缓存的读取只读主节点, 副本上的旧值放入本地缓存后在整个有效期内都不会失效
+     */
+    private <T> T read(String key, boolean primary, Function<RedisTemplate<String, String>, T> operation) {
+        if (!primary && redisReplicaRouter.isEnabled()) {
+            return redisReplicaRouter.read(operation);
+        }
+        return operation.apply(template(key));
+    }
+
+    /**
+     * 在一个管道中执行多条只读命令 配置了副本时优先读副本
+     */
+    private List<Object> readPipeline(RedisTemplate<String, String> template, RedisCallback<Object> commands) {
+        if (!redisReplicaRouter.isEnabled()) {
+            return executePipeline(template, commands);
+        }
+        final RedisCallback<List<Object>> pipeline = pipeline(commands);
+        try {
+            return redisReplicaRouter.read(new Function<RedisTemplate<String, String>, List<Object>>() {
+                @Override
+                public List<Object> apply(RedisTemplate<String, String> node) {
+                    return node.execute(pipeline);
+                }
+            });
+        } catch (Exception e) {
+            logger.error("管道批量操作异常", e);
+            throw new ServiceException(ResCodeEnum.sys_error);
+        }
+    }
+
+    /**
+     * 按节点拆分批量操作, 多个节点时并行执行后按原顺序合并
+     * 分片模式下某个节点整体失败时, 该节点的 key 返回异常结果, 不影响其他节点
+     *
+     * @param keys  每个元素对应的键
+     * @param batch 在一个节点上执行的批量操作
+     * @return 与keys顺序一致的结果
+     */
+    @SuppressWarnings("unchecked")
+    private <T> List<BatchResult<T>> executeSharded(List<String> keys, final ShardBatch<T> batch) {
+        Map<RedisTemplate<String, String>, List<Integer>> groups = redisShardRouter.partition(keys);
+        if (groups.size() == 1) {
+            Map.Entry<RedisTemplate<String, String>, List<Integer>> group = groups.entrySet().iterator().next();
+            return batch.execute(group.getKey(), group.getValue());
+        }
+        List<Callable<List<BatchResult<T>>>> tasks = new ArrayList<Callable<List<BatchResult<T>>>>(groups.size());
+        for (final Map.Entry<RedisTemplate<String, String>, List<Integer>> group : groups.entrySet()) {
+            tasks.add(new Callable<List<BatchResult<T>>>() {
+                @Override
+                public List<BatchResult<T>> call() {
+                    return batch.execute(group.getKey(), group.getValue());
+                }
+            });
+        }
+        List<Object> outcomes = redisShardRouter.invokeAll(tasks);
+        List<BatchResult<T>> results = new ArrayList<BatchResult<T>>(Collections.nCopies(keys.size(), (BatchResult<T>) null));
+        int index = 0;
+        for (List<Integer> indices : groups.values()) {
+            Object outcome = outcomes.get(index++);
+            for (int i = 0; i < indices.size(); i++) {
+                int position = indices.get(i);
+                if (outcome instanceof Exception) {
+                    results.set(position, new BatchResult<T>(keys.get(position), null, (Exception) outcome));
+                } else {
+                    results.set(position, ((List<BatchResult<T>>) outcome).get(i));
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 在一个节点上执行的批量操作
+     */
+    private interface ShardBatch<T> {
+
+        /**
+         * @param template 节点
+         * @param indices  该节点的元素下标
+         * @return 与 indices 顺序一致的结果
+         */
+        List<BatchResult<T>> execute(RedisTemplate<String, String> template, List<Integer> indices);
+    }
+
+    private static <T> List<T> select(List<T> list, List<Integer> indices) {
+        if (indices.size() == list.size()) {
+            return list;
+        }
+        List<T> selected = new ArrayList<T>(indices.size());
+        for (Integer index : indices) {
+            selected.add(list.get(index));
+        }
+        return selected;
+    }
+
+    private static List<String> keysOf(List<BatchItem> items) {
+        List<String> keys = new ArrayList<String>(items.size());
+        for (BatchItem item : items) {
+            keys.add(item.getKey());
+        }
+        return keys;
+    }
+
+    /**
+     * 在一个管道中执行多条命令, 返回未反序列化的结果
+     * 单条命令失败时对应位置为异常对象, 只有连接级别的失败才会整批抛出
+     *
+     * @param commands 管道中执行的命令
+     * @return 管道结果
+     */
+    private List<Object> executePipeline(RedisTemplate<String, String> template, RedisCallback<Object> commands) {
+        try {
+            return template.execute(pipeline(commands));
+        } catch (Exception e) {
+            logger.error("管道批量操作异常", e);
+            throw new ServiceException(ResCodeEnum.sys_error);
+        }
+    }
+
+    /**
+     * 执行管道 保留状态回复, 结果与命令逐个对应
+     * 默认状态回复(OK)不出现在管道结果中, 部分命令失败时无法对应到具体的命令
+     */
+    private List<Object> executeStatusPipeline(RedisTemplate<String, String> template, RedisCallback<Object> commands) {
+        final RedisCallback<List<Object>> pipeline = pipeline(commands);
+        try {
+            // 需要原始连接才能设置, 连接对象每次获取时新建, 用完后仍恢复默认值
+            return template.execute(new RedisCallback<List<Object>>() {
+                @Override
+                public List<Object> doInRedis(RedisConnection connection) {
+                    RedisConnection target = connection;
+                    while (target instanceof DecoratedRedisConnection) {
+                        target = ((DecoratedRedisConnection) target).getDelegate();
+                    }
+                    if (!(target instanceof JedisConnection)) {
+                        return pipeline.doInRedis(connection);
+                    }
+                    ((JedisConnection) target).setConvertPipelineAndTxResults(false);
+                    try {
+                        return pipeline.doInRedis(connection);
+                    } finally {
+                        ((JedisConnection) target).setConvertPipelineAndTxResults(true);
+                    }
+                }
+            }, true);
+        } catch (Exception e) {
+            logger.error("管道批量操作异常", e);
+            throw new ServiceException(ResCodeEnum.sys_error);
+        }
+    }
+
+    private RedisCallback<List<Object>> pipeline(final RedisCallback<Object> commands) {
+        return new RedisCallback<List<Object>>() {
+            @Override
+            public List<Object> doInRedis(RedisConnection connection) {
+                connection.openPipeline();
+                boolean pipelineClosed = false;
+                try {
+                    commands.doInRedis(connection);
+                    pipelineClosed = true;
+                    return connection.closePipeline();
+                } catch (RedisPipelineException e) {
+                    if (e.getPipelineResult() == null || e.getPipelineResult().isEmpty()) {
+                        throw e;
+                    }
+                    return e.getPipelineResult();
+                } finally {
+                    if (!pipelineClosed) {
+                        connection.closePipeline();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * 将管道结果按入参顺序转换为批量结果
+     */
+    private List<BatchResult<String>> toBatchResults(List<String> keys, List<Object> replies, RedisSerializer<String> serializer) {
+        List<BatchResult<String>> results = new ArrayList<BatchResult<String>>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            Object reply = replies.get(i);
+            if (reply instanceof Exception) {
+                results.add(new BatchResult<String>(keys.get(i), null, (Exception) reply));
+            } else {
+                results.add(new BatchResult<String>(keys.get(i), serializer.deserialize((byte[]) reply), null));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 将 DEL/EXPIRE 这类整数/布尔回复转换为批量结果
+     */
+    private List<BatchResult<Boolean>> toBooleanResults(List<String> keys, List<Object> replies) {
+        List<BatchResult<Boolean>> results = new ArrayList<BatchResult<Boolean>>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            Object reply = replies.get(i);
+            if (reply instanceof Exception) {
+                results.add(new BatchResult<Boolean>(keys.get(i), null, (Exception) reply));
+            } else if (reply instanceof Long) {
+                results.add(new BatchResult<Boolean>(keys.get(i), (Long) reply > 0, null));
+            } else {
+                results.add(new BatchResult<Boolean>(keys.get(i), Boolean.TRUE.equals(reply), null));
+            }
+        }
+        return results;
+    }
+
+    @SuppressWarnings("unchecked")
+    private RedisSerializer<String> keySerializer() {
+        return (RedisSerializer<String>) redisTemplate.getKeySerializer();
+    }
+
+    @SuppressWarnings("unchecked")
+    private RedisSerializer<String> valueSerializer() {
+        return (RedisSerializer<String>) redisTemplate.getValueSerializer();
+    }
+
+    @SuppressWarnings("unchecked")
+    private RedisSerializer<String> hashKeySerializer() {
+        return (RedisSerializer<String>) redisTemplate.getHashKeySerializer();
+    }
+
+    @SuppressWarnings("unchecked")
+    private RedisSerializer<String> hashValueSerializer() {
+        return (RedisSerializer<String>) redisTemplate.getHashValueSerializer();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,231 @@
+package com.river.util.redis;
+
+import com.river.util.metrics.Histogram;
+import com.river.util.metrics.MetricsSource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * create by river  2018/6/20
+ * desc: redis 命令指标 按命令和 key 的命名空间(第一个冒号之前的部分)统计耗时、异常和超时, 按命令统计请求/响应大小
+ */
+public class RedisMetrics implements MetricsSource {
+
+    /**
+     * 每个命令最多统计的命名空间个数, 超出后归入 other, 防止 key 设计不规范时指标无限增长
+     */
+    private static final int MAX_NAMESPACES = 200;
+    private static final String NO_NAMESPACE = "-";
+    private static final String OTHER_NAMESPACE = "other";
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private final ConcurrentMap<String, CommandMetrics> commands = new ConcurrentHashMap<String, CommandMetrics>();
+
+    private NearCache nearCache;
+    private SingleFlight singleFlight;
+
+    /**
+     * 记录一次命令执行
+     * @param command 命令
+     * @param rawKey  序列化后的key 没有key时为null
+     * @param nanos   耗时(纳秒)
+     * @param error   异常 成功时为null
+     */
+    public void record(String command, byte[] rawKey, long nanos, Throwable error) {
+        record(commandMetrics(command).namespace(namespace(rawKey)), nanos, error);
+    }
+
+    private void record(NamespaceMetrics metrics, long nanos, Throwable error) {
+        metrics.latency.record(nanos);
+        if (error != null) {
+            metrics.errors.increment();
+            if (isTimeout(error)) {
+                metrics.timeouts.increment();
+            }
+        }
+    }
+
+    /**
+     * 记录一次命令执行
+     * @param command 命令
+     * @param key     key 没有key时为null
+     * @param nanos   耗时(纳秒)
+     * @param error   异常 成功时为null
+     */
+    public void record(String command, String key, long nanos, Throwable error) {
+        int index = key == null ? -1 : key.indexOf(':');
+        record(commandMetrics(command).namespace(index < 0 ? NO_NAMESPACE : key.substring(0, index)), nanos, error);
+    }
+
+    /**
+     * 记录一次命令的请求和响应大小
+     * @param command       命令
+     * @param requestBytes  请求中 key 以外的数据字节数
+     * @param responseBytes 响应的数据字节数
+     */
+    public void recordSize(String command, long requestBytes, long responseBytes) {
+        CommandMetrics metrics = commandMetrics(command);
+        if (requestBytes > 0) {
+            metrics.requestSize.record(requestBytes);
+        }
+        if (responseBytes > 0) {
+            metrics.responseSize.record(responseBytes);
+        }
+    }
+
+    public void setNearCache(NearCache nearCache) {
+        this.nearCache = nearCache;
+    }
+
+    public void setSingleFlight(SingleFlight singleFlight) {
+        this.singleFlight = singleFlight;
+    }
+
+    private CommandMetrics commandMetrics(String command) {
+        CommandMetrics metrics = commands.get(command);
+        if (metrics == null) {
+            CommandMetrics created = new CommandMetrics();
+            metrics = commands.putIfAbsent(command, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    private String namespace(byte[] rawKey) {
+        if (rawKey == null) {
+            return NO_NAMESPACE;
+        }
+        for (int i = 0; i < rawKey.length; i++) {
+            if (rawKey[i] == ':') {
+                return new String(rawKey, 0, i, StandardCharsets.UTF_8);
+            }
+        }
+        return NO_NAMESPACE;
+    }
+
+    private boolean isTimeout(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e.getClass().getSimpleName().contains("Timeout")) {
+                return true;
+            }
+            if (e.getCause() == e) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void writeMetrics(StringBuilder out) {
+        out.append("# HELP redis_command_duration_seconds redis command latency\n");
+        out.append("# TYPE redis_command_duration_seconds histogram\n");
+        for (Map.Entry<String, CommandMetrics> command : commands.entrySet()) {
+            for (Map.Entry<String, NamespaceMetrics> namespace : command.getValue().namespaces.entrySet()) {
+                namespace.getValue().latency.write(out, "redis_command_duration_seconds",
+                        labels(command.getKey(), namespace.getKey()), NANOS_PER_SECOND);
+            }
+        }
+        out.append("# HELP redis_command_duration_quantile_seconds estimated redis command latency quantiles\n");
+        out.append("# TYPE redis_command_duration_quantile_seconds gauge\n");
+        for (Map.Entry<String, CommandMetrics> command : commands.entrySet()) {
+            for (Map.Entry<String, NamespaceMetrics> namespace : command.getValue().namespaces.entrySet()) {
+                String labels = labels(command.getKey(), namespace.getKey());
+                for (double quantile : QUANTILES) {
+                    out.append("redis_command_duration_quantile_seconds{").append(labels)
+                            .append(",quantile=\"").append(quantile).append("\"} ")
+                            .append(Histogram.format(namespace.getValue().latency.quantile(quantile) / NANOS_PER_SECOND))
+                            .append('\n');
+                }
+            }
+        }
+        writeCounters(out, "redis_command_errors_total", "redis command errors", false);
+        writeCounters(out, "redis_command_timeouts_total", "redis command timeouts", true);
+        out.append("# HELP redis_command_payload_bytes redis command payload size\n");
+        out.append("# TYPE redis_command_payload_bytes histogram\n");
+        for (Map.Entry<String, CommandMetrics> command : commands.entrySet()) {
+            String op = Histogram.escape(command.getKey());
+            command.getValue().requestSize.write(out, "redis_command_payload_bytes",
+                    "op=\"" + op + "\",direction=\"request\"", 1);
+            command.getValue().responseSize.write(out, "redis_command_payload_bytes",
+                    "op=\"" + op + "\",direction=\"response\"", 1);
+        }
+        if (nearCache != null) {
+            out.append("# TYPE redis_near_cache_hits_total counter\n");
+            out.append("redis_near_cache_hits_total ").append(nearCache.getHitCount()).append('\n');
+            out.append("# TYPE redis_near_cache_misses_total counter\n");
+            out.append("redis_near_cache_misses_total ").append(nearCache.getMissCount()).append('\n');
+            out.append("# TYPE redis_near_cache_evictions_total counter\n");
+            out.append("redis_near_cache_evictions_total ").append(nearCache.getEvictionCount()).append('\n');
+            out.append("# TYPE redis_near_cache_size gauge\n");
+            out.append("redis_near_cache_size ").append(nearCache.size()).append('\n');
+        }
+        if (singleFlight != null) {
+            out.append("# TYPE redis_single_flight_calls_total counter\n");
+            out.append("redis_single_flight_calls_total ").append(singleFlight.getCallCount()).append('\n');
+            out.append("# TYPE redis_single_flight_collapsed_total counter\n");
+            out.append("redis_single_flight_collapsed_total ").append(singleFlight.getCollapsedCount()).append('\n');
+            out.append("# TYPE redis_single_flight_timeouts_total counter\n");
+            out.append("redis_single_flight_timeouts_total ").append(singleFlight.getTimeoutCount()).append('\n');
+        }
+    }
+
+    private void writeCounters(StringBuilder out, String name, String help, boolean timeouts) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        for (Map.Entry<String, CommandMetrics> command : commands.entrySet()) {
+            for (Map.Entry<String, NamespaceMetrics> namespace : command.getValue().namespaces.entrySet()) {
+                LongAdder counter = timeouts ? namespace.getValue().timeouts : namespace.getValue().errors;
+                out.append(name).append('{').append(labels(command.getKey(), namespace.getKey())).append("} ")
+                        .append(counter.sum()).append('\n');
+            }
+        }
+    }
+
+    private String labels(String command, String namespace) {
+        return "op=\"" + Histogram.escape(command) + "\",namespace=\"" + Histogram.escape(namespace) + "\"";
+    }
+
+    private static class CommandMetrics {
+        private final ConcurrentMap<String, NamespaceMetrics> namespaces = new ConcurrentHashMap<String, NamespaceMetrics>();
+        private final Histogram requestSize = new Histogram(Histogram.SIZE_BOUNDS);
+        private final Histogram responseSize = new Histogram(Histogram.SIZE_BOUNDS);
+        private volatile NamespaceMetrics other;
+
+        private NamespaceMetrics namespace(String namespace) {
+            NamespaceMetrics metrics = namespaces.get(namespace);
+            if (metrics != null) {
+                return metrics;
+            }
+            if (namespaces.size() >= MAX_NAMESPACES) {
+                // 超出上限后每次都会走到这里, 直接返回 other 不再分配
+                return other();
+            }
+            NamespaceMetrics created = new NamespaceMetrics();
+            metrics = namespaces.putIfAbsent(namespace, created);
+            return metrics == null ? created : metrics;
+        }
+
+        private NamespaceMetrics other() {
+            NamespaceMetrics metrics = other;
+            if (metrics == null) {
+                NamespaceMetrics created = new NamespaceMetrics();
+                metrics = namespaces.putIfAbsent(OTHER_NAMESPACE, created);
+                other = metrics = metrics == null ? created : metrics;
+            }
+            return metrics;
+        }
+    }
+
+    private static class NamespaceMetrics {
+        private final Histogram latency = new Histogram(Histogram.LATENCY_BOUNDS);
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+    }
+}
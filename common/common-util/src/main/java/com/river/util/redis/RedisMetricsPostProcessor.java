@@ -0,0 +1,35 @@
+package com.river.util.redis;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+/**
+ * create by river  2018/6/20
+ * desc: 将容器中的 RedisConnectionFactory 包装为 InstrumentedRedisConnectionFactory
+ * RedisMetrics 在包装时才从容器中获取, 避免 BeanPostProcessor 提前初始化其他 bean
+ */
+public class RedisMetricsPostProcessor implements BeanPostProcessor, BeanFactoryAware {
+
+    private BeanFactory beanFactory;
+
+    @Override
+    public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+        this.beanFactory = beanFactory;
+    }
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+        return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+        if (bean instanceof RedisConnectionFactory && !(bean instanceof InstrumentedRedisConnectionFactory)) {
+            return new InstrumentedRedisConnectionFactory((RedisConnectionFactory) bean, beanFactory.getBean(RedisMetrics.class));
+        }
+        return bean;
+    }
+}
@@ -0,0 +1,114 @@
+package com.river.util.redis;
+
+import com.river.util.metrics.Histogram;
+import com.river.util.metrics.MetricsSource;
+import redis.clients.jedis.Jedis;
+import redis.clients.util.Pool;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * create by river  2018/6/26
+ * desc: redis 连接池指标 使用中/空闲/等待的连接数、利用率、获取连接的等待时间和失败次数
+ * 分片模式下每个节点一个连接池, 连接数等按节点输出(带 node 标签), 等待时间和失败次数为所有节点合计
+ */
+public class RedisPoolMetrics implements MetricsSource {
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final Histogram borrowWait = new Histogram(Histogram.LATENCY_BOUNDS);
+    /**
+     * 连接池耗尽 等待超过 max-wait 仍未拿到连接
+     */
+    private final LongAdder exhausted = new LongAdder();
+    /**
+     * 新建连接失败
+     */
+    private final LongAdder connectFailures = new LongAdder();
+
+    /**
+     * 节点地址 -> 连接池
+     */
+    private final Map<String, PoolRef> pools = new ConcurrentSkipListMap<String, PoolRef>();
+
+    void addPool(String node, Pool<Jedis> pool, int maxTotal) {
+        pools.put(node, new PoolRef(pool, maxTotal));
+    }
+
+    void recordBorrow(long nanos) {
+        borrowWait.record(nanos);
+    }
+
+    void recordExhausted() {
+        exhausted.increment();
+    }
+
+    void recordConnectFailure() {
+        connectFailures.increment();
+    }
+
+    @Override
+    public void writeMetrics(StringBuilder out) {
+        Map<String, String> labels = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, PoolRef> entry : pools.entrySet()) {
+            if (!entry.getValue().pool.isClosed()) {
+                labels.put(entry.getKey(), pools.size() > 1 ? "{node=\"" + Histogram.escape(entry.getKey()) + "\"}" : "");
+            }
+        }
+        if (!labels.isEmpty()) {
+            out.append("# TYPE redis_pool_active_connections gauge\n");
+            for (Map.Entry<String, String> label : labels.entrySet()) {
+                out.append("redis_pool_active_connections").append(label.getValue()).append(' ')
+                        .append(pools.get(label.getKey()).pool.getNumActive()).append('\n');
+            }
+            out.append("# TYPE redis_pool_idle_connections gauge\n");
+            for (Map.Entry<String, String> label : labels.entrySet()) {
+                out.append("redis_pool_idle_connections").append(label.getValue()).append(' ')
+                        .append(pools.get(label.getKey()).pool.getNumIdle()).append('\n');
+            }
+            out.append("# TYPE redis_pool_waiting_threads gauge\n");
+            for (Map.Entry<String, String> label : labels.entrySet()) {
+                out.append("redis_pool_waiting_threads").append(label.getValue()).append(' ')
+                        .append(pools.get(label.getKey()).pool.getNumWaiters()).append('\n');
+            }
+            out.append("# TYPE redis_pool_max_connections gauge\n");
+            for (Map.Entry<String, String> label : labels.entrySet()) {
+                out.append("redis_pool_max_connections").append(label.getValue()).append(' ')
+                        .append(pools.get(label.getKey()).maxTotal).append('\n');
+            }
+            out.append("# TYPE redis_pool_utilization gauge\n");
+            for (Map.Entry<String, String> label : labels.entrySet()) {
+                PoolRef ref = pools.get(label.getKey());
+                out.append("redis_pool_utilization").append(label.getValue()).append(' ')
+                        .append(Histogram.format(ref.maxTotal > 0 ? (double) ref.pool.getNumActive() / ref.maxTotal : 0))
+                        .append('\n');
+            }
+            out.append("# TYPE redis_pool_max_borrow_wait_seconds gauge\n");
+            for (Map.Entry<String, String> label : labels.entrySet()) {
+                out.append("redis_pool_max_borrow_wait_seconds").append(label.getValue()).append(' ')
+                        .append(Histogram.format(pools.get(label.getKey()).pool.getMaxBorrowWaitTimeMillis() / 1000.0))
+                        .append('\n');
+            }
+        }
+        out.append("# HELP redis_pool_borrow_wait_seconds time spent waiting for a pooled connection\n");
+        out.append("# TYPE redis_pool_borrow_wait_seconds histogram\n");
+        borrowWait.write(out, "redis_pool_borrow_wait_seconds", null, NANOS_PER_SECOND);
+        out.append("# TYPE redis_pool_borrow_failures_total counter\n");
+        out.append("redis_pool_borrow_failures_total{reason=\"exhausted\"} ").append(exhausted.sum()).append('\n');
+        out.append("redis_pool_borrow_failures_total{reason=\"connect\"} ").append(connectFailures.sum()).append('\n');
+    }
+
+    private static class PoolRef {
+
+        private final Pool<Jedis> pool;
+        private final int maxTotal;
+
+        PoolRef(Pool<Jedis> pool, int maxTotal) {
+            this.pool = pool;
+            this.maxTotal = maxTotal;
+        }
+    }
+}
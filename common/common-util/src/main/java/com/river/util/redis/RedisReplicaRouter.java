@@ -0,0 +1,271 @@
+package com.river.util.redis;
+
+import com.river.util.metrics.Histogram;
+import com.river.util.metrics.MetricsSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * create by river  2018/7/6
+ * desc: 读写分离 RedisManager 的只读操作发往副本, 写操作和其他组件仍使用主节点
+ * 副本按 INFO replication 定时检查, 与主节点断开或最后一次通信距今超过 maxLag 秒视为不可用, 检查通过前不接收读请求
+ * 没有可用副本时读主节点; 副本读取时连接失败或超时, 标记为不可用并改读主节点, 下次检查通过后恢复
+ * 副本的数据有复制延迟, 写后需要立即读到的场景用 readPrimary 包裹, 期间当前线程的读操作都访问主节点
+ */
+public class RedisReplicaRouter implements MetricsSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisReplicaRouter.class);
+
+    private final RedisTemplate<String, String> primary;
+    private final List<Replica> replicas;
+    private final ReplicaSelection selection;
+    private final long maxLag;
+    /**
+     * 为副本新建的连接工厂 关闭时释放
+     */
+    private final Collection<RedisConnectionFactory> ownedFactories;
+    /**
+     * 副本健康检查 没有副本时为null
+     */
+    private final ScheduledExecutorService healthExecutor;
+
+    private final AtomicInteger next = new AtomicInteger();
+    /**
+     * 当前线程 readPrimary 的嵌套层数
+     */
+    private final ThreadLocal<int[]> primaryScope = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    /**
+     * 配置了副本但读了主节点的次数(没有可用副本、readPrimary、副本失败后重试)
+     */
+    private final LongAdder primaryReads = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+
+    /**
+     * @param primary             主节点
+     * @param replicas            副本名称 -> 副本的 RedisTemplate, 为空时所有读操作访问主节点
+     * @param ownedFactories      为副本新建的连接工厂
+     * @param selection           副本的选择方式
+     * @param healthCheckInterval 健康检查间隔(毫秒)
+     * @param maxLag              与主节点最后一次通信距今超过多少秒视为不可用 小于等于0 不检查
+     */
+    public RedisReplicaRouter(RedisTemplate<String, String> primary, Map<String, RedisTemplate<String, String>> replicas,
+                              Collection<RedisConnectionFactory> ownedFactories, ReplicaSelection selection,
+                              long healthCheckInterval, long maxLag) {
+        if (!replicas.isEmpty() && healthCheckInterval <= 0) {
+            throw new IllegalArgumentException("健康检查间隔必须大于0");
+        }
+        this.primary = primary;
+        List<Replica> list = new ArrayList<Replica>();
+        for (Map.Entry<String, RedisTemplate<String, String>> entry : replicas.entrySet()) {
+            list.add(new Replica(entry.getKey(), entry.getValue()));
+        }
+        this.replicas = Collections.unmodifiableList(list);
+        this.selection = selection;
+        this.maxLag = maxLag;
+        this.ownedFactories = ownedFactories;
+        if (this.replicas.isEmpty()) {
+            healthExecutor = null;
+            return;
+        }
+        healthExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "redis-replica-health");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        healthExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (Replica replica : RedisReplicaRouter.this.replicas) {
+                    check(replica);
+                }
+            }
+        }, 0, healthCheckInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 是否配置了副本
+     */
+    public boolean isEnabled() {
+        return !replicas.isEmpty();
+    }
+
+    /**
+     * 执行只读操作 优先使用副本, 副本连接失败或超时时改用主节点重试一次
+     *
+     * @param operation 在选中节点上执行的读操作
+     * @return 读取结果
+     */
+    public <T> T read(Function<RedisTemplate<String, String>, T> operation) {
+        Replica replica = primaryScope.get()[0] > 0 ? null : select();
+        if (replica == null) {
+            primaryReads.increment();
+            return operation.apply(primary);
+        }
+        try {
+            T result = operation.apply(replica.template);
+            replica.reads.increment();
+            return result;
+        } catch (TransientDataAccessException | DataAccessResourceFailureException e) {
+            replica.healthy = false;
+            fallbacks.increment();
+            logger.warn("副本读取失败 改读主节点 replica={}", replica.name, e);
+            primaryReads.increment();
+            return operation.apply(primary);
+        }
+    }
+
+    /**
+     * 回调中当前线程的读操作都访问主节点 用于写后立即读
+     */
+    public <T> T readPrimary(Callable<T> reads) throws Exception {
+        int[] depth = primaryScope.get();
+        depth[0]++;
+        try {
+            return reads.call();
+        } finally {
+            if (--depth[0] == 0) {
+                primaryScope.remove();
+            }
+        }
+    }
+
+    public void close() {
+        if (healthExecutor != null) {
+            healthExecutor.shutdownNow();
+        }
+        for (RedisConnectionFactory factory : ownedFactories) {
+            if (factory instanceof DisposableBean) {
+                try {
+                    ((DisposableBean) factory).destroy();
+                } catch (Exception e) {
+                    logger.warn("关闭副本连接异常", e);
+                }
+            }
+        }
+    }
+
+    private Replica select() {
+        if (replicas.isEmpty()) {
+            return null;
+        }
+        if (selection == ReplicaSelection.LEAST_LATENCY) {
+            Replica best = null;
+            for (Replica replica : replicas) {
+                if (replica.healthy && (best == null || replica.latencyNanos < best.latencyNanos)) {
+                    best = replica;
+                }
+            }
+            return best;
+        }
+        int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if (replica.healthy) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    private void check(Replica replica) {
+        long start = System.nanoTime();
+        boolean healthy;
+        try {
+            Properties info = replica.template.execute(new RedisCallback<Properties>() {
+                @Override
+                public Properties doInRedis(RedisConnection connection) throws DataAccessException {
+                    return connection.info("replication");
+                }
+            });
+            replica.latencyNanos = System.nanoTime() - start;
+            healthy = "slave".equals(info.getProperty("role"))
+                    && "up".equals(info.getProperty("master_link_status"))
+                    && (maxLag <= 0 || Long.parseLong(info.getProperty("master_last_io_seconds_ago", "-1").trim()) <= maxLag);
+        } catch (Exception e) {
+            logger.debug("副本健康检查失败 replica={}", replica.name, e);
+            healthy = false;
+        }
+        if (healthy != replica.healthy) {
+            logger.warn("副本状态变化 replica={},healthy={}", replica.name, healthy);
+        }
+        replica.healthy = healthy;
+    }
+
+    @Override
+    public void writeMetrics(StringBuilder out) {
+        if (replicas.isEmpty()) {
+            return;
+        }
+        out.append("# TYPE redis_replica_up gauge\n");
+        for (Replica replica : replicas) {
+            out.append("redis_replica_up{replica=\"").append(Histogram.escape(replica.name)).append("\"} ")
+                    .append(replica.healthy ? 1 : 0).append('\n');
+        }
+        out.append("# TYPE redis_replica_check_latency_seconds gauge\n");
+        for (Replica replica : replicas) {
+            out.append("redis_replica_check_latency_seconds{replica=\"").append(Histogram.escape(replica.name)).append("\"} ")
+                    .append(Histogram.format(replica.latencyNanos / 1e9)).append('\n');
+        }
+        out.append("# TYPE redis_replica_reads_total counter\n");
+        for (Replica replica : replicas) {
+            out.append("redis_replica_reads_total{replica=\"").append(Histogram.escape(replica.name)).append("\"} ")
+                    .append(replica.reads.sum()).append('\n');
+        }
+        out.append("# TYPE redis_replica_primary_reads_total counter\n");
+        out.append("redis_replica_primary_reads_total ").append(primaryReads.sum()).append('\n');
+        out.append("# TYPE redis_replica_fallbacks_total counter\n");
+        out.append("redis_replica_fallbacks_total ").append(fallbacks.sum()).append('\n');
+    }
+
+    private static class Replica {
+
+        private final String name;
+        private final RedisTemplate<String, String> template;
+        private final LongAdder reads = new LongAdder();
+        /**
+         * 最近一次健康检查是否通过 读取失败时置为 false
+         */
+        private volatile boolean healthy;
+        /**
+         * 最近一次健康检查的耗时
+         */
+        private volatile long latencyNanos;
+
+        Replica(String name, RedisTemplate<String, String> template) {
+            this.name = name;
+            this.template = template;
+        }
+    }
+}
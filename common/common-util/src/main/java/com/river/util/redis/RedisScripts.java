@@ -0,0 +1,41 @@
+package com.river.util.redis;
+
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+/**
+ * create by river  2018/6/13
+ * desc: 带过期时间的写入脚本, 写入和 EXPIRE 在服务端原子执行, 只需要一次往返
+ * KEYS[1] 为键, ARGV[1] 为时间(秒), 其余 ARGV 为写入的数据
+ */
+final class RedisScripts {
+
+    /**
+     * hash 写入并设置时间 ARGV[2..] 为 项,值,项,值...
+     */
+    static final RedisScript<Long> HSET_AND_EXPIRE = new DefaultRedisScript<Long>(
+            "for i = 2, #ARGV, 2 do redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1]) end "
+                    + "redis.call('EXPIRE', KEYS[1], ARGV[1]) "
+                    + "return 1", Long.class);
+
+    /**
+     * set 写入并设置时间 返回新增的个数
+     */
+    static final RedisScript<Long> SADD_AND_EXPIRE = new DefaultRedisScript<Long>(
+            "local count = 0 "
+                    + "for i = 2, #ARGV do count = count + redis.call('SADD', KEYS[1], ARGV[i]) end "
+                    + "redis.call('EXPIRE', KEYS[1], ARGV[1]) "
+                    + "return count", Long.class);
+
+    /**
+     * list 尾部写入并设置时间 返回写入后list的长度
+     */
+    static final RedisScript<Long> RPUSH_AND_EXPIRE = new DefaultRedisScript<Long>(
+            "local size = 0 "
+                    + "for i = 2, #ARGV do size = redis.call('RPUSH', KEYS[1], ARGV[i]) end "
+                    + "redis.call('EXPIRE', KEYS[1], ARGV[1]) "
+                    + "return size", Long.class);
+
+    private RedisScripts() {
+    }
+}
@@ -0,0 +1,253 @@
+package com.river.util.redis;
+
+import com.river.util.metrics.MetricsSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * create by river  2018/7/5
+ * desc: 客户端分片 RedisManager 的操作按 key 的一致性哈希选择节点
+ * 每个节点在哈希环上有 virtualNodes 个虚拟节点, 位置由节点名计算, 节点地址变化时只要名称不变 key 的分布不变
+ * key 中含有 {tag} 时只按第一个 {} 中的内容计算哈希(与 redis cluster 规则一致), 相同 tag 的 key 在同一个节点
+ * 只有一个节点时不计算哈希, 直接返回该节点
+ */
+public class RedisShardRouter implements MetricsSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisShardRouter.class);
+
+    private final List<Shard> shards;
+    private final TreeMap<Long, Shard> ring = new TreeMap<Long, Shard>();
+    /**
+     * 批量操作按节点并行执行 只有一个节点时为null
+     */
+    private final ThreadPoolExecutor batchExecutor;
+    /**
+     * 为分片新建的连接工厂 关闭时释放
+     */
+    private final Collection<RedisConnectionFactory> ownedFactories;
+
+    /**
+     * @param templates      节点名 -> 节点的 RedisTemplate
+     * @param ownedFactories 为分片新建的连接工厂
+     * @param virtualNodes   每个节点的虚拟节点个数
+     * @param batchThreads   批量操作并行执行的线程数
+     */
+    public RedisShardRouter(Map<String, RedisTemplate<String, String>> templates,
+                            Collection<RedisConnectionFactory> ownedFactories, int virtualNodes, int batchThreads) {
+        if (templates.isEmpty() || virtualNodes <= 0 || batchThreads <= 0) {
+            throw new IllegalArgumentException("至少需要一个节点, 虚拟节点个数和线程数必须大于0");
+        }
+        List<Shard> list = new ArrayList<Shard>();
+        for (Map.Entry<String, RedisTemplate<String, String>> entry : templates.entrySet()) {
+            Shard shard = new Shard(entry.getKey(), entry.getValue());
+            list.add(shard);
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(entry.getKey() + "#" + i), shard);
+            }
+        }
+        this.shards = Collections.unmodifiableList(list);
+        this.ownedFactories = ownedFactories;
+        if (shards.size() > 1) {
+            final AtomicInteger sequence = new AtomicInteger();
+            // 队列满时由调用线程执行, 不会丢弃也不会无限排队
+            batchExecutor = new ThreadPoolExecutor(batchThreads, batchThreads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(batchThreads * 4), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "redis-shard-batch-" + sequence.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+            batchExecutor.allowCoreThreadTimeOut(true);
+        } else {
+            batchExecutor = null;
+        }
+    }
+
+    public boolean isSharded() {
+        return shards.size() > 1;
+    }
+
+    /**
+     * key 所在节点的 RedisTemplate
+     */
+    public RedisTemplate<String, String> route(String key) {
+        return shard(key).template;
+    }
+
+    /**
+     * 所有节点的 RedisTemplate 按配置顺序
+     */
+    public List<RedisTemplate<String, String>> getTemplates() {
+        List<RedisTemplate<String, String>> templates = new ArrayList<RedisTemplate<String, String>>(shards.size());
+        for (Shard shard : shards) {
+            templates.add(shard.template);
+        }
+        return templates;
+    }
+
+    /**
+     * 按节点拆分 key
+     *
+     * @param keys 键
+     * @return 节点 -> 该节点的 key 在 keys 中的下标, 按节点配置顺序
+     */
+    public Map<RedisTemplate<String, String>, List<Integer>> partition(List<String> keys) {
+        Map<RedisTemplate<String, String>, List<Integer>> groups = new LinkedHashMap<RedisTemplate<String, String>, List<Integer>>();
+        if (!isSharded()) {
+            List<Integer> indices = new ArrayList<Integer>(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                indices.add(i);
+            }
+            groups.put(shards.get(0).template, indices);
+            return groups;
+        }
+        for (Shard shard : shards) {
+            groups.put(shard.template, new ArrayList<Integer>());
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            groups.get(route(keys.get(i))).add(i);
+        }
+        Iterator<List<Integer>> iterator = groups.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isEmpty()) {
+                iterator.remove();
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * 并行执行各节点的任务 最后一个任务由调用线程执行
+     *
+     * @param tasks 每个节点一个任务
+     * @return 与 tasks 顺序一致的结果 失败的任务对应位置为异常
+     */
+    public List<Object> invokeAll(List<? extends Callable<?>> tasks) {
+        if (tasks.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Object> results = new ArrayList<Object>(tasks.size());
+        List<Future<?>> futures = new ArrayList<Future<?>>(tasks.size());
+        for (int i = 0; i < tasks.size() - 1; i++) {
+            futures.add(batchExecutor.submit(tasks.get(i)));
+        }
+        Object last = call(tasks.get(tasks.size() - 1));
+        for (Future<?> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                results.add(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                results.add(e);
+            }
+        }
+        results.add(last);
+        return results;
+    }
+
+    public void close() {
+        if (batchExecutor != null) {
+            batchExecutor.shutdownNow();
+        }
+        for (RedisConnectionFactory factory : ownedFactories) {
+            if (factory instanceof DisposableBean) {
+                try {
+                    ((DisposableBean) factory).destroy();
+                } catch (Exception e) {
+                    logger.warn("关闭分片连接异常", e);
+                }
+            }
+        }
+    }
+
+    private Object call(Callable<?> task) {
+        try {
+            return task.call();
+        } catch (Exception e) {
+            return e;
+        }
+    }
+
+    private Shard shard(String key) {
+        if (shards.size() == 1) {
+            return shards.get(0);
+        }
+        Map.Entry<Long, Shard> entry = ring.ceilingEntry(hash(hashTag(key)));
+        Shard shard = entry == null ? ring.firstEntry().getValue() : entry.getValue();
+        shard.routed.increment();
+        return shard;
+    }
+
+    /**
+     * 参与哈希的部分 第一个 { 之后到第一个 } 之间的内容不为空时只取这部分
+     */
+    static String hashTag(String key) {
+        int start = key.indexOf('{');
+        if (start >= 0) {
+            int end = key.indexOf('}', start + 1);
+            if (end > start + 1) {
+                return key.substring(start + 1, end);
+            }
+        }
+        return key;
+    }
+
+    private static long hash(String value) {
+        return Murmur3.hash128(value.getBytes(StandardCharsets.UTF_8))[0];
+    }
+
+    @Override
+    public void writeMetrics(StringBuilder out) {
+        if (!isSharded()) {
+            return;
+        }
+        out.append("# TYPE redis_shard_routed_total counter\n");
+        for (Shard shard : shards) {
+            out.append("redis_shard_routed_total{shard=\"").append(shard.name).append("\"} ")
+                    .append(shard.routed.sum()).append('\n');
+        }
+    }
+
+    private static class Shard {
+
+        private final String name;
+        private final RedisTemplate<String, String> template;
+        /**
+         * 路由到该节点的操作次数
+         */
+        private final LongAdder routed = new LongAdder();
+
+        Shard(String name, RedisTemplate<String, String> template) {
+            this.name = name;
+            this.template = template;
+        }
+    }
+}
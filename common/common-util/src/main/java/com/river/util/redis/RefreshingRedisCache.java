@@ -0,0 +1,200 @@
+package com.river.util.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.support.NullValue;
+import org.springframework.cache.support.SimpleValueWrapper;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.cache.RedisCache;
+import org.springframework.data.redis.cache.RedisCacheElement;
+import org.springframework.data.redis.cache.RedisCacheKey;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * create by river  2018/6/29
+ * desc: 防止集中过期和缓存击穿的 RedisCache
+ * 1. 写入时在过期时间上随机增加一段, 同一批写入的条目不会同时过期
+ * 2. 开启提前刷新后, 读取时用管道同时取值和剩余时间, 剩余时间进入刷新区间后按剩余比例随机触发刷新:
+ *    越接近过期概率越大, 访问越频繁越早被刷新, 冷数据基本不会触发
+ *    普通 &#64;Cacheable 触发时本次按未命中处理, 由调用方重新执行方法并写入;
+ *    &#64;Cacheable(sync = true) 触发时返回旧值, 在后台线程中执行方法刷新
+ * 3. sync 方式未命中时, 本节点同一条目的并发加载合并为一次, 与 sync 的语义一致, 其余线程一直等到加载结束,
+ *    不使用 redis.single-flight.timeout(方法执行较慢时不会因等待超时而失败)
+ * 4. 不缓存 null 时 null 结果直接跳过写入, 缓存 null 时可以使用较短的过期时间
+ */
+public class RefreshingRedisCache extends RedisCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RefreshingRedisCache.class);
+
+    private final byte[] prefix;
+    private final RedisOperations redisOperations;
+    private final long expiration;
+    private final RefreshingRedisCacheManager manager;
+
+    RefreshingRedisCache(String name, byte[] prefix, RedisOperations redisOperations, long expiration,
+                         boolean allowNullValues, RefreshingRedisCacheManager manager) {
+        super(name, prefix, redisOperations, expiration, allowNullValues);
+        this.prefix = prefix;
+        this.redisOperations = redisOperations;
+        this.expiration = expiration;
+        this.manager = manager;
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        if (manager.getEarlyRefresh() <= 0) {
+            return super.get(key);
+        }
+        Entry entry = lookupEntry(key);
+        if (entry == null || entry.refreshDue) {
+            return null;
+        }
+        return new SimpleValueWrapper(fromStoreValue(entry.value));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(final Object key, final Callable<T> valueLoader) {
+        if (manager.getEarlyRefresh() > 0) {
+            Entry entry = lookupEntry(key);
+            if (entry != null) {
+                if (entry.refreshDue) {
+                    refreshAsync(key, valueLoader);
+                }
+                return (T) fromStoreValue(entry.value);
+            }
+        } else {
+            ValueWrapper cached = super.get(key);
+            if (cached != null) {
+                return (T) cached.get();
+            }
+        }
+        return manager.getSingleFlight().execute(id(key), new Callable<T>() {
+            @Override
+            public T call() {
+                ValueWrapper cached = RefreshingRedisCache.super.get(key);
+                if (cached != null) {
+                    return (T) cached.get();
+                }
+                T value = load(key, valueLoader);
+                put(key, value);
+                return value;
+            }
+        }, 0);
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        if (value == null && !isAllowNullValues()) {
+            return;
+        }
+        put(new RedisCacheElement(cacheKey(key), toStoreValue(value)).expireAfter(expiration(value)));
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        if (value == null && !isAllowNullValues()) {
+            return get(key);
+        }
+        return putIfAbsent(new RedisCacheElement(cacheKey(key), toStoreValue(value)).expireAfter(expiration(value)));
+    }
+
+    private long expiration(Object value) {
+        return expiration(value, true);
+    }
+
+    private long expiration(Object value, boolean withJitter) {
+        if (value == null && manager.getNullExpiration() > 0) {
+            return manager.getNullExpiration();
+        }
+        double jitter = manager.getTtlJitter();
+        if (!withJitter || expiration <= 0 || jitter <= 0) {
+            return expiration;
+        }
+        return expiration + (long) (expiration * jitter * ThreadLocalRandom.current().nextDouble());
+    }
+
+    private <T> T load(Object key, Callable<T> valueLoader) {
+        try {
+            return valueLoader.call();
+        } catch (Exception e) {
+            throw new ValueRetrievalException(key, valueLoader, e);
+        }
+    }
+
+    private void refreshAsync(final Object key, final Callable<?> valueLoader) {
+        manager.refresh(id(key), new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    put(key, valueLoader.call());
+                } catch (Exception e) {
+                    logger.warn("缓存后台刷新失败 cache={},key={}", getName(), key, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 一次往返同时取值和剩余时间(毫秒)
+     */
+    @SuppressWarnings("unchecked")
+    private Entry lookupEntry(Object key) {
+        final byte[] rawKey = cacheKey(key).getKeyBytes();
+        List<Object> replies = (List<Object>) redisOperations.execute(new RedisCallback<List<Object>>() {
+            @Override
+            public List<Object> doInRedis(RedisConnection connection) throws DataAccessException {
+                connection.openPipeline();
+                connection.get(rawKey);
+                connection.pTtl(rawKey);
+                return connection.closePipeline();
+            }
+        });
+        if (replies == null || replies.size() < 2 || replies.get(0) == null) {
+            return null;
+        }
+        RedisSerializer<?> valueSerializer = redisOperations.getValueSerializer();
+        byte[] raw = (byte[]) replies.get(0);
+        Object value = valueSerializer == null ? raw : valueSerializer.deserialize(raw);
+        Long ttl = (Long) replies.get(1);
+        return new Entry(value, isRefreshDue(ttl, value instanceof NullValue ? null : value));
+    }
+
+    /**
+     * 刷新区间按写入时的过期时间计算 null 使用单独的过期时间
+     */
+    private boolean isRefreshDue(Long ttl, Object value) {
+        long base = expiration(value, false);
+        if (base <= 0 || ttl == null || ttl < 0) {
+            return false;
+        }
+        double window = base * 1000 * manager.getEarlyRefresh();
+        return ttl < window && ThreadLocalRandom.current().nextDouble() >= ttl / window;
+    }
+
+    private RedisCacheKey cacheKey(Object key) {
+        return new RedisCacheKey(key).usePrefix(prefix).withKeySerializer(redisOperations.getKeySerializer());
+    }
+
+    private String id(Object key) {
+        return getName() + "#" + new String(cacheKey(key).getKeyBytes(), StandardCharsets.UTF_8);
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final boolean refreshDue;
+
+        private Entry(Object value, boolean refreshDue) {
+            this.value = value;
+            this.refreshDue = refreshDue;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.river.util.redis;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.cache.RedisCache;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.core.RedisOperations;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * create by river  2018/6/29
+ * desc: 支持过期时间抖动、提前刷新、空值缓存的 RedisCacheManager
+ * 过期时间按 setExpires/setDefaultExpiration 配置, 创建的缓存为 RefreshingRedisCache
+ * 后台刷新使用有界线程池, 队列满时放弃本次刷新(条目到期后按正常未命中加载)
+ */
+public class RefreshingRedisCacheManager extends RedisCacheManager implements DisposableBean {
+
+    private final boolean cacheNullValues;
+    private final SingleFlight singleFlight;
+    private final ThreadPoolExecutor refreshExecutor;
+    /**
+     * 正在后台刷新的条目 避免同一条目重复提交
+     */
+    private final Set<String> refreshing = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private double ttlJitter;
+    private double earlyRefresh;
+    private long nullExpiration;
+
+    /**
+     * @param redisOperations redis 操作
+     * @param cacheNullValues 是否缓存 null 结果
+     * @param singleFlight    未命中时合并本节点的并发加载
+     * @param refreshThreads  后台刷新线程数
+     */
+    public RefreshingRedisCacheManager(RedisOperations redisOperations, boolean cacheNullValues,
+                                       SingleFlight singleFlight, int refreshThreads) {
+        super(redisOperations, Collections.<String>emptyList(), cacheNullValues);
+        this.cacheNullValues = cacheNullValues;
+        this.singleFlight = singleFlight;
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.refreshExecutor = new ThreadPoolExecutor(refreshThreads, refreshThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(1000), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "redis-cache-refresh-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.refreshExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param ttlJitter 过期时间随机延长的最大比例 例如 0.1 表示在配置的时间上随机增加 0~10%
+     */
+    public void setTtlJitter(double ttlJitter) {
+        this.ttlJitter = ttlJitter;
+    }
+
+    /**
+     * @param earlyRefresh 条目剩余时间不足过期时间的这个比例时开始提前刷新 0 表示不提前刷新
+     */
+    public void setEarlyRefresh(double earlyRefresh) {
+        this.earlyRefresh = earlyRefresh;
+    }
+
+    /**
+     * @param nullExpiration null 结果的过期时间(秒) 小于等于0 时与缓存的过期时间相同
+     */
+    public void setNullExpiration(long nullExpiration) {
+        this.nullExpiration = nullExpiration;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected RedisCache createCache(String cacheName) {
+        long expiration = computeExpiration(cacheName);
+        return new RefreshingRedisCache(cacheName, isUsePrefix() ? getCachePrefix().prefix(cacheName) : null,
+                getRedisOperations(), expiration, cacheNullValues, this);
+    }
+
+    double getTtlJitter() {
+        return ttlJitter;
+    }
+
+    double getEarlyRefresh() {
+        return earlyRefresh;
+    }
+
+    long getNullExpiration() {
+        return nullExpiration;
+    }
+
+    SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * 提交后台刷新 同一条目同时只有一个刷新任务
+     */
+    void refresh(final String id, final Runnable task) {
+        if (!refreshing.add(id)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        refreshing.remove(id);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 队列已满或已关闭, 放弃本次刷新
+            refreshing.remove(id);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        refreshExecutor.shutdownNow();
+    }
+}
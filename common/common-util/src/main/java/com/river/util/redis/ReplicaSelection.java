@@ -0,0 +1,16 @@
+package com.river.util.redis;
+
+/**
+ * create by river  2018/7/6
+ * desc: 读副本的选择方式
+ */
+public enum ReplicaSelection {
+    /**
+     * 在可用的副本之间轮询
+     */
+    ROUND_ROBIN,
+    /**
+     * 选择最近一次健康检查延迟最小的副本
+     */
+    LEAST_LATENCY
+}
@@ -0,0 +1,120 @@
+package com.river.util.redis;
+
+import com.river.util.exception.ServiceException;
+import com.river.util.res.ResCodeEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * create by river  2018/6/11
+ * desc: 请求合并 同一个key同时只执行一次加载, 并发的其他调用等待并共享这一次的结果
+ * 第一个到达的线程直接在自己的线程中执行加载, 其余线程默认最多等待 timeout 毫秒
+ */
+public class SingleFlight {
+
+    private static final Logger logger = LoggerFactory.getLogger(SingleFlight.class);
+
+    private final ConcurrentMap<String, FutureTask<?>> inFlight = new ConcurrentHashMap<String, FutureTask<?>>();
+    private final long timeout;
+
+    private final AtomicLong callCount = new AtomicLong();
+    private final AtomicLong collapsedCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    /**
+     * @param timeout 等待其他线程加载结果的最长时间(毫秒)
+     */
+    public SingleFlight(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * 执行加载 同一个key的并发调用只会执行一次loader
+     * @param key    合并的键
+     * @param loader 加载逻辑
+     * @return 加载结果
+     */
+    public <T> T execute(String key, Callable<T> loader) {
+        return execute(key, loader, timeout);
+    }
+
+    /**
+     * 执行加载 同一个key的并发调用只会执行一次loader
+     * @param key     合并的键
+     * @param loader  加载逻辑
+     * @param timeout 等待其他线程加载结果的最长时间(毫秒), 小于等于0 时一直等到加载结束
+     * @return 加载结果
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Callable<T> loader, long timeout) {
+        callCount.incrementAndGet();
+        FutureTask<T> task = new FutureTask<T>(loader);
+        FutureTask<T> running = (FutureTask<T>) inFlight.putIfAbsent(key, task);
+        if (running == null) {
+            try {
+                task.run();
+                return getResult(key, task, 0);
+            } finally {
+                inFlight.remove(key, task);
+            }
+        }
+        collapsedCount.incrementAndGet();
+        return getResult(key, running, timeout);
+    }
+
+    private <T> T getResult(String key, FutureTask<T> task, long waitMillis) {
+        try {
+            return waitMillis > 0 ? task.get(waitMillis, TimeUnit.MILLISECONDS) : task.get();
+        } catch (TimeoutException e) {
+            timeoutCount.incrementAndGet();
+            logger.error("合并请求等待超时 key={},timeout={} ms", key, waitMillis);
+            throw new ServiceException(ResCodeEnum.sys_error);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException(ResCodeEnum.sys_error);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            logger.error("合并请求加载异常 key=" + key, e.getCause());
+            throw new ServiceException(ResCodeEnum.sys_error);
+        }
+    }
+
+    /**
+     * 调用总次数
+     */
+    public long getCallCount() {
+        return callCount.get();
+    }
+
+    /**
+     * 被合并(没有自己执行加载)的调用次数
+     */
+    public long getCollapsedCount() {
+        return collapsedCount.get();
+    }
+
+    /**
+     * 等待超时的调用次数
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * 正在执行中的加载个数
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+}
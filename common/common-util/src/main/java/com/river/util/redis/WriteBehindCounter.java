@@ -0,0 +1,62 @@
+package com.river.util.redis;
+
+/**
+ * create by river  2018/7/2
+ * desc: 写回计数器 用于浏览数、点赞数等高频计数
+ * 递增先累加在本地, 由后台线程按 redis.counter.flush-interval 或累计的键个数批量写入 redis, 每批一次管道
+ * 与 RedisManager.incr 写入的是同一个键, 可以混用
+ * 其他节点读到的值最多落后一个写入周期; 本节点读取时加上尚未写入的部分
+ * 节点宕机时丢失最后一个周期内的递增, 正常关闭时会全部写入
+ */
+public interface WriteBehindCounter {
+
+    /**
+     * 递增
+     * @param key   键
+     * @param delta 要增加几(大于等于0)
+     */
+    void incr(String key, long delta);
+
+    /**
+     * 递减
+     * @param key   键
+     * @param delta 要减少几(大于等于0)
+     */
+    void decr(String key, long delta);
+
+    /**
+     * hash 递增
+     * @param key   键
+     * @param item  项
+     * @param delta 要增加几(大于等于0)
+     */
+    void hincr(String key, String item, long delta);
+
+    /**
+     * hash 递减
+     * @param key   键
+     * @param item  项
+     * @param delta 要减少几(大于等于0)
+     */
+    void hdecr(String key, String item, long delta);
+
+    /**
+     * 获取计数 redis 中的值加上本节点尚未写入的部分
+     * @param key 键
+     * @return 计数 不存在时为0
+     */
+    long get(String key);
+
+    /**
+     * 获取 hash 计数 redis 中的值加上本节点尚未写入的部分
+     * @param key  键
+     * @param item 项
+     * @return 计数 不存在时为0
+     */
+    long hget(String key, String item);
+
+    /**
+     * 立即写入本节点所有尚未写入的递增
+     */
+    void flush();
+}
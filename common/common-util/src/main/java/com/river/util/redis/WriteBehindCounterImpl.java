@@ -0,0 +1,485 @@
+package com.river.util.redis;
+
+import com.river.util.exception.ServiceException;
+import com.river.util.metrics.Histogram;
+import com.river.util.metrics.MetricsSource;
+import com.river.util.res.ResCodeEnum;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * create by river  2018/7/2
+ * desc: 写回计数器实现
+ * 每个键一个 LongAdder, 高并发递增同一个键时分散在多个 cell 上, 不竞争同一个变量
+ * 写入时取当前累计值 s 后减去 s, 而不是清零, 写入过程中的并发递增不会丢失
+ * 连续多个周期没有递增的键从本地移除, 移除后的几个周期内继续检查, 防止移除时正在递增的线程丢失数据
+ * 整批写入失败时累计值加回本地, 下个周期重试, 读取超时的批次可能已经写入, 重试后会重复计数;
+ * 写入前已从本地移除的计数加回到该键当前的计数上, 不会随移除的对象丢失
+ * 单个命令失败(例如键的类型不对)只记录日志
+ * 容器关闭时先在 ContextClosedEvent 中写入一次, 此时消息监听容器还没有停止, 连接池中的连接都可用
+ * 分片模式下按节点分别写入, 某个节点失败只重试该节点的计数
+ */
+@Service
+public class WriteBehindCounterImpl implements WriteBehindCounter, MetricsSource, ApplicationListener<ContextClosedEvent> {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindCounterImpl.class);
+
+    /**
+     * 连续多少个周期没有递增后从本地移除, 移除后再检查多少个周期
+     */
+    private static final int IDLE_FLUSHES = 3;
+    private static final char ITEM_SEPARATOR = '\n';
+
+    @Resource
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Resource
+    private RedisShardRouter redisShardRouter;
+
+    @Resource
+    private RedisAuditLogger redisAuditLogger;
+
+    @Autowired(required = false)
+    private NearCache nearCache;
+
+    /**
+     * 写入周期(毫秒)
+     */
+    @Value("${redis.counter.flush-interval:1000}")
+    private long flushInterval;
+
+    /**
+     * 有递增的键达到该个数时提前写入
+     */
+    @Value("${redis.counter.flush-keys:1000}")
+    private int flushKeys;
+
+    /**
+     * 每个管道最多的命令数
+     */
+    @Value("${redis.counter.batch-size:500}")
+    private int batchSize;
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+
+    /**
+     * 已从 counters 移除 仍需检查的计数, 只在写入线程中修改, 读取时 pending 也要计入
+     */
+    private final ConcurrentMap<String, Counter> removed = new ConcurrentHashMap<String, Counter>();
+
+    private final AtomicInteger dirtyKeys = new AtomicInteger();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final LongAdder increments = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder commands = new LongAdder();
+    private final LongAdder commandErrors = new LongAdder();
+    private final LongAdder flushErrors = new LongAdder();
+    private final Histogram flushLatency = new Histogram(Histogram.LATENCY_BOUNDS);
+
+    private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "redis-counter-flush");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                flush();
+            } catch (Throwable e) {
+                logger.error("计数器写入异常", e);
+            }
+        }
+    };
+
+    @PostConstruct
+    public void start() {
+        flushExecutor.scheduleWithFixedDelay(flushTask, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void onApplicationEvent(ContextClosedEvent event) {
+        flush();
+    }
+
+    /**
+     * 停止定时写入并写入剩余的递增 在 redis 连接关闭之前执行
+     */
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        flushExecutor.shutdown();
+        flushExecutor.awaitTermination(flushInterval, TimeUnit.MILLISECONDS);
+        flush();
+    }
+
+    @Override
+    public void incr(String key, long delta) {
+        checkDelta(delta);
+        add(key, key, null, delta);
+    }
+
+    @Override
+    public void decr(String key, long delta) {
+        checkDelta(delta);
+        add(key, key, null, -delta);
+    }
+
+    @Override
+    public void hincr(String key, String item, long delta) {
+        checkDelta(delta);
+        add(key + ITEM_SEPARATOR + item, key, item, delta);
+    }
+
+    @Override
+    public void hdecr(String key, String item, long delta) {
+        checkDelta(delta);
+        add(key + ITEM_SEPARATOR + item, key, item, -delta);
+    }
+
+    @Override
+    public long get(final String key) {
+        final byte[] rawKey = rawKey(key);
+        byte[] value;
+        try {
+            value = redisShardRouter.route(key).execute(new RedisCallback<byte[]>() {
+                @Override
+                public byte[] doInRedis(RedisConnection connection) throws DataAccessException {
+                    return connection.get(rawKey);
+                }
+            });
+        } catch (Exception e) {
+            logger.error("计数器读取异常 key={}", key, e);
+            throw new ServiceException(ResCodeEnum.sys_error);
+        }
+        return parse(value) + pending(key);
+    }
+
+    @Override
+    public long hget(final String key, final String item) {
+        final byte[] rawKey = rawKey(key);
+        final byte[] rawItem = rawItem(item);
+        byte[] value;
+        try {
+            value = redisShardRouter.route(key).execute(new RedisCallback<byte[]>() {
+                @Override
+                public byte[] doInRedis(RedisConnection connection) throws DataAccessException {
+                    return connection.hGet(rawKey, rawItem);
+                }
+            });
+        } catch (Exception e) {
+            logger.error("计数器读取异常 key={},item={}", key, item, e);
+            throw new ServiceException(ResCodeEnum.sys_error);
+        }
+        return parse(value) + pending(key + ITEM_SEPARATOR + item);
+    }
+
+    @Override
+    public synchronized void flush() {
+        long start = System.nanoTime();
+        flushRequested.set(false);
+        dirtyKeys.set(0);
+        List<Counter> batch = new ArrayList<Counter>();
+        List<Long> deltas = new ArrayList<Long>();
+        Iterator<Map.Entry<String, Counter>> iterator = counters.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Counter> entry = iterator.next();
+            Counter counter = entry.getValue();
+            // 先清除标记再取值, 清除之后的递增会重新设置标记, 最迟在下个周期写入
+            if (!counter.dirty.getAndSet(false)) {
+                if (++counter.idleFlushes >= IDLE_FLUSHES) {
+                    iterator.remove();
+                    counter.idleFlushes = 0;
+                    Counter previous = removed.put(entry.getKey(), counter);
+                    if (previous != null) {
+                        drain(previous, batch, deltas);
+                    }
+                }
+                continue;
+            }
+            counter.idleFlushes = 0;
+            drain(counter, batch, deltas);
+            if (batch.size() >= batchSize) {
+                write(batch, deltas);
+            }
+        }
+        Iterator<Counter> removedIterator = removed.values().iterator();
+        while (removedIterator.hasNext()) {
+            Counter counter = removedIterator.next();
+            drain(counter, batch, deltas);
+            if (++counter.idleFlushes >= IDLE_FLUSHES) {
+                removedIterator.remove();
+            }
+            if (batch.size() >= batchSize) {
+                write(batch, deltas);
+            }
+        }
+        if (!batch.isEmpty()) {
+            write(batch, deltas);
+        }
+        flushes.increment();
+        flushLatency.record(System.nanoTime() - start);
+    }
+
+    private void add(String id, String key, String item, long delta) {
+        Counter counter = counter(id, key, item);
+        counter.delta.add(delta);
+        increments.increment();
+        if (!counter.dirty.get() && counter.dirty.compareAndSet(false, true)) {
+            if (dirtyKeys.incrementAndGet() >= flushKeys && flushRequested.compareAndSet(false, true)) {
+                try {
+                    flushExecutor.execute(flushTask);
+                } catch (RejectedExecutionException e) {
+                    // 关闭过程中 由 destroy 写入
+                }
+            }
+        }
+    }
+
+    private Counter counter(String id, String key, String item) {
+        Counter counter = counters.get(id);
+        if (counter == null) {
+            Counter created = new Counter(id, key, item);
+            counter = counters.putIfAbsent(id, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * 写入失败的累计值加回本地 计数已从 counters 和 removed 中移除时加到该键当前的计数上
+     */
+    private void restore(Counter counter, long delta) {
+        Counter target = counter;
+        if (counters.get(counter.id) != counter && removed.get(counter.id) != counter) {
+            target = counter(counter.id, counter.key, counter.item);
+        }
+        target.delta.add(delta);
+        target.dirty.set(true);
+    }
+
+    /**
+     * 本地还没有写入的累计值 包括已移除但还在检查中的计数
+     */
+    private long pending(String id) {
+        Counter counter = counters.get(id);
+        Counter removedCounter = removed.get(id);
+        return (counter == null ? 0 : counter.delta.sum()) + (removedCounter == null ? 0 : removedCounter.delta.sum());
+    }
+
+    private void drain(Counter counter, List<Counter> batch, List<Long> deltas) {
+        long delta = counter.delta.sum();
+        if (delta != 0) {
+            counter.delta.add(-delta);
+            batch.add(counter);
+            deltas.add(delta);
+        }
+    }
+
+    /**
+     * 一批计数按节点分别用一个管道写入 写入后清空 batch 和 deltas
+     */
+    private void write(List<Counter> batch, List<Long> deltas) {
+        if (redisAuditLogger.isEnabled("counter.flush")) {
+            redisAuditLogger.log("计数器批量写入 count={}", batch.size());
+        }
+        Set<String> keys = new LinkedHashSet<String>();
+        if (!redisShardRouter.isSharded()) {
+            write(redisShardRouter.getTemplates().get(0), batch, deltas, keys);
+        } else {
+            List<String> batchKeys = new ArrayList<String>(batch.size());
+            for (Counter counter : batch) {
+                batchKeys.add(counter.key);
+            }
+            for (Map.Entry<RedisTemplate<String, String>, List<Integer>> group : redisShardRouter.partition(batchKeys).entrySet()) {
+                List<Counter> shardBatch = new ArrayList<Counter>(group.getValue().size());
+                List<Long> shardDeltas = new ArrayList<Long>(group.getValue().size());
+                for (Integer index : group.getValue()) {
+                    shardBatch.add(batch.get(index));
+                    shardDeltas.add(deltas.get(index));
+                }
+                write(group.getKey(), shardBatch, shardDeltas, keys);
+            }
+        }
+        invalidateNearCache(keys);
+        batch.clear();
+        deltas.clear();
+    }
+
+    /**
+     * 一个管道写入一个节点的计数 整批失败时累计值加回本地
+     *
+     * @param keys 写入成功的键
+     */
+    private void write(RedisTemplate<String, String> template, final List<Counter> batch, final List<Long> deltas,
+                       Set<String> keys) {
+        List<Object> results;
+        try {
+            results = template.execute(new RedisCallback<List<Object>>() {
+                @Override
+                public List<Object> doInRedis(RedisConnection connection) throws DataAccessException {
+                    connection.openPipeline();
+                    boolean pipelineClosed = false;
+                    try {
+                        for (int i = 0; i < batch.size(); i++) {
+                            Counter counter = batch.get(i);
+                            if (counter.item == null) {
+                                connection.incrBy(rawKey(counter.key), deltas.get(i));
+                            } else {
+                                connection.hIncrBy(rawKey(counter.key), rawItem(counter.item), deltas.get(i));
+                            }
+                        }
+                        pipelineClosed = true;
+                        return connection.closePipeline();
+                    } catch (RedisPipelineException e) {
+                        if (e.getPipelineResult() == null || e.getPipelineResult().isEmpty()) {
+                            throw e;
+                        }
+                        return e.getPipelineResult();
+                    } finally {
+                        if (!pipelineClosed) {
+                            connection.closePipeline();
+                        }
+                    }
+                }
+            });
+        } catch (Exception e) {
+            flushErrors.increment();
+            logger.error("计数器批量写入异常 下个周期重试 count={}", batch.size(), e);
+            for (int i = 0; i < batch.size(); i++) {
+                restore(batch.get(i), deltas.get(i));
+            }
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            Counter counter = batch.get(i);
+            Object result = results != null && i < results.size() ? results.get(i) : null;
+            if (result instanceof Throwable) {
+                commandErrors.increment();
+                logger.error("计数器写入失败 key={},item={},delta={}", counter.key, counter.item, deltas.get(i),
+                        (Throwable) result);
+            }
+            keys.add(counter.key);
+        }
+        commands.add(batch.size());
+    }
+
+    private void invalidateNearCache(Set<String> keys) {
+        if (nearCache == null || keys.isEmpty()) {
+            return;
+        }
+        for (String key : keys) {
+            nearCache.invalidate(key);
+        }
+        try {
+            redisTemplate.convertAndSend(nearCache.getChannel(), StringUtils.join(keys, '\n'));
+        } catch (Exception e) {
+            logger.error("本地缓存失效通知发送异常", e);
+        }
+    }
+
+    private static void checkDelta(long delta) {
+        if (delta < 0) {
+            throw new ServiceException("递增因子必须大于0");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private byte[] rawKey(String key) {
+        return ((RedisSerializer<String>) redisTemplate.getKeySerializer()).serialize(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private byte[] rawItem(String item) {
+        return ((RedisSerializer<String>) redisTemplate.getHashKeySerializer()).serialize(item);
+    }
+
+    private static long parse(byte[] value) {
+        return value == null ? 0 : Long.parseLong(new String(value, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void writeMetrics(StringBuilder out) {
+        out.append("# TYPE redis_counter_increments_total counter\n");
+        out.append("redis_counter_increments_total ").append(increments.sum()).append('\n');
+        out.append("# TYPE redis_counter_dirty_keys gauge\n");
+        out.append("redis_counter_dirty_keys ").append(dirtyKeys.get()).append('\n');
+        out.append("# TYPE redis_counter_keys gauge\n");
+        out.append("redis_counter_keys ").append(counters.size()).append('\n');
+        out.append("# TYPE redis_counter_flushes_total counter\n");
+        out.append("redis_counter_flushes_total ").append(flushes.sum()).append('\n');
+        out.append("# TYPE redis_counter_commands_total counter\n");
+        out.append("redis_counter_commands_total ").append(commands.sum()).append('\n');
+        out.append("# TYPE redis_counter_errors_total counter\n");
+        out.append("redis_counter_errors_total{type=\"command\"} ").append(commandErrors.sum()).append('\n');
+        out.append("redis_counter_errors_total{type=\"flush\"} ").append(flushErrors.sum()).append('\n');
+        out.append("# TYPE redis_counter_flush_duration_seconds histogram\n");
+        flushLatency.write(out, "redis_counter_flush_duration_seconds", "", 1e9);
+    }
+
+    private static class Counter {
+        /**
+         * counters 中的键
+         */
+        private final String id;
+        private final String key;
+        /**
+         * 字符串计数为null
+         */
+        private final String item;
+        private final LongAdder delta = new LongAdder();
+        /**
+         * 上次写入后是否有递增
+         */
+        private final AtomicBoolean dirty = new AtomicBoolean();
+        /**
+         * 连续没有递增的周期数 只在写入线程中访问
+         */
+        private int idleFlushes;
+
+        private Counter(String id, String key, String item) {
+            this.id = id;
+            this.key = key;
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.river.util.redis.codec;
+
+import org.springframework.cache.support.NullValue;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * create by river  2018/6/15
+ * desc: redis 值的序列化
+ * 格式: 1个字节的标识 + 编码内容, 标识低7位为编码方式 id, 最高位表示内容经过 deflate 压缩
+ * 字符串固定使用 StringValueCodec, 其他对象使用配置的 objectCodec
+ * 读取时兼容原有的 JDK 序列化数据(以 0xACED 开头), legacyWrite=true 时仍按 JDK 序列化写入, 用于灰度期间新老节点共存
+ * 标识未注册的数据(INCR 计数等)按 UTF-8 字符串读取
+ * 缓存的 null 标记(NullValue)固定使用 JDK 序列化, 读取时还原为同一个实例
+ */
+public class CodecRedisSerializer implements RedisSerializer<Object> {
+
+    private static final int COMPRESSED = 0x80;
+    private static final int ID_MASK = 0x7F;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final RedisValueCodec[] codecs = new RedisValueCodec[ID_MASK + 1];
+    private final RedisValueCodec stringCodec = new StringValueCodec();
+    private final RedisValueCodec jdkCodec = new JdkValueCodec();
+    private final RedisValueCodec objectCodec;
+    private final int compressThreshold;
+    private final boolean legacyWrite;
+
+    /**
+     * @param objectCodec       非字符串值的编码方式
+     * @param compressThreshold 编码后超过多少字节时压缩 小于等于0 不压缩
+     * @param legacyWrite       是否仍按原有的 JDK 序列化写入
+     */
+    public CodecRedisSerializer(RedisValueCodec objectCodec, int compressThreshold, boolean legacyWrite) {
+        this.objectCodec = objectCodec;
+        this.compressThreshold = compressThreshold;
+        this.legacyWrite = legacyWrite;
+        register(stringCodec);
+        register(jdkCodec);
+        register(objectCodec);
+    }
+
+    private void register(RedisValueCodec codec) {
+        if (codec.id() <= 0 || codec.id() > ID_MASK) {
+            throw new IllegalArgumentException("编码标识必须在1~127之间 id=" + codec.id());
+        }
+        codecs[codec.id()] = codec;
+    }
+
+    @Override
+    public byte[] serialize(Object value) {
+        if (value == null) {
+            return EMPTY;
+        }
+        if (legacyWrite) {
+            return jdkCodec.encode(value);
+        }
+        RedisValueCodec codec = value instanceof String ? stringCodec
+                : value instanceof NullValue ? jdkCodec : objectCodec;
+        byte[] body = codec.encode(value);
+        int tag = codec.id();
+        if (compressThreshold > 0 && body.length >= compressThreshold) {
+            byte[] compressed = deflate(body);
+            if (compressed.length < body.length) {
+                body = compressed;
+                tag |= COMPRESSED;
+            }
+        }
+        byte[] bytes = new byte[body.length + 1];
+        bytes[0] = (byte) tag;
+        System.arraycopy(body, 0, bytes, 1, body.length);
+        return bytes;
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (isJdkSerialized(bytes)) {
+            return jdkCodec.decode(bytes);
+        }
+        int tag = bytes[0] & 0xFF;
+        RedisValueCodec codec = codecs[tag & ID_MASK];
+        if (codec == null) {
+            /**
+             * 不是本序列化写入的数据, 例如 INCR 产生的计数或其他客户端写入的文本, 按 UTF-8 字符串返回
+             * 编码标识都是不可打印字符, 不会与文本开头冲突
+             */
+            return stringCodec.decode(bytes);
+        }
+        if (codec == stringCodec && (tag & COMPRESSED) == 0) {
+            /**
+             * 字符串直接从原数组解码, 大value不再多复制一份
+             */
+            return new String(bytes, 1, bytes.length - 1, StandardCharsets.UTF_8);
+        }
+        byte[] body;
+        if ((tag & COMPRESSED) != 0) {
+            body = inflate(bytes, 1, bytes.length - 1);
+        } else {
+            body = new byte[bytes.length - 1];
+            System.arraycopy(bytes, 1, body, 0, body.length);
+        }
+        return codec.decode(body);
+    }
+
+    /**
+     * 按流读取字符串值 返回 UTF-8 内容, 压缩的数据边读边解压
+     * 不是字符串编码的数据(JDK 序列化等)只能整体读取后反序列化
+     *
+     * @param in 序列化后的数据
+     * @return 字符串的 UTF-8 内容 数据为空时返回null
+     */
+    public InputStream decodeStream(InputStream in) throws IOException {
+        int tag = in.read();
+        if (tag < 0) {
+            return null;
+        }
+        RedisValueCodec codec = codecs[tag & ID_MASK];
+        if (codec == stringCodec) {
+            return (tag & COMPRESSED) != 0 ? new InflaterInputStream(in) : in;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(tag);
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            out.write(buffer, 0, count);
+        }
+        Object value = deserialize(out.toByteArray());
+        if (value == null) {
+            return null;
+        }
+        return new ByteArrayInputStream(value.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * JDK 序列化流以 0xACED 开头, 0xAC 的低7位(44)不作为编码标识使用
+     */
+    private boolean isJdkSerialized(byte[] bytes) {
+        return bytes.length > 1 && bytes[0] == (byte) 0xAC && bytes[1] == (byte) 0xED;
+    }
+
+    private byte[] deflate(byte[] body) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(body);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private byte[] inflate(byte[] body, int offset, int length) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(body, offset, length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length * 3);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new SerializationException("压缩数据不完整");
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new SerializationException("解压缩失败", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.river.util.redis.codec;
+
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+
+/**
+ * create by river  2018/6/15
+ * desc: JDK 序列化 与原有的 RedisTemplate 默认序列化方式相同
+ */
+public class JdkValueCodec implements RedisValueCodec {
+
+    public static final int ID = 3;
+
+    private final JdkSerializationRedisSerializer serializer = new JdkSerializationRedisSerializer();
+
+    @Override
+    public int id() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return serializer.serialize(value);
+    }
+
+    @Override
+    public Object decode(byte[] bytes) {
+        return serializer.deserialize(bytes);
+    }
+}
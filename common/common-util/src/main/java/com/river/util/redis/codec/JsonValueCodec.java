@@ -0,0 +1,42 @@
+package com.river.util.redis.codec;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.parser.ParserConfig;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * create by river  2018/6/15
+ * desc: fastjson 编码 带类型信息, 只有 acceptPackages 下的类型允许按 @type 还原
+ */
+public class JsonValueCodec implements RedisValueCodec {
+
+    public static final int ID = 2;
+
+    private final ParserConfig parserConfig = new ParserConfig();
+
+    /**
+     * @param acceptPackages 允许反序列化的包前缀
+     */
+    public JsonValueCodec(String... acceptPackages) {
+        for (String acceptPackage : acceptPackages) {
+            parserConfig.addAccept(acceptPackage);
+        }
+    }
+
+    @Override
+    public int id() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSON.toJSONBytes(value, SerializerFeature.WriteClassName);
+    }
+
+    @Override
+    public Object decode(byte[] bytes) {
+        return JSON.parseObject(new String(bytes, StandardCharsets.UTF_8), Object.class, parserConfig);
+    }
+}
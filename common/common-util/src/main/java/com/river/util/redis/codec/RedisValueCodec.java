@@ -0,0 +1,28 @@
+package com.river.util.redis.codec;
+
+/**
+ * create by river  2018/6/15
+ * desc: redis 值的编解码方式, 编码结果前会加一个字节的 id 用来在读取时选择解码方式
+ */
+public interface RedisValueCodec {
+
+    /**
+     * 编码标识 1~127 之间, 同一个 CodecRedisSerializer 中不能重复
+     * @return 标识
+     */
+    int id();
+
+    /**
+     * 编码
+     * @param value 值 不为null
+     * @return 字节
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 解码
+     * @param bytes 字节 不含 id
+     * @return 值
+     */
+    Object decode(byte[] bytes);
+}
@@ -0,0 +1,50 @@
+package com.river.util.redis.codec;
+
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * create by river  2018/6/15
+ * desc: key 和 hash 项按 UTF-8 字符串保存, 非字符串的 key(例如 @Cacheable 的参数)使用 toString
+ * legacy 为 true 时按老版本的 JDK 序列化保存, 灰度期间新老节点使用同一个物理 key
+ * 读取时两种格式都能识别(JDK 序列化以 0xAC 0xED 开头, 不是合法的 UTF-8 开头)
+ */
+public class StringKeyRedisSerializer implements RedisSerializer<Object> {
+
+    private final JdkSerializationRedisSerializer jdkSerializer = new JdkSerializationRedisSerializer();
+
+    private final boolean legacy;
+
+    public StringKeyRedisSerializer() {
+        this(false);
+    }
+
+    public StringKeyRedisSerializer(boolean legacy) {
+        this.legacy = legacy;
+    }
+
+    @Override
+    public byte[] serialize(Object key) {
+        if (key == null) {
+            return null;
+        }
+        return legacy ? jdkSerializer.serialize(key) : key.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        return isLegacy(bytes) ? jdkSerializer.deserialize(bytes) : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 是否为 JDK 序列化的 key
+     */
+    public static boolean isLegacy(byte[] bytes) {
+        return bytes != null && bytes.length > 1 && bytes[0] == (byte) 0xAC && bytes[1] == (byte) 0xED;
+    }
+}
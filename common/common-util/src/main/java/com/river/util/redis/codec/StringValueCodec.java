@@ -0,0 +1,27 @@
+package com.river.util.redis.codec;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * create by river  2018/6/15
+ * desc: 字符串直接按 UTF-8 编码
+ */
+public class StringValueCodec implements RedisValueCodec {
+
+    public static final int ID = 1;
+
+    @Override
+    public int id() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return value.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Object decode(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -6,7 +6,8 @@ package com.river.util.res;
  */
 public enum  ResCodeEnum {
     SYS_SUCCESS("000000","成功"),
-    sys_error("0000001","系统异常");
+    sys_error("0000001","系统异常"),
+    rate_limited("0000002","请求过于频繁,请稍后再试");
     private String resCode;
     private String resMsg;
 
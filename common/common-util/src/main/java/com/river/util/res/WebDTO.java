@@ -1,70 +1,337 @@
 package com.river.util.res;
 
+import com.alibaba.fastjson.serializer.SerializeConfig;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * create by river  2018/5/16
- * desc:
+ * desc: 接口返回结构
+ * 固定的5个属性按下标存放在数组中, 不再为每个响应创建哈希表, 其他 put 进来的键才放入额外的 HashMap
+ * 作为 Map 使用时行为与原来继承 HashMap 的版本一致: setXxx 等同于 put, 设置为 null 的键仍然存在
+ * 遍历顺序与原来 HashMap 的顺序一致, 序列化结果逐字节相同: 只有固定属性时为 total, data, totalPages, resCode, resMsg;
+ * 有其他键时按插入顺序和原来的容量重建一个 HashMap 取其顺序(同一个桶内的顺序取决于插入顺序)
+ * fastjson 使用 WebDTOSerializer 按固定顺序直接输出
  */
-public class WebDTO<T> extends HashMap<String,Object> {
+public class WebDTO<T> extends AbstractMap<String, Object> implements Serializable {
+
+    /**
+     * 固定属性的下标 按原 HashMap(容量16)中的桶顺序排列
+     */
+    static final int TOTAL = 0;
+    static final int DATA = 1;
+    static final int TOTAL_PAGES = 2;
+    static final int RES_CODE = 3;
+    static final int RES_MSG = 4;
+    static final String[] KEYS = {"total", "data", "totalPages", "resCode", "resMsg"};
+
+    static {
+        SerializeConfig.getGlobalInstance().put(WebDTO.class, WebDTOSerializer.INSTANCE);
+    }
 
-    private String resCode;
-    private String resMsg;
     /**
-     * 总记录数
+     * 原 HashMap 默认容量下不扩容的最大键数
      */
-    private Long total;
-    private Integer totalPages;
-    private T data;
+    private static final int DEFAULT_THRESHOLD = 12;
+
+    private final Object[] values = new Object[KEYS.length];
+    /**
+     * 已设置的固定属性 按下标的位
+     */
+    private int present;
+    /**
+     * 已设置的固定属性的插入顺序 每3位一个下标, 先插入的在低位
+     */
+    private int insertion;
+    /**
+     * 固定属性以外的键 没有时为null
+     */
+    private HashMap<String, Object> extras;
+    /**
+     * 第一次放入其他键后 记录所有键的插入顺序
+     */
+    private LinkedHashSet<String> keyOrder;
+    /**
+     * 曾经达到的最大键数 决定原 HashMap 的容量
+     */
+    private int maxSize;
 
     public String getResCode() {
-        return resCode;
+        return (String) values[RES_CODE];
 
     }
 
     public void setResCode(String resCode) {
-        this.resCode = resCode;
-        put("resCode",resCode);
+        set(RES_CODE, resCode);
     }
 
     public String getResMsg() {
-        return resMsg;
+        return (String) values[RES_MSG];
     }
 
     public void setResMsg(String resMsg) {
-        this.resMsg = resMsg;
-        put("resMsg",resMsg);
+        set(RES_MSG, resMsg);
     }
 
+    /**
+     * 作为 Map 使用时可能放入(或 JSON 解析出) Integer 等其他数值类型 按 Number 转换
+     */
     public Long getTotal() {
-        return total;
+        Number total = (Number) values[TOTAL];
+        return total == null || total instanceof Long ? (Long) total : Long.valueOf(total.longValue());
     }
 
     public void setTotal(Long total) {
-        this.total = total;
-        put("total",total);
+        set(TOTAL, total);
     }
 
     public Integer getTotalPages() {
-        return totalPages;
+        Number totalPages = (Number) values[TOTAL_PAGES];
+        return totalPages == null || totalPages instanceof Integer
+                ? (Integer) totalPages : Integer.valueOf(totalPages.intValue());
     }
 
     public void setTotalPages(Integer totalPages) {
-        this.totalPages = totalPages;
-        put("totalPages",totalPages);
+        set(TOTAL_PAGES, totalPages);
     }
 
+    @SuppressWarnings("unchecked")
     public T getData() {
-        return data;
+        return (T) values[DATA];
     }
 
     public void setData(T data) {
-        this.data = data;
-        put("data",data);
+        set(DATA, data);
     }
 
     public void setResEnum(ResCodeEnum resCodeEnum) {
         setResCode(resCodeEnum.getResCode());
         setResMsg(resCodeEnum.getResMsg());
     }
+
+    /**
+     * 固定属性的值 未设置时为null
+     */
+    Object value(int index) {
+        return values[index];
+    }
+
+    boolean isPresent(int index) {
+        return (present & (1 << index)) != 0;
+    }
+
+    /**
+     * 遍历顺序是否为固定顺序 没有其他键且原 HashMap 没有扩容
+     */
+    boolean isFixedLayout() {
+        return (extras == null || extras.isEmpty()) && maxSize <= DEFAULT_THRESHOLD;
+    }
+
+    private void set(int index, Object value) {
+        values[index] = value;
+        if (!isPresent(index)) {
+            present |= 1 << index;
+            insertion |= index << (3 * (Integer.bitCount(present) - 1));
+            if (keyOrder != null) {
+                keyOrder.add(KEYS[index]);
+            }
+            maxSize = Math.max(maxSize, size());
+        }
+    }
+
+    private void unset(int index) {
+        values[index] = null;
+        if (!isPresent(index)) {
+            return;
+        }
+        int remaining = 0;
+        int count = 0;
+        for (int i = 0; i < Integer.bitCount(present); i++) {
+            int slot = (insertion >>> (3 * i)) & 7;
+            if (slot != index) {
+                remaining |= slot << (3 * count++);
+            }
+        }
+        insertion = remaining;
+        present &= ~(1 << index);
+        if (keyOrder != null) {
+            keyOrder.remove(KEYS[index]);
+        }
+    }
+
+    private static int indexOf(Object key) {
+        if (key instanceof String) {
+            for (int i = 0; i < KEYS.length; i++) {
+                if (KEYS[i].equals(key)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int index = indexOf(key);
+        if (index >= 0) {
+            return values[index];
+        }
+        return extras == null ? null : extras.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int index = indexOf(key);
+        if (index >= 0) {
+            return isPresent(index);
+        }
+        return extras != null && extras.containsKey(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int index = indexOf(key);
+        if (index >= 0) {
+            Object old = values[index];
+            set(index, value);
+            return old;
+        }
+        if (extras == null) {
+            extras = new HashMap<String, Object>();
+        }
+        if (keyOrder == null) {
+            keyOrder = new LinkedHashSet<String>();
+            for (int i = 0; i < Integer.bitCount(present); i++) {
+                keyOrder.add(KEYS[(insertion >>> (3 * i)) & 7]);
+            }
+        }
+        keyOrder.add(key);
+        Object old = extras.put(key, value);
+        maxSize = Math.max(maxSize, size());
+        return old;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int index = indexOf(key);
+        if (index >= 0) {
+            Object old = values[index];
+            unset(index);
+            return old;
+        }
+        if (extras == null) {
+            return null;
+        }
+        keyOrder.remove(key);
+        return extras.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = null;
+        }
+        present = 0;
+        insertion = 0;
+        if (extras != null) {
+            extras.clear();
+            keyOrder.clear();
+        }
+    }
+
+    @Override
+    public int size() {
+        return Integer.bitCount(present) + (extras == null ? 0 : extras.size());
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new EntryIterator(keys());
+            }
+
+            @Override
+            public int size() {
+                return WebDTO.this.size();
+            }
+        };
+    }
+
+    /**
+     * 当前的键 按原 HashMap 的遍历顺序
+     */
+    private List<String> keys() {
+        List<String> keys = new ArrayList<String>(size());
+        if (isFixedLayout()) {
+            for (int i = 0; i < KEYS.length; i++) {
+                if (isPresent(i)) {
+                    keys.add(KEYS[i]);
+                }
+            }
+            return keys;
+        }
+        int capacity = 16;
+        while (maxSize > capacity / 4 * 3) {
+            capacity <<= 1;
+        }
+        HashMap<String, Object> all = new HashMap<String, Object>(capacity);
+        for (String key : keyOrder) {
+            all.put(key, null);
+        }
+        keys.addAll(all.keySet());
+        return keys;
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+
+        private final List<String> keys;
+        private int next;
+        private String last;
+
+        EntryIterator(List<String> keys) {
+            this.keys = keys;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < keys.size();
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = keys.get(next++);
+            final String key = last;
+            return new SimpleEntry<String, Object>(key, get(key)) {
+                @Override
+                public Object setValue(Object value) {
+                    super.setValue(value);
+                    return put(key, value);
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            WebDTO.this.remove(last);
+            last = null;
+        }
+    }
 }
@@ -0,0 +1,150 @@
+package com.river.util.res;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.serializer.JSONSerializer;
+import com.alibaba.fastjson.serializer.MapSerializer;
+import com.alibaba.fastjson.serializer.ObjectSerializer;
+import com.alibaba.fastjson.serializer.SerialContext;
+import com.alibaba.fastjson.serializer.SerializeFilterable;
+import com.alibaba.fastjson.serializer.SerializeWriter;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * create by river  2018/7/10
+ * desc: WebDTO 的 fastjson 序列化 按固定顺序直接写出属性名和值, 不经过 Map 遍历
+ * 输出与 MapSerializer 序列化原 WebDTO(HashMap) 的结果逐字节相同
+ * 使用了过滤器、格式化、输出 null 值、类名等特性, 或有固定属性以外的键时交给 MapSerializer(按 entrySet 的顺序)
+ * 只有 resCode、resMsg 的返回(ResCodeEnum 对应的错误等)预先生成 UTF-8 字节, 直接写入响应
+ */
+public class WebDTOSerializer extends SerializeFilterable implements ObjectSerializer {
+
+    public static final WebDTOSerializer INSTANCE = new WebDTOSerializer();
+
+    private static final char[][] FIELD_NAMES = new char[WebDTO.KEYS.length][];
+
+    static {
+        for (int i = 0; i < WebDTO.KEYS.length; i++) {
+            FIELD_NAMES[i] = ("\"" + WebDTO.KEYS[i] + "\":").toCharArray();
+        }
+    }
+
+    /**
+     * 需要交给 MapSerializer 的特性
+     */
+    private static final int MAP_FEATURES = SerializerFeature.of(new SerializerFeature[]{
+            SerializerFeature.UseSingleQuotes, SerializerFeature.PrettyFormat, SerializerFeature.WriteClassName,
+            SerializerFeature.MapSortField, SerializerFeature.WriteNonStringValueAsString})
+            | SerializerFeature.WRITE_MAP_NULL_FEATURES;
+
+    private static final int CONSTANT_MASK = (1 << WebDTO.RES_CODE) | (1 << WebDTO.RES_MSG);
+
+    /**
+     * 与 ResCodeEnum 一一对应的预生成结果 ResCodeEnum 的内容可以修改, 使用时核对编码和信息
+     */
+    private final Payload[] payloads = new Payload[ResCodeEnum.values().length];
+
+    private WebDTOSerializer() {
+    }
+
+    /**
+     * 只包含 resCode、resMsg 且与某个 ResCodeEnum 相同时 返回预先生成的 UTF-8 JSON, 否则返回null
+     * 返回的数组是共享的, 不能修改
+     */
+    public byte[] prerendered(WebDTO<?> dto) {
+        if (dto.getClass() != WebDTO.class || !dto.isFixedLayout() || !isConstant(dto)) {
+            return null;
+        }
+        String code = (String) dto.value(WebDTO.RES_CODE);
+        String msg = (String) dto.value(WebDTO.RES_MSG);
+        for (ResCodeEnum resCodeEnum : ResCodeEnum.values()) {
+            if (resCodeEnum.getResCode() != null && resCodeEnum.getResCode().equals(code)
+                    && resCodeEnum.getResMsg() != null && resCodeEnum.getResMsg().equals(msg)) {
+                return payload(resCodeEnum);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * ResCodeEnum 对应的预先生成的 UTF-8 JSON 返回的数组是共享的, 不能修改
+     */
+    public byte[] payload(ResCodeEnum resCodeEnum) {
+        Payload payload = payloads[resCodeEnum.ordinal()];
+        if (payload == null || payload.code != resCodeEnum.getResCode() || payload.msg != resCodeEnum.getResMsg()) {
+            WebDTO<Object> dto = new WebDTO<Object>();
+            dto.setResEnum(resCodeEnum);
+            payload = new Payload(dto.getResCode(), dto.getResMsg(),
+                    JSON.toJSONString(dto).getBytes(StandardCharsets.UTF_8));
+            payloads[resCodeEnum.ordinal()] = payload;
+        }
+        return payload.bytes;
+    }
+
+    private boolean isConstant(WebDTO<?> dto) {
+        for (int i = 0; i < WebDTO.KEYS.length; i++) {
+            boolean expected = (CONSTANT_MASK & (1 << i)) != 0;
+            if (dto.isPresent(i) != expected || (expected && !(dto.value(i) instanceof String))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void write(JSONSerializer serializer, Object object, Object fieldName, Type fieldType, int features)
+            throws IOException {
+        SerializeWriter out = serializer.out;
+        WebDTO<?> dto = (WebDTO<?>) object;
+        if (!dto.isFixedLayout() || !writeDirect(serializer) || out.isEnabled(MAP_FEATURES)
+                || !out.isEnabled(SerializerFeature.QuoteFieldNames)) {
+            MapSerializer.instance.write(serializer, object, fieldName, fieldType, features);
+            return;
+        }
+        if (serializer.containsReference(object)) {
+            serializer.writeReference(object);
+            return;
+        }
+        SerialContext parent = serializer.getContext();
+        serializer.setContext(parent, object, fieldName, 0);
+        try {
+            out.write('{');
+            boolean first = true;
+            for (int i = 0; i < FIELD_NAMES.length; i++) {
+                Object value = dto.value(i);
+                if (value == null) {
+                    continue;
+                }
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                out.write(FIELD_NAMES[i], 0, FIELD_NAMES[i].length);
+                if (value instanceof String) {
+                    out.writeString((String) value);
+                } else {
+                    serializer.writeWithFieldName(value, WebDTO.KEYS[i]);
+                }
+            }
+            out.write('}');
+        } finally {
+            serializer.setContext(parent);
+        }
+    }
+
+    private static class Payload {
+
+        private final String code;
+        private final String msg;
+        private final byte[] bytes;
+
+        Payload(String code, String msg, byte[] bytes) {
+            this.code = code;
+            this.msg = msg;
+            this.bytes = bytes;
+        }
+    }
+}
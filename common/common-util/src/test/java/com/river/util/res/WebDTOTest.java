@@ -0,0 +1,287 @@
+package com.river.util.res;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * create by river  2018/7/10
+ * desc: WebDTO 与原来继承 HashMap 的版本 fastjson 序列化结果逐字节相同
+ * LegacyWebDTO 为改动前的实现, 两边执行相同的操作后比较遍历顺序和序列化结果
+ */
+public class WebDTOTest {
+
+    private static final int SETTERS = 5;
+
+    @Test
+    public void everySetterOrder() {
+        int[] order = {0, 1, 2, 3, 4};
+        do {
+            for (int nullAt = -1; nullAt < SETTERS; nullAt++) {
+                LegacyWebDTO<Object> legacy = new LegacyWebDTO<Object>();
+                WebDTO<Object> dto = new WebDTO<Object>();
+                for (int setter : order) {
+                    set(legacy, dto, setter, setter == nullAt);
+                }
+                assertSame(Arrays.toString(order) + " null=" + nullAt, legacy, dto);
+            }
+        } while (nextPermutation(order));
+    }
+
+    @Test
+    public void resEnumOnly() {
+        for (ResCodeEnum resCodeEnum : ResCodeEnum.values()) {
+            LegacyWebDTO<Object> legacy = new LegacyWebDTO<Object>();
+            WebDTO<Object> dto = new WebDTO<Object>();
+            legacy.setResEnum(resCodeEnum);
+            dto.setResEnum(resCodeEnum);
+            assertSame(resCodeEnum.name(), legacy, dto);
+        }
+    }
+
+    @Test
+    public void extraKeys() {
+        LegacyWebDTO<Object> legacy = new LegacyWebDTO<Object>();
+        WebDTO<Object> dto = new WebDTO<Object>();
+        put(legacy, dto, "rows", Arrays.asList(1, 2, 3));
+        set(legacy, dto, 3, false);
+        put(legacy, dto, "extra", "值");
+        set(legacy, dto, 1, false);
+        put(legacy, dto, "total", 7);
+        put(legacy, dto, "flag", null);
+        set(legacy, dto, 4, false);
+        assertSame("extra", legacy, dto);
+
+        put(legacy, dto, "extra", "覆盖");
+        put(legacy, dto, "resCode", "1");
+        assertSame("overwrite", legacy, dto);
+    }
+
+    @Test
+    public void remove() {
+        LegacyWebDTO<Object> legacy = new LegacyWebDTO<Object>();
+        WebDTO<Object> dto = new WebDTO<Object>();
+        for (int setter = 0; setter < SETTERS; setter++) {
+            set(legacy, dto, setter, false);
+        }
+        remove(legacy, dto, "total");
+        remove(legacy, dto, "missing");
+        assertSame("fixed", legacy, dto);
+
+        put(legacy, dto, "extra", 1);
+        put(legacy, dto, "other", 2);
+        remove(legacy, dto, "extra");
+        remove(legacy, dto, "data");
+        assertSame("extra removed", legacy, dto);
+
+        set(legacy, dto, 0, false);
+        put(legacy, dto, "extra", 3);
+        assertSame("put back", legacy, dto);
+
+        remove(legacy, dto, "extra");
+        remove(legacy, dto, "other");
+        assertSame("only fixed", legacy, dto);
+
+        legacy.clear();
+        dto.clear();
+        set(legacy, dto, 4, false);
+        set(legacy, dto, 3, false);
+        assertSame("clear", legacy, dto);
+    }
+
+    @Test
+    public void growPastDefaultCapacity() {
+        LegacyWebDTO<Object> legacy = new LegacyWebDTO<Object>();
+        WebDTO<Object> dto = new WebDTO<Object>();
+        set(legacy, dto, 3, false);
+        set(legacy, dto, 4, false);
+        for (int i = 0; i < 30; i++) {
+            put(legacy, dto, "key" + i, i);
+            set(legacy, dto, i % SETTERS, false);
+            assertSame("grow " + i, legacy, dto);
+        }
+        // 原 HashMap 删除后不缩容
+        for (int i = 0; i < 30; i++) {
+            remove(legacy, dto, "key" + i);
+            assertSame("shrink " + i, legacy, dto);
+        }
+        set(legacy, dto, 1, false);
+        assertSame("fixed after grow", legacy, dto);
+    }
+
+    @Test
+    public void removeAfterEachPeakSize() {
+        for (int peak = SETTERS; peak <= 26; peak++) {
+            LegacyWebDTO<Object> legacy = new LegacyWebDTO<Object>();
+            WebDTO<Object> dto = new WebDTO<Object>();
+            for (int setter = 0; setter < SETTERS; setter++) {
+                set(legacy, dto, setter, false);
+            }
+            for (int i = SETTERS; i < peak; i++) {
+                put(legacy, dto, "key" + i, i);
+            }
+            assertSame("peak " + peak, legacy, dto);
+            for (int i = SETTERS; i < peak; i++) {
+                remove(legacy, dto, "key" + i);
+            }
+            assertSame("peak " + peak + " removed", legacy, dto);
+        }
+    }
+
+    private static void set(LegacyWebDTO<Object> legacy, WebDTO<Object> dto, int setter, boolean nullValue) {
+        switch (setter) {
+            case 0:
+                Long total = nullValue ? null : 12L;
+                legacy.setTotal(total);
+                dto.setTotal(total);
+                break;
+            case 1:
+                Object data = nullValue ? null : data();
+                legacy.setData(data);
+                dto.setData(data);
+                break;
+            case 2:
+                Integer totalPages = nullValue ? null : 2;
+                legacy.setTotalPages(totalPages);
+                dto.setTotalPages(totalPages);
+                break;
+            case 3:
+                String resCode = nullValue ? null : ResCodeEnum.SYS_SUCCESS.getResCode();
+                legacy.setResCode(resCode);
+                dto.setResCode(resCode);
+                break;
+            default:
+                String resMsg = nullValue ? null : "成功\"\\\n";
+                legacy.setResMsg(resMsg);
+                dto.setResMsg(resMsg);
+                break;
+        }
+    }
+
+    private static Object data() {
+        Map<String, Object> row = new LinkedHashMap<String, Object>();
+        row.put("id", 1L);
+        row.put("name", "名称");
+        row.put("tags", Arrays.asList("a", null, "c"));
+        List<Object> rows = new ArrayList<Object>();
+        rows.add(row);
+        rows.add(null);
+        return rows;
+    }
+
+    private static void put(LegacyWebDTO<Object> legacy, WebDTO<Object> dto, String key, Object value) {
+        assertEquals(key, legacy.put(key, value), dto.put(key, value));
+    }
+
+    private static void remove(LegacyWebDTO<Object> legacy, WebDTO<Object> dto, String key) {
+        assertEquals(key, legacy.remove(key), dto.remove(key));
+    }
+
+    private static void assertSame(String message, LegacyWebDTO<Object> legacy, WebDTO<Object> dto) {
+        assertEquals(message, new ArrayList<String>(legacy.keySet()), new ArrayList<String>(dto.keySet()));
+        assertEquals(message, legacy.size(), dto.size());
+        assertEquals(message, JSON.toJSONString(legacy), JSON.toJSONString(dto));
+        assertArrayEquals(message, JSON.toJSONBytes(legacy), JSON.toJSONBytes(dto));
+        assertEquals(message, JSON.toJSONString(legacy, SerializerFeature.WriteMapNullValue),
+                JSON.toJSONString(dto, SerializerFeature.WriteMapNullValue));
+        assertEquals(message, JSON.toJSONString(legacy, SerializerFeature.DisableCircularReferenceDetect),
+                JSON.toJSONString(dto, SerializerFeature.DisableCircularReferenceDetect));
+    }
+
+    private static boolean nextPermutation(int[] values) {
+        int i = values.length - 2;
+        while (i >= 0 && values[i] >= values[i + 1]) {
+            i--;
+        }
+        if (i < 0) {
+            return false;
+        }
+        int j = values.length - 1;
+        while (values[j] <= values[i]) {
+            j--;
+        }
+        swap(values, i, j);
+        for (int left = i + 1, right = values.length - 1; left < right; left++, right--) {
+            swap(values, left, right);
+        }
+        return true;
+    }
+
+    private static void swap(int[] values, int i, int j) {
+        int tmp = values[i];
+        values[i] = values[j];
+        values[j] = tmp;
+    }
+
+    /**
+     * 改动前的 WebDTO
+     */
+    private static class LegacyWebDTO<T> extends HashMap<String, Object> {
+
+        private String resCode;
+        private String resMsg;
+        private Long total;
+        private Integer totalPages;
+        private T data;
+
+        public String getResCode() {
+            return resCode;
+        }
+
+        public void setResCode(String resCode) {
+            this.resCode = resCode;
+            put("resCode", resCode);
+        }
+
+        public String getResMsg() {
+            return resMsg;
+        }
+
+        public void setResMsg(String resMsg) {
+            this.resMsg = resMsg;
+            put("resMsg", resMsg);
+        }
+
+        public Long getTotal() {
+            return total;
+        }
+
+        public void setTotal(Long total) {
+            this.total = total;
+            put("total", total);
+        }
+
+        public Integer getTotalPages() {
+            return totalPages;
+        }
+
+        public void setTotalPages(Integer totalPages) {
+            this.totalPages = totalPages;
+            put("totalPages", totalPages);
+        }
+
+        public T getData() {
+            return data;
+        }
+
+        public void setData(T data) {
+            this.data = data;
+            put("data", data);
+        }
+
+        public void setResEnum(ResCodeEnum resCodeEnum) {
+            setResCode(resCodeEnum.getResCode());
+            setResMsg(resCodeEnum.getResMsg());
+        }
+    }
+}
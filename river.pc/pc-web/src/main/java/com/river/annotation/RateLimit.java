@@ -0,0 +1,60 @@
+package com.river.annotation;
+
+import com.river.util.redis.RateLimitMode;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * create by river  2018/6/27
+ * desc: 接口限流 用在 com.river.controller 下的方法上, 超过限制时返回 rate_limited
+ * <pre>
+ * &#64;RateLimit(limit = 100, period = 1, unit = TimeUnit.SECONDS, dimension = RateLimit.Dimension.IP)
+ * </pre>
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface RateLimit {
+
+    /**
+     * 限流的键 默认为 类名.方法名
+     */
+    String key() default "";
+
+    /**
+     * 每个周期允许的次数
+     */
+    long limit();
+
+    /**
+     * 周期
+     */
+    long period() default 1;
+
+    TimeUnit unit() default TimeUnit.SECONDS;
+
+    RateLimitMode mode() default RateLimitMode.TOKEN_BUCKET;
+
+    /**
+     * 令牌桶容量 默认与 limit 相同
+     */
+    long burst() default 0;
+
+    Dimension dimension() default Dimension.GLOBAL;
+
+    enum Dimension {
+        /**
+         * 所有调用方共用一个限制
+         */
+        GLOBAL,
+        /**
+         * 按客户端 ip 分别限制
+         */
+        IP
+    }
+}
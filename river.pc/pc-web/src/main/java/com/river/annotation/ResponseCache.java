@@ -0,0 +1,48 @@
+package com.river.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * create by river  2018/7/12
+ * desc: 接口响应缓存 用在 com.river.controller 下的 GET 方法上, 缓存输出的完整响应内容
+ * 缓存键由 请求路径、全部请求参数 和 headers 中指定的请求头组成, 命中时不再执行 controller,
+ * 请求带 If-None-Match 且与缓存的 ETag 一致时返回 304
+ * 只缓存 controller 没有抛出异常且状态为 200 的文本响应, 异步接口(Callable、DeferredResult 等)不缓存
+ * <pre>
+ * &#64;ResponseCache(ttl = 300, tags = {"user:{id}"}, headers = {"Accept-Language"})
+ * </pre>
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface ResponseCache {
+
+    /**
+     * 缓存名 默认为 类名.方法名
+     */
+    String key() default "";
+
+    /**
+     * 缓存时间(秒)
+     */
+    long ttl() default 60;
+
+    /**
+     * 参与缓存键的请求头
+     */
+    String[] headers() default {};
+
+    /**
+     * 标签 用于按标签失效(ResponseCacheEvict), {name} 替换为同名的路径变量或请求参数
+     */
+    String[] tags() default {};
+
+    /**
+     * 是否使用本地缓存 需开启 web.response-cache.local.enabled
+     */
+    boolean local() default false;
+}
@@ -0,0 +1,23 @@
+package com.river.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * create by river  2018/7/12
+ * desc: 方法正常返回后 失效带有指定标签的响应缓存, 用在 com.river.controller 下修改数据的方法上
+ * 标签中的 {name} 替换为同名的路径变量或请求参数, 其他地方可以直接调用 ResponseCacheManager.evict
+ * <pre>
+ * &#64;ResponseCacheEvict(tags = {"user:{id}"})
+ * </pre>
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface ResponseCacheEvict {
+
+    String[] tags();
+}
@@ -0,0 +1,27 @@
+package com.river.config;
+
+import com.river.handler.RequestMetricsInterceptor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import javax.annotation.Resource;
+
+/**
+ * create by river  2018/7/13
+ * desc: 注册 RequestMetricsInterceptor 排在其他拦截器之前, 响应缓存命中的请求同样计入路由的处理中请求数
+ */
+@Configuration
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class RequestMetricsConfig extends WebMvcConfigurerAdapter {
+
+    @Resource
+    private RequestMetricsInterceptor requestMetricsInterceptor;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(requestMetricsInterceptor);
+    }
+}
@@ -0,0 +1,47 @@
+package com.river.config;
+
+import com.river.handler.ResponseCacheInterceptor;
+import com.river.handler.ResponseCacheManager;
+import com.river.util.redis.NearCacheInvalidationListener;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import javax.annotation.Resource;
+
+/**
+ * create by river  2018/7/12
+ * desc: 接口响应缓存 注册 ResponseCacheInterceptor, 开启本地缓存时订阅其他节点的失效通知
+ */
+@Configuration
+public class ResponseCacheConfig extends WebMvcConfigurerAdapter {
+
+    @Resource
+    private ResponseCacheInterceptor responseCacheInterceptor;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(responseCacheInterceptor);
+    }
+
+    /**
+     * 订阅其他节点的响应缓存本地失效通知
+     */
+    @Bean
+    @ConditionalOnProperty(name = "web.response-cache.local.enabled", havingValue = "true")
+    public RedisMessageListenerContainer responseCacheListenerContainer(RedisConnectionFactory factory,
+                                                                        ResponseCacheManager responseCacheManager,
+                                                                        RedisTemplate<String, String> redisTemplate) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(factory);
+        container.addMessageListener(new NearCacheInvalidationListener(responseCacheManager.getLocalCache(),
+                redisTemplate.getValueSerializer()), new ChannelTopic(responseCacheManager.getLocalCache().getChannel()));
+        return container;
+    }
+}
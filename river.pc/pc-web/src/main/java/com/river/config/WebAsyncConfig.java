@@ -0,0 +1,65 @@
+package com.river.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * create by river  2018/7/11
+ * desc: 异步 controller 的执行线程池 返回 Callable/WebAsyncTask 的接口在该线程池中执行, 释放 servlet 线程
+ * 返回 CompletableFuture/DeferredResult 的接口由业务自己的线程完成, 不占用该线程池
+ * 线程数和队列都有上限, 队列满时由 servlet 线程直接执行(退化为同步), 不丢弃请求
+ * 超时时间使用 spring.mvc.async.request-timeout
+ */
+@Configuration
+public class WebAsyncConfig extends WebMvcConfigurerAdapter {
+
+    /**
+     * 线程数
+     */
+    @Value("${web.async.threads:32}")
+    private int threads;
+
+    /**
+     * 等待队列长度
+     */
+    @Value("${web.async.queue-capacity:256}")
+    private int queueCapacity;
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(webAsyncExecutor());
+    }
+
+    @Bean
+    public WebAsyncMetrics webAsyncMetrics() {
+        return new WebAsyncMetrics();
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor webAsyncExecutor() {
+        final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setThreadNamePrefix("web-async-");
+        final RejectedExecutionHandler callerRuns = new ThreadPoolExecutor.CallerRunsPolicy();
+        final WebAsyncMetrics metrics = webAsyncMetrics();
+        executor.setRejectedExecutionHandler(new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable runnable, ThreadPoolExecutor pool) {
+                metrics.recordCallerRuns();
+                callerRuns.rejectedExecution(runnable, pool);
+            }
+        });
+        metrics.setExecutor(executor, queueCapacity);
+        return executor;
+    }
+}
@@ -0,0 +1,56 @@
+package com.river.config;
+
+import com.river.util.metrics.MetricsSource;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * create by river  2018/7/11
+ * desc: 异步 controller 线程池指标 队列深度、活动线程数、完成数和队列满时由 servlet 线程执行的次数
+ */
+public class WebAsyncMetrics implements MetricsSource {
+
+    private final LongAdder callerRuns = new LongAdder();
+
+    private volatile ThreadPoolTaskExecutor executor;
+    private volatile int queueCapacity;
+
+    void setExecutor(ThreadPoolTaskExecutor executor, int queueCapacity) {
+        this.executor = executor;
+        this.queueCapacity = queueCapacity;
+    }
+
+    void recordCallerRuns() {
+        callerRuns.increment();
+    }
+
+    @Override
+    public void writeMetrics(StringBuilder out) {
+        if (executor == null) {
+            return;
+        }
+        /**
+         * 线程池在 bean 初始化(afterPropertiesSet)时创建, 每次从 executor 取当前的线程池
+         */
+        ThreadPoolExecutor pool;
+        try {
+            pool = executor.getThreadPoolExecutor();
+        } catch (IllegalStateException e) {
+            return;
+        }
+        out.append("# TYPE web_async_queue_depth gauge\n");
+        out.append("web_async_queue_depth ").append(pool.getQueue().size()).append('\n');
+        out.append("# TYPE web_async_queue_capacity gauge\n");
+        out.append("web_async_queue_capacity ").append(queueCapacity).append('\n');
+        out.append("# TYPE web_async_active_threads gauge\n");
+        out.append("web_async_active_threads ").append(pool.getActiveCount()).append('\n');
+        out.append("# TYPE web_async_pool_threads gauge\n");
+        out.append("web_async_pool_threads ").append(pool.getPoolSize()).append('\n');
+        out.append("# TYPE web_async_completed_total counter\n");
+        out.append("web_async_completed_total ").append(pool.getCompletedTaskCount()).append('\n');
+        out.append("# TYPE web_async_caller_runs_total counter\n");
+        out.append("web_async_caller_runs_total ").append(callerRuns.sum()).append('\n');
+    }
+}
@@ -0,0 +1,36 @@
+package com.river.controller;
+
+import com.river.util.redis.HotKey;
+import com.river.util.redis.HotKeyDetector;
+import com.river.util.res.ResCodeEnum;
+import com.river.util.res.WebDTO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * create by river  2018/7/3
+ * desc: 当前的热点 key 未开启 redis.hot-key.enabled 时返回空列表
+ */
+@Controller
+public class HotKeyController {
+
+    @Autowired(required = false)
+    private HotKeyDetector hotKeyDetector;
+
+    @RequestMapping(value = "/hot-keys", method = RequestMethod.GET)
+    @ResponseBody
+    public WebDTO<List<HotKey>> hotKeys() {
+        List<HotKey> hotKeys = hotKeyDetector == null ? Collections.<HotKey>emptyList() : hotKeyDetector.getHotKeys();
+        WebDTO<List<HotKey>> dto = new WebDTO<List<HotKey>>();
+        dto.setResEnum(ResCodeEnum.SYS_SUCCESS);
+        dto.setTotal((long) hotKeys.size());
+        dto.setData(hotKeys);
+        return dto;
+    }
+}
@@ -0,0 +1,31 @@
+package com.river.controller;
+
+import com.river.util.metrics.MetricsSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.List;
+
+/**
+ * create by river  2018/6/20
+ * desc: Prometheus 文本格式的指标接口
+ */
+@Controller
+public class MetricsController {
+
+    @Autowired
+    private List<MetricsSource> metricsSources;
+
+    @RequestMapping(value = "/metrics", method = RequestMethod.GET, produces = "text/plain; version=0.0.4; charset=utf-8")
+    @ResponseBody
+    public String metrics() {
+        StringBuilder out = new StringBuilder(16384);
+        for (MetricsSource metricsSource : metricsSources) {
+            metricsSource.writeMetrics(out);
+        }
+        return out.toString();
+    }
+}
@@ -1,11 +1,16 @@
 package com.river.controller;
 
+import com.river.annotation.ResponseCache;
+import com.river.annotation.ResponseCacheEvict;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import java.util.concurrent.Callable;
+
 /**
  * create by river  2018/5/14
  * desc:
@@ -22,4 +27,42 @@ public class TestController {
 
         return "hello test";
     }
+
+    /**
+     * 响应缓存示例 同样的参数 60 秒内直接返回缓存的内容
+     */
+    @RequestMapping(value = "/test-cache", method = RequestMethod.GET)
+    @ResponseBody
+    @ResponseCache(ttl = 60, tags = {"test:{name}"})
+    public String testCache(String name) {
+        logger.info("hello test cache");
+
+        return "hello " + name;
+    }
+
+    /**
+     * 响应缓存失效示例
+     */
+    @RequestMapping(value = "/test-cache/evict", method = RequestMethod.POST)
+    @ResponseBody
+    @ResponseCacheEvict(tags = {"test:{name}"})
+    public String testCacheEvict(String name) {
+        return "evicted " + name;
+    }
+
+    /**
+     * 异步接口示例 在 web-async 线程池中执行, 请求线程立即释放
+     */
+    @RequestMapping("/test-async")
+    @ResponseBody
+    public Callable<String> testAsync() {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                logger.info("hello test async");
+
+                return "hello test async";
+            }
+        };
+    }
 }
@@ -0,0 +1,77 @@
+package com.river.handler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.annotation.Resource;
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * create by river  2018/7/11
+ * desc: 异步接口的异常转换为 WebDTO 返回结构
+ * Callable 抛出异常、CompletableFuture 异常完成、DeferredResult.setErrorResult 或超时后, 异常在异步派发时抛出,
+ * 不经过 WebControllerExceptionHandler 切面, 在这里按与切面相同的方式转换
+ * 异步接口在返回异步结果之前抛出的异常也在这里转换
+ * 只处理 com.river.controller 下的 @ResponseBody 方法, 其他异常交给后续的处理器
+ */
+@Component
+public class AsyncControllerExceptionResolver implements HandlerExceptionResolver, Ordered {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncControllerExceptionResolver.class);
+
+    @Resource
+    private WebDTOReturnValueHandler webDTOReturnValueHandler;
+
+    @Override
+    public ModelAndView resolveException(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                         Exception ex) {
+        if (!(handler instanceof HandlerMethod) || response.isCommitted()) {
+            return null;
+        }
+        MethodParameter returnType = ((HandlerMethod) handler).getReturnType();
+        if (!WebDTOReturnValueHandler.isControllerResponseBody(returnType)
+                || (request.getDispatcherType() != DispatcherType.ASYNC && !isAsyncType(returnType.getParameterType()))) {
+            return null;
+        }
+        Throwable cause = ex;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        try {
+            webDTOReturnValueHandler.write(WebControllerExceptionHandler.errorDTO(cause), response);
+        } catch (IOException e) {
+            logger.warn("异步接口异常结果写入失败", e);
+        }
+        return new ModelAndView();
+    }
+
+    /**
+     * 是否为异步返回类型
+     */
+    static boolean isAsyncType(Class<?> type) {
+        return Callable.class.isAssignableFrom(type) || WebAsyncTask.class.isAssignableFrom(type)
+                || DeferredResult.class.isAssignableFrom(type) || CompletionStage.class.isAssignableFrom(type)
+                || ListenableFuture.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE + 1;
+    }
+}
@@ -0,0 +1,133 @@
+package com.river.handler;
+
+import org.springframework.util.DigestUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * create by river  2018/7/12
+ * desc: 缓存的响应 redis 中的格式为 过期时间\nETag\nContent-Type\n字符集\n响应内容
+ * 响应内容按响应的字符集解码后保存, 不能按该字符集解码的内容(二进制)不缓存
+ */
+class CachedResponse {
+
+    private final long expireAt;
+    private final String etag;
+    private final String contentType;
+    private final Charset charset;
+    private final byte[] body;
+    /**
+     * 解码后的响应内容 从 redis 读取时为null
+     */
+    private final String text;
+
+    private CachedResponse(long expireAt, String etag, String contentType, Charset charset, byte[] body, String text) {
+        this.expireAt = expireAt;
+        this.etag = etag;
+        this.contentType = contentType;
+        this.charset = charset;
+        this.body = body;
+        this.text = text;
+    }
+
+    /**
+     * 由输出的响应内容生成
+     *
+     * @param body        响应内容
+     * @param contentType 响应的 Content-Type
+     * @param charset     响应的字符集
+     * @param ttl         缓存时间(秒)
+     * @return 没有 Content-Type 或内容不是文本时返回null
+     */
+    static CachedResponse of(byte[] body, String contentType, String charset, long ttl) {
+        if (contentType == null || charset == null || !Charset.isSupported(charset)) {
+            return null;
+        }
+        Charset cs = Charset.forName(charset);
+        String text;
+        try {
+            text = cs.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT).decode(ByteBuffer.wrap(body)).toString();
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+        return new CachedResponse(System.currentTimeMillis() + ttl * 1000,
+                "\"" + DigestUtils.md5DigestAsHex(body) + "\"", contentType, cs, body, text);
+    }
+
+    /**
+     * 解析 redis 中保存的内容
+     *
+     * @return 格式不正确时返回null
+     */
+    static CachedResponse decode(String value) {
+        int[] ends = new int[4];
+        int start = 0;
+        for (int i = 0; i < ends.length; i++) {
+            ends[i] = value.indexOf('\n', start);
+            if (ends[i] < 0) {
+                return null;
+            }
+            start = ends[i] + 1;
+        }
+        String charset = value.substring(ends[2] + 1, ends[3]);
+        if (!Charset.isSupported(charset)) {
+            return null;
+        }
+        Charset cs = Charset.forName(charset);
+        return new CachedResponse(Long.parseLong(value.substring(0, ends[0])), value.substring(ends[0] + 1, ends[1]),
+                value.substring(ends[1] + 1, ends[2]), cs, value.substring(ends[3] + 1).getBytes(cs), null);
+    }
+
+    String encode() {
+        return new StringBuilder(body.length + 128).append(expireAt).append('\n').append(etag).append('\n')
+                .append(contentType).append('\n').append(charset.name()).append('\n')
+                .append(text != null ? text : new String(body, charset)).toString();
+    }
+
+    boolean isExpired() {
+        return expireAt <= System.currentTimeMillis();
+    }
+
+    /**
+     * 写入响应 If-None-Match 与 ETag 一致时返回 304
+     *
+     * @return 是否返回了 304
+     */
+    boolean write(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setHeader("ETag", etag);
+        if (matches(request.getHeader("If-None-Match"))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+        response.setContentType(contentType);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+        return false;
+    }
+
+    /**
+     * If-None-Match 中的任一 ETag 与当前一致(忽略弱校验前缀 W/)或为 *
+     */
+    private boolean matches(String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,117 @@
+package com.river.handler;
+
+import com.river.annotation.RateLimit;
+import com.river.util.exception.ServiceException;
+import com.river.util.redis.RateLimiter;
+import com.river.util.res.ResCodeEnum;
+import org.apache.commons.lang3.StringUtils;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * create by river  2018/6/27
+ * desc: 接口限流切面 在 WebControllerExceptionHandler 之内执行, 被限流时抛出的 ServiceException 由其转换为返回结果
+ */
+@Component
+@Aspect
+@Order(2)
+public class RateLimitHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(RateLimitHandler.class);
+
+    @Resource
+    private RateLimiter rateLimiter;
+
+    /**
+     * 可信的反向代理地址 只有来自这些地址的请求才使用 X-Forwarded-For
+     */
+    private Set<String> trustedProxies = Collections.emptySet();
+
+    @Value("${web.rate-limit.trusted-proxies:}")
+    public void setTrustedProxies(String[] trustedProxies) {
+        Set<String> proxies = new HashSet<String>();
+        for (String proxy : trustedProxies) {
+            if (StringUtils.isNotBlank(proxy)) {
+                proxies.add(proxy.trim());
+            }
+        }
+        this.trustedProxies = proxies;
+    }
+
+    @Pointcut("execution(* com.river.controller..*.*(..))")
+    public void controllerPoint() {
+
+    }
+
+    @Around("controllerPoint() && @annotation(rateLimit)")
+    public Object doRateLimit(ProceedingJoinPoint proceedingJoinPoint, RateLimit rateLimit) throws Throwable {
+        String key = StringUtils.isBlank(rateLimit.key())
+                ? proceedingJoinPoint.getSignature().getDeclaringType().getSimpleName() + "." + proceedingJoinPoint.getSignature().getName()
+                : rateLimit.key();
+        ServletRequestAttributes attributes = currentRequest();
+        if (rateLimit.dimension() == RateLimit.Dimension.IP && attributes != null) {
+            key = key + ":" + clientIp(attributes.getRequest());
+        }
+        long wait = rateLimiter.tryAcquire(key, rateLimit.mode(), rateLimit.limit(),
+                rateLimit.unit().toMillis(rateLimit.period()), rateLimit.burst());
+        if (wait > 0) {
+            logger.warn("接口限流 key={},wait={} ms", key, wait);
+            if (attributes != null && attributes.getResponse() != null) {
+                HttpServletResponse response = attributes.getResponse();
+                response.setHeader("Retry-After", String.valueOf((wait + 999) / 1000));
+            }
+            throw new ServiceException(ResCodeEnum.rate_limited);
+        }
+        return proceedingJoinPoint.proceed();
+    }
+
+    private ServletRequestAttributes currentRequest() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        return attributes instanceof ServletRequestAttributes ? (ServletRequestAttributes) attributes : null;
+    }
+
+    /**
+     * 客户端地址 X-Forwarded-For 可以由客户端伪造, 只有直接连接的地址是可信代理时才使用,
+     * 从右向左跳过可信代理, 取第一个不可信的地址; 全部是可信代理时取最左边的地址
+     */
+    private String clientIp(HttpServletRequest request) {
+        String remote = request.getRemoteAddr();
+        if (!trustedProxies.contains(remote)) {
+            return remote;
+        }
+        String forwarded = request.getHeader("X-Forwarded-For");
+        if (StringUtils.isBlank(forwarded)) {
+            return remote;
+        }
+        String[] hops = forwarded.split(",");
+        String client = remote;
+        for (int i = hops.length - 1; i >= 0; i--) {
+            String hop = hops[i].trim();
+            if (hop.isEmpty()) {
+                continue;
+            }
+            client = hop;
+            if (!trustedProxies.contains(hop)) {
+                break;
+            }
+        }
+        return client;
+    }
+}
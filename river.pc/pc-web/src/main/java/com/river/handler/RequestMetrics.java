@@ -0,0 +1,299 @@
+package com.river.handler;
+
+import com.river.util.metrics.Histogram;
+import com.river.util.metrics.MetricsSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * create by river  2018/7/13
+ * desc: 接口请求指标 按 请求方法 + 路由(@RequestMapping 的路径模板) 统计耗时、响应大小、状态码和处理中的请求数
+ * 没有匹配到 controller 的请求路由为 UNMATCHED, 路由数超过 max-routes 后的新路由计入 OTHER
+ * 请求方法由客户端决定, 标准方法以外的计为 OTHER, 防止任意方法名占满路由数
+ * summary-interval 大于0时按周期输出一行统计日志, 只包含该周期内有请求的路由
+ */
+@Component
+public class RequestMetrics implements MetricsSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(RequestMetrics.class);
+
+    /**
+     * 请求的路由 由 RequestMetricsInterceptor 在找到 controller 后设置
+     */
+    static final String ROUTE_ATTRIBUTE = RequestMetrics.class.getName() + ".route";
+
+    private static final String UNMATCHED = "UNMATCHED";
+    private static final String OTHER = "OTHER";
+    private static final int MAX_STATUS = 600;
+    private static final Set<String> METHODS = new HashSet<String>(Arrays.asList(
+            "GET", "HEAD", "POST", "PUT", "PATCH", "DELETE", "OPTIONS", "TRACE"));
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /**
+     * 统计日志的周期(秒) 0 不输出
+     */
+    @Value("${web.metrics.summary-interval:0}")
+    private long summaryInterval;
+
+    /**
+     * 最多统计的路由数
+     */
+    @Value("${web.metrics.max-routes:500}")
+    private int maxRoutes;
+
+    private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<String, Route>();
+    private final LongAdder inFlight = new LongAdder();
+    /**
+     * 路由数超过上限后的 OTHER 路由
+     */
+    private volatile Route other;
+
+    private ScheduledExecutorService summaryExecutor;
+
+    @PostConstruct
+    public void init() {
+        if (summaryInterval <= 0) {
+            return;
+        }
+        summaryExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "web-metrics-summary");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        summaryExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    logSummary();
+                } catch (Exception e) {
+                    logger.warn("接口统计日志输出异常", e);
+                }
+            }
+        }, summaryInterval, summaryInterval, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (summaryExecutor != null) {
+            summaryExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 请求开始
+     */
+    void started() {
+        inFlight.increment();
+    }
+
+    /**
+     * 找到处理请求的 controller 路由确定后计入该路由的处理中请求数
+     */
+    void handlerFound(HttpServletRequest request) {
+        if (request.getDispatcherType() != DispatcherType.REQUEST || request.getAttribute(ROUTE_ATTRIBUTE) != null) {
+            return;
+        }
+        String pattern = (String) request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        if (pattern == null) {
+            return;
+        }
+        Route route = route(request.getMethod(), pattern);
+        route.inFlight.increment();
+        request.setAttribute(ROUTE_ATTRIBUTE, route);
+    }
+
+    /**
+     * 请求结束
+     *
+     * @param status 响应状态码
+     * @param nanos  耗时(纳秒)
+     * @param bytes  响应大小(字节)
+     */
+    void completed(HttpServletRequest request, int status, long nanos, long bytes) {
+        inFlight.decrement();
+        Route route = (Route) request.getAttribute(ROUTE_ATTRIBUTE);
+        if (route != null) {
+            route.inFlight.decrement();
+        } else {
+            String pattern = (String) request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            route = route(request.getMethod(), pattern == null ? UNMATCHED : pattern);
+        }
+        route.record(status, nanos, bytes);
+    }
+
+    private Route route(String method, String pattern) {
+        if (!METHODS.contains(method)) {
+            method = OTHER;
+        }
+        String key = method + ' ' + pattern;
+        Route route = routes.get(key);
+        if (route != null) {
+            return route;
+        }
+        if (routes.size() >= maxRoutes) {
+            // 超出上限后每次都会走到这里, 直接返回 OTHER 不再分配
+            return other();
+        }
+        Route created = new Route(method, pattern, summaryInterval > 0);
+        route = routes.putIfAbsent(key, created);
+        return route == null ? created : route;
+    }
+
+    private Route other() {
+        Route route = other;
+        if (route == null) {
+            Route created = new Route(OTHER, OTHER, summaryInterval > 0);
+            route = routes.putIfAbsent(OTHER, created);
+            other = route = route == null ? created : route;
+        }
+        return route;
+    }
+
+    private void logSummary() {
+        StringBuilder line = new StringBuilder(256);
+        for (Route route : new TreeMap<String, Route>(routes).values()) {
+            Window window = route.swapWindow();
+            long count = window == null ? 0 : window.latency.count();
+            if (count == 0) {
+                continue;
+            }
+            if (line.length() > 0) {
+                line.append(" | ");
+            }
+            line.append(route.method).append(' ').append(route.pattern).append(" n=").append(count)
+                    .append(" p50=").append(String.format("%.1f", window.latency.quantile(0.5) / NANOS_PER_MILLI))
+                    .append("ms p99=").append(String.format("%.1f", window.latency.quantile(0.99) / NANOS_PER_MILLI))
+                    .append("ms 5xx=").append(window.serverErrors.sum());
+        }
+        if (line.length() > 0) {
+            logger.info("接口统计 {}s {}", summaryInterval, line);
+        }
+    }
+
+    @Override
+    public void writeMetrics(StringBuilder out) {
+        Map<String, Route> sorted = new TreeMap<String, Route>(routes);
+        out.append("# TYPE web_requests_in_flight gauge\n");
+        out.append("web_requests_in_flight ").append(inFlight.sum()).append('\n');
+        if (sorted.isEmpty()) {
+            return;
+        }
+        out.append("# TYPE web_route_requests_in_flight gauge\n");
+        for (Route route : sorted.values()) {
+            out.append("web_route_requests_in_flight{").append(route.labels).append("} ")
+                    .append(route.inFlight.sum()).append('\n');
+        }
+        out.append("# TYPE web_requests_total counter\n");
+        for (Route route : sorted.values()) {
+            for (int status = 0; status < MAX_STATUS; status++) {
+                LongAdder count = route.statuses.get(status);
+                if (count != null) {
+                    out.append("web_requests_total{").append(route.labels).append(",status=\"").append(status)
+                            .append("\"} ").append(count.sum()).append('\n');
+                }
+            }
+        }
+        out.append("# HELP web_request_duration_seconds request latency from the servlet filter to the last byte written\n");
+        out.append("# TYPE web_request_duration_seconds histogram\n");
+        for (Route route : sorted.values()) {
+            route.latency.write(out, "web_request_duration_seconds", route.labels, NANOS_PER_SECOND);
+        }
+        out.append("# TYPE web_response_size_bytes histogram\n");
+        for (Route route : sorted.values()) {
+            route.size.write(out, "web_response_size_bytes", route.labels, 1);
+        }
+    }
+
+    private static class Route {
+
+        private final String method;
+        private final String pattern;
+        /**
+         * 指标标签 method="GET",route="/test"
+         */
+        private final String labels;
+        private final LongAdder inFlight = new LongAdder();
+    /**
+     * 路由数超过上限后的 OTHER 路由
+     */
+    private volatile Route other;
+        private final Histogram latency = new Histogram(Histogram.LATENCY_BOUNDS);
+        private final Histogram size = new Histogram(Histogram.SIZE_BOUNDS);
+        /**
+         * 状态码 -> 次数 用到时才创建
+         */
+        private final AtomicReferenceArray<LongAdder> statuses = new AtomicReferenceArray<LongAdder>(MAX_STATUS);
+        /**
+         * 当前统计日志周期 未开启统计日志时为null
+         */
+        private volatile Window window;
+
+        Route(String method, String pattern, boolean summary) {
+            this.method = method;
+            this.pattern = pattern;
+            this.labels = "method=\"" + Histogram.escape(method) + "\",route=\"" + Histogram.escape(pattern) + "\"";
+            this.window = summary ? new Window() : null;
+        }
+
+        void record(int status, long nanos, long bytes) {
+            latency.record(nanos);
+            size.record(bytes);
+            int index = status > 0 && status < MAX_STATUS ? status : 0;
+            LongAdder count = statuses.get(index);
+            if (count == null) {
+                statuses.compareAndSet(index, null, new LongAdder());
+                count = statuses.get(index);
+            }
+            count.increment();
+            Window current = window;
+            if (current != null) {
+                current.latency.record(nanos);
+                if (status >= 500) {
+                    current.serverErrors.increment();
+                }
+            }
+        }
+
+        /**
+         * 开始新的统计周期 返回上一个周期
+         */
+        Window swapWindow() {
+            Window last = window;
+            if (last != null) {
+                window = new Window();
+            }
+            return last;
+        }
+    }
+
+    private static class Window {
+
+        private final Histogram latency = new Histogram(Histogram.LATENCY_BOUNDS);
+        private final LongAdder serverErrors = new LongAdder();
+    }
+}
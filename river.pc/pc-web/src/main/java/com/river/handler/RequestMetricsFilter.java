@@ -0,0 +1,87 @@
+package com.river.handler;
+
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.annotation.Resource;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * create by river  2018/7/13
+ * desc: 接口请求指标 记录每个请求的耗时、状态码和响应大小, 在其他 filter 之外执行, 包含响应缓存命中的请求
+ * 异步请求在异步处理完成(AsyncListener.onComplete)时记录, 抛出异常的请求状态码记为 500
+ */
+@Component
+public class RequestMetricsFilter extends OncePerRequestFilter implements Ordered {
+
+    @Resource
+    private RequestMetrics requestMetrics;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        long start = System.nanoTime();
+        requestMetrics.started();
+        RequestMetricsWrapper wrapper = new RequestMetricsWrapper(response);
+        boolean failed = false;
+        try {
+            chain.doFilter(request, wrapper);
+        } catch (Throwable e) {
+            failed = true;
+            throw e;
+        } finally {
+            if (!failed && request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new CompleteListener(request, wrapper, start));
+            } else {
+                requestMetrics.completed(request, failed ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : wrapper.getStatus(),
+                        System.nanoTime() - start, wrapper.getSize());
+            }
+        }
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE + 10;
+    }
+
+    private class CompleteListener implements AsyncListener {
+
+        private final HttpServletRequest request;
+        private final RequestMetricsWrapper wrapper;
+        private final long start;
+
+        CompleteListener(HttpServletRequest request, RequestMetricsWrapper wrapper, long start) {
+            this.request = request;
+            this.wrapper = wrapper;
+            this.start = start;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            requestMetrics.completed(request, wrapper.getStatus(), System.nanoTime() - start, wrapper.getSize());
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        /**
+         * 再次开始异步处理时重新注册
+         */
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
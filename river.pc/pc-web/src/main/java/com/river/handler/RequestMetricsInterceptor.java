@@ -0,0 +1,25 @@
+package com.river.handler;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * create by river  2018/7/13
+ * desc: 接口请求指标 找到 controller 后记录请求的路由, 计入该路由的处理中请求数
+ */
+@Component
+public class RequestMetricsInterceptor extends HandlerInterceptorAdapter {
+
+    @Resource
+    private RequestMetrics requestMetrics;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        requestMetrics.handlerFound(request);
+        return true;
+    }
+}
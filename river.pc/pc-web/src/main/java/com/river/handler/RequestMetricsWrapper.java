@@ -0,0 +1,183 @@
+package com.river.handler;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * create by river  2018/7/13
+ * desc: 统计响应大小的响应包装 记录输出流写入的字节数, Writer 写入的按响应编码换算为字节数
+ * 没有写入内容(HEAD、304)时使用设置的 Content-Length
+ */
+class RequestMetricsWrapper extends HttpServletResponseWrapper {
+
+    private long written;
+    private long contentLength = -1;
+    private ServletOutputStream outputStream;
+    private PrintWriter writer;
+
+    RequestMetricsWrapper(HttpServletResponse response) {
+        super(response);
+    }
+
+    long getSize() {
+        return written > 0 ? written : Math.max(contentLength, 0);
+    }
+
+    @Override
+    public void setContentLength(int len) {
+        contentLength = len;
+        super.setContentLength(len);
+    }
+
+    @Override
+    public void setContentLengthLong(long len) {
+        contentLength = len;
+        super.setContentLengthLong(len);
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (outputStream == null) {
+            outputStream = new CountingOutputStream(super.getOutputStream());
+        }
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            writer = new CountingWriter(super.getWriter(), Charset.forName(getCharacterEncoding()));
+        }
+        return writer;
+    }
+
+    private class CountingOutputStream extends ServletOutputStream {
+
+        private final ServletOutputStream delegate;
+
+        CountingOutputStream(ServletOutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+            written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            written += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            delegate.setWriteListener(writeListener);
+        }
+    }
+
+    /**
+     * UTF-8 和单字节编码直接按字符计算字节数, 其他编码按块编码后计算
+     */
+    private class CountingWriter extends PrintWriter {
+
+        private final boolean utf8;
+        /**
+         * 单字节编码时为null
+         */
+        private final CharsetEncoder encoder;
+
+        CountingWriter(PrintWriter delegate, Charset charset) {
+            super(delegate);
+            CharsetEncoder encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.utf8 = StandardCharsets.UTF_8.equals(charset);
+            this.encoder = utf8 || encoder.maxBytesPerChar() == 1 ? null : encoder;
+        }
+
+        @Override
+        public void write(int c) {
+            super.write(c);
+            if (utf8) {
+                written += utf8Length((char) c);
+            } else {
+                written += encoder == null ? 1 : encodedLength(CharBuffer.wrap(new char[]{(char) c}));
+            }
+        }
+
+        @Override
+        public void write(char[] buf, int off, int len) {
+            super.write(buf, off, len);
+            if (utf8) {
+                for (int i = off; i < off + len; i++) {
+                    written += utf8Length(buf[i]);
+                }
+            } else {
+                written += encoder == null ? len : encodedLength(CharBuffer.wrap(buf, off, len));
+            }
+        }
+
+        @Override
+        public void write(String s, int off, int len) {
+            super.write(s, off, len);
+            if (utf8) {
+                for (int i = off; i < off + len; i++) {
+                    written += utf8Length(s.charAt(i));
+                }
+            } else {
+                written += encoder == null ? len : encodedLength(CharBuffer.wrap(s, off, off + len));
+            }
+        }
+
+        /**
+         * 代理对的4个字节记在高位代理上, 两半分在两次写入时也不会错
+         */
+        private int utf8Length(char c) {
+            if (c < 0x80) {
+                return 1;
+            }
+            if (c < 0x800) {
+                return 2;
+            }
+            if (Character.isHighSurrogate(c)) {
+                return 4;
+            }
+            return Character.isLowSurrogate(c) ? 0 : 3;
+        }
+
+        private int encodedLength(CharBuffer chars) {
+            try {
+                return encoder.encode(chars).remaining();
+            } catch (CharacterCodingException e) {
+                return chars.length();
+            }
+        }
+    }
+}
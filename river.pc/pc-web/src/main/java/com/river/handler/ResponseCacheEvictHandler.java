@@ -0,0 +1,52 @@
+package com.river.handler;
+
+import com.river.annotation.ResponseCacheEvict;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.annotation.Resource;
+import java.util.List;
+
+/**
+ * create by river  2018/7/12
+ * desc: 响应缓存失效切面 方法正常返回后失效带有指定标签的缓存, 抛出异常时不失效
+ * 失效失败只记录日志, 不影响方法的返回结果, 缓存最迟在过期后更新
+ */
+@Component
+@Aspect
+@Order(3)
+public class ResponseCacheEvictHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResponseCacheEvictHandler.class);
+
+    @Resource
+    private ResponseCacheManager responseCacheManager;
+
+    @Pointcut("execution(* com.river.controller..*.*(..))")
+    public void controllerPoint() {
+
+    }
+
+    @Around("controllerPoint() && @annotation(responseCacheEvict)")
+    public Object doEvict(ProceedingJoinPoint proceedingJoinPoint, ResponseCacheEvict responseCacheEvict) throws Throwable {
+        Object result = proceedingJoinPoint.proceed();
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        List<String> tags = ResponseCacheManager.resolveTags(responseCacheEvict.tags(),
+                attributes instanceof ServletRequestAttributes ? ((ServletRequestAttributes) attributes).getRequest() : null);
+        try {
+            responseCacheManager.evict(tags);
+        } catch (Exception e) {
+            logger.error("响应缓存失效异常 tags={}", tags, e);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,37 @@
+package com.river.handler;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.annotation.Resource;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * create by river  2018/7/12
+ * desc: 响应缓存 GET 请求的响应包装为 ResponseCacheWrapper, 请求的方法有 @ResponseCache 且未命中缓存时,
+ * 响应内容先写入内存, controller 执行完成后由 ResponseCacheManager 生成 ETag、输出并保存
+ */
+@Component
+public class ResponseCacheFilter extends OncePerRequestFilter {
+
+    @Resource
+    private ResponseCacheManager responseCacheManager;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (!"GET".equals(request.getMethod())) {
+            chain.doFilter(request, response);
+            return;
+        }
+        ResponseCacheWrapper wrapper = new ResponseCacheWrapper(response);
+        chain.doFilter(request, wrapper);
+        if (wrapper.isCapturing()) {
+            responseCacheManager.complete(request, wrapper);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.river.handler;
+
+import com.river.annotation.ResponseCache;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+import org.springframework.web.util.WebUtils;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * create by river  2018/7/12
+ * desc: 响应缓存 执行 controller 之前查找缓存, 命中时直接输出(或返回 304)不再执行 controller,
+ * 未命中的 GET 请求通知 ResponseCacheWrapper 缓存响应内容
+ */
+@Component
+public class ResponseCacheInterceptor extends HandlerInterceptorAdapter {
+
+    private static final String CONTROLLER_PACKAGE = "com.river.controller.";
+
+    /**
+     * 没有 @ResponseCache 的方法
+     */
+    private static final CacheSpec NONE = new CacheSpec(null, null);
+
+    @Resource
+    private ResponseCacheManager responseCacheManager;
+
+    private final ConcurrentMap<Method, CacheSpec> specs = new ConcurrentHashMap<Method, CacheSpec>();
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!(handler instanceof HandlerMethod)) {
+            return true;
+        }
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return true;
+        }
+        HandlerMethod handlerMethod = (HandlerMethod) handler;
+        CacheSpec spec = specs.get(handlerMethod.getMethod());
+        if (spec == null) {
+            spec = spec(handlerMethod);
+            specs.putIfAbsent(handlerMethod.getMethod(), spec);
+        }
+        if (spec == NONE) {
+            return true;
+        }
+        ResponseCache cache = spec.cache;
+        String key = responseCacheManager.key(spec.name, request, cache.headers());
+        CachedResponse cached = responseCacheManager.get(key, cache.local());
+        if (cached != null) {
+            responseCacheManager.write(cached, request, response);
+            return false;
+        }
+        /**
+         * HEAD 请求的响应内容不会输出, 只有 GET 请求保存缓存
+         */
+        if ("GET".equals(method)) {
+            ResponseCacheWrapper wrapper = WebUtils.getNativeResponse(response, ResponseCacheWrapper.class);
+            if (wrapper != null) {
+                wrapper.capture(key, cache.ttl(), cache.local(), responseCacheManager.stamp(key, cache.local()),
+                        ResponseCacheManager.resolveTags(cache.tags(), request));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * controller 没有抛出异常时才会执行 标记响应可以保存
+     */
+    @Override
+    public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+                           ModelAndView modelAndView) {
+        ResponseCacheWrapper wrapper = WebUtils.getNativeResponse(response, ResponseCacheWrapper.class);
+        if (wrapper != null && wrapper.isCapturing()) {
+            wrapper.handled();
+        }
+    }
+
+    private CacheSpec spec(HandlerMethod handlerMethod) {
+        ResponseCache cache = handlerMethod.getMethodAnnotation(ResponseCache.class);
+        if (cache == null || cache.ttl() <= 0
+                || !handlerMethod.getBeanType().getName().startsWith(CONTROLLER_PACKAGE)
+                || AsyncControllerExceptionResolver.isAsyncType(handlerMethod.getMethod().getReturnType())) {
+            return NONE;
+        }
+        String name = StringUtils.isBlank(cache.key())
+                ? handlerMethod.getBeanType().getSimpleName() + "." + handlerMethod.getMethod().getName()
+                : cache.key();
+        return new CacheSpec(cache, name);
+    }
+
+    private static class CacheSpec {
+
+        private final ResponseCache cache;
+        /**
+         * 缓存名
+         */
+        private final String name;
+
+        CacheSpec(ResponseCache cache, String name) {
+            this.cache = cache;
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package com.river.handler;
+
+import com.river.util.metrics.MetricsSource;
+import com.river.util.redis.NearCache;
+import com.river.util.redis.RedisManager;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * create by river  2018/7/12
+ * desc: 接口响应缓存 响应保存在 redis 中, @ResponseCache(local = true) 时再缓存在本地
+ * 每个标签对应一个 redis zset, 保存带有该标签的缓存键, 分数为缓存的过期时间(毫秒), 保存时在同一个脚本中移除已过期的键,
+ * 失效时每次取最前面的一批, 删除这些缓存并从 zset 中移除后再取下一批, 同时保存的缓存和过期移除不会导致漏删,
+ * 并通知其他节点清除本地缓存
+ * redis 异常时按未命中处理, 不影响接口本身
+ */
+@Component
+public class ResponseCacheManager implements MetricsSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResponseCacheManager.class);
+
+    /**
+     * 标签 zset 写入 KEYS[1] 为标签, ARGV[1] 时间(秒), ARGV[2] 缓存的过期时间(毫秒), ARGV[3] 当前时间(毫秒), ARGV[4] 缓存键
+     * 写入后移除已过期的缓存键并设置时间
+     */
+    private static final RedisScript<Long> TAG_ADD = new DefaultRedisScript<Long>(
+            "redis.call('ZADD', KEYS[1], ARGV[2], ARGV[4]) "
+                    + "redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', ARGV[3]) "
+                    + "redis.call('EXPIRE', KEYS[1], ARGV[1]) "
+                    + "return 1", Long.class);
+
+    @Resource
+    private RedisManager redisManager;
+
+    @Resource
+    private RedisTemplate<String, String> redisTemplate;
+
+    /**
+     * redis 键前缀
+     */
+    @Value("${web.response-cache.prefix:response-cache:}")
+    private String prefix;
+
+    /**
+     * 标签集合的最短保留时间(秒)
+     */
+    @Value("${web.response-cache.tag-ttl:3600}")
+    private long tagTtl;
+
+    /**
+     * 失效时每批删除的缓存个数
+     */
+    @Value("${web.response-cache.evict-batch-size:500}")
+    private int evictBatchSize;
+
+    @Value("${web.response-cache.local.enabled:false}")
+    private boolean localEnabled;
+
+    @Value("${web.response-cache.local.max-size:1000}")
+    private int localMaxSize;
+
+    @Value("${web.response-cache.local.ttl:10}")
+    private long localTtl;
+
+    @Value("${web.response-cache.local.channel:response-cache:invalidate}")
+    private String localChannel;
+
+    /**
+     * 本地缓存 未开启时为null
+     */
+    private NearCache localCache;
+
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        if (localEnabled) {
+            localCache = new NearCache(localMaxSize, localTtl, localChannel);
+        }
+    }
+
+    public NearCache getLocalCache() {
+        return localCache;
+    }
+
+    /**
+     * 失效带有指定标签的响应缓存
+     *
+     * @param tags 标签
+     */
+    public void evict(Collection<String> tags) {
+        for (String tag : tags) {
+            final byte[] tagKey = rawKey(tagKey(tag));
+            while (true) {
+                Set<byte[]> members = redisTemplate.execute(new RedisCallback<Set<byte[]>>() {
+                    @Override
+                    public Set<byte[]> doInRedis(RedisConnection connection) throws DataAccessException {
+                        return connection.zRange(tagKey, 0, evictBatchSize - 1);
+                    }
+                });
+                if (members == null || members.isEmpty()) {
+                    break;
+                }
+                evict(members);
+                final byte[][] processed = members.toArray(new byte[members.size()][]);
+                redisTemplate.execute(new RedisCallback<Long>() {
+                    @Override
+                    public Long doInRedis(RedisConnection connection) throws DataAccessException {
+                        return connection.zRem(tagKey, processed);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * 删除一批缓存 并清除本地缓存
+     */
+    private void evict(Set<byte[]> members) {
+        List<String> keys = new ArrayList<String>(members.size());
+        for (byte[] member : members) {
+            keys.add(new String(member, StandardCharsets.UTF_8));
+        }
+        redisManager.del(keys);
+        evicted.add(keys.size());
+        if (localCache != null) {
+            for (String key : keys) {
+                localCache.invalidate(key);
+            }
+            redisTemplate.convertAndSend(localCache.getChannel(), StringUtils.join(keys, '\n'));
+        }
+    }
+
+    public void evict(String... tags) {
+        evict(Arrays.asList(tags));
+    }
+
+    private String tagKey(String tag) {
+        return prefix + "tags:" + tag;
+    }
+
+    @SuppressWarnings("unchecked")
+    private byte[] rawKey(String key) {
+        return ((RedisSerializer<String>) redisTemplate.getKeySerializer()).serialize(key);
+    }
+
+    /**
+     * 缓存键 前缀 + 缓存名 + 请求路径、参数和指定请求头的摘要
+     */
+    String key(String name, HttpServletRequest request, String[] headers) {
+        StringBuilder canonical = new StringBuilder(128);
+        append(canonical, request.getRequestURI());
+        for (Map.Entry<String, String[]> param : new TreeMap<String, String[]>(request.getParameterMap()).entrySet()) {
+            append(canonical, param.getKey());
+            canonical.append(param.getValue().length);
+            for (String value : param.getValue()) {
+                append(canonical, value);
+            }
+        }
+        for (String header : headers) {
+            append(canonical, StringUtils.defaultString(request.getHeader(header)));
+        }
+        return prefix + name + ":" + DigestUtils.md5DigestAsHex(canonical.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 带长度写入 避免不同的参数拼接出相同的内容
+     */
+    private static void append(StringBuilder canonical, String value) {
+        canonical.append(value.length()).append(':').append(value);
+    }
+
+    /**
+     * 替换标签中的 {name} 为同名的路径变量或请求参数 都不存在时替换为空
+     */
+    static List<String> resolveTags(String[] templates, HttpServletRequest request) {
+        List<String> tags = new ArrayList<String>(templates.length);
+        for (String template : templates) {
+            int start = template.indexOf('{');
+            if (start < 0) {
+                tags.add(template);
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, String> variables = request == null ? null
+                    : (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+            StringBuilder tag = new StringBuilder(template.length() + 16);
+            int from = 0;
+            while (start >= 0) {
+                int end = template.indexOf('}', start + 1);
+                if (end < 0) {
+                    break;
+                }
+                String name = template.substring(start + 1, end);
+                String value = variables == null ? null : variables.get(name);
+                if (value == null && request != null) {
+                    value = request.getParameter(name);
+                }
+                tag.append(template, from, start).append(StringUtils.defaultString(value));
+                from = end + 1;
+                start = template.indexOf('{', from);
+            }
+            tags.add(tag.append(template, from, template.length()).toString());
+        }
+        return tags;
+    }
+
+    /**
+     * 读取缓存 先读本地缓存再读 redis
+     *
+     * @return 未命中返回null
+     */
+    CachedResponse get(String key, boolean local) {
+        NearCache cache = local ? localCache : null;
+        long stamp = 0;
+        if (cache != null) {
+            Object cached = cache.get(key, NearCache.VALUE_FIELD);
+            if (cached instanceof CachedResponse && !((CachedResponse) cached).isExpired()) {
+                localHits.increment();
+                return (CachedResponse) cached;
+            }
+            stamp = cache.stamp(key);
+        }
+        CachedResponse response = null;
+        try {
+            String value = redisManager.get(key);
+            response = value == null ? null : CachedResponse.decode(value);
+        } catch (Exception e) {
+            errors.increment();
+            logger.warn("响应缓存读取异常 key={}", key, e);
+        }
+        if (response == null || response.isExpired()) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        if (cache != null) {
+            cache.put(key, NearCache.VALUE_FIELD, response, stamp);
+        }
+        return response;
+    }
+
+    /**
+     * 本地缓存的版本 在 controller 执行前获取, 执行期间缓存被失效时不再保存到本地
+     */
+    long stamp(String key, boolean local) {
+        return local && localCache != null ? localCache.stamp(key) : 0;
+    }
+
+    /**
+     * 输出缓存的响应
+     */
+    void write(CachedResponse cached, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (cached.write(request, response)) {
+            notModified.increment();
+        }
+    }
+
+    /**
+     * controller 执行完成 输出响应内容, 请求成功时保存到缓存
+     */
+    void complete(HttpServletRequest request, ResponseCacheWrapper wrapper) throws IOException {
+        HttpServletResponse response = (HttpServletResponse) wrapper.getResponse();
+        byte[] body = wrapper.getCaptured();
+        CachedResponse cached = null;
+        if (wrapper.isHandled() && wrapper.getStatus() == HttpServletResponse.SC_OK && !request.isAsyncStarted()
+                && request.getAttribute(WebControllerExceptionHandler.EXCEPTION_ATTRIBUTE) == null) {
+            cached = CachedResponse.of(body, wrapper.getContentType(), wrapper.getCharacterEncoding(), wrapper.getTtl());
+        }
+        if (cached == null) {
+            if (body.length > 0) {
+                response.setContentLength(body.length);
+                response.getOutputStream().write(body);
+            }
+            return;
+        }
+        write(cached, request, response);
+        String key = wrapper.getKey();
+        try {
+            redisManager.set(key, cached.encode(), wrapper.getTtl());
+            long now = System.currentTimeMillis();
+            Object[] args = {bytes(Math.max(wrapper.getTtl(), tagTtl)), bytes(now + wrapper.getTtl() * 1000), bytes(now),
+                    key.getBytes(StandardCharsets.UTF_8)};
+            for (String tag : wrapper.getTags()) {
+                redisTemplate.execute(TAG_ADD, null, null, Collections.singletonList(tagKey(tag)), args);
+            }
+            stores.increment();
+        } catch (Exception e) {
+            errors.increment();
+            logger.warn("响应缓存保存异常 key={}", key, e);
+            return;
+        }
+        if (wrapper.isLocal() && localCache != null) {
+            localCache.put(key, NearCache.VALUE_FIELD, cached, wrapper.getStamp());
+        }
+    }
+
+    private static byte[] bytes(long value) {
+        return String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void writeMetrics(StringBuilder out) {
+        out.append("# TYPE web_response_cache_requests_total counter\n");
+        out.append("web_response_cache_requests_total{result=\"local_hit\"} ").append(localHits.sum()).append('\n');
+        out.append("web_response_cache_requests_total{result=\"hit\"} ").append(hits.sum()).append('\n');
+        out.append("web_response_cache_requests_total{result=\"miss\"} ").append(misses.sum()).append('\n');
+        out.append("# TYPE web_response_cache_not_modified_total counter\n");
+        out.append("web_response_cache_not_modified_total ").append(notModified.sum()).append('\n');
+        out.append("# TYPE web_response_cache_stores_total counter\n");
+        out.append("web_response_cache_stores_total ").append(stores.sum()).append('\n');
+        out.append("# TYPE web_response_cache_evicted_total counter\n");
+        out.append("web_response_cache_evicted_total ").append(evicted.sum()).append('\n');
+        out.append("# TYPE web_response_cache_errors_total counter\n");
+        out.append("web_response_cache_errors_total ").append(errors.sum()).append('\n');
+    }
+}
@@ -0,0 +1,209 @@
+package com.river.handler;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * create by river  2018/7/12
+ * desc: 响应缓存的响应包装 默认直接输出, ResponseCacheInterceptor 调用 capture 后响应内容写入内存,
+ * 请求结束时由 ResponseCacheFilter 输出, controller 正常执行完成(handled)时保存
+ */
+class ResponseCacheWrapper extends HttpServletResponseWrapper {
+
+    private String key;
+    private long ttl;
+    private boolean local;
+    /**
+     * 开始缓存时本地缓存的版本
+     */
+    private long stamp;
+    private List<String> tags;
+    /**
+     * controller 正常执行完成 参数解析失败等由异常处理器输出的响应不缓存
+     */
+    private boolean handled;
+
+    private ByteArrayOutputStream buffer;
+    private ServletOutputStream outputStream;
+    private PrintWriter writer;
+    /**
+     * 开始缓存前已经获取过原响应的输出流
+     */
+    private boolean streamUsed;
+
+    ResponseCacheWrapper(HttpServletResponse response) {
+        super(response);
+    }
+
+    /**
+     * 开始缓存响应内容
+     *
+     * @return 响应已经开始输出时返回false
+     */
+    boolean capture(String key, long ttl, boolean local, long stamp, List<String> tags) {
+        if (streamUsed || isCommitted()) {
+            return false;
+        }
+        this.key = key;
+        this.ttl = ttl;
+        this.local = local;
+        this.stamp = stamp;
+        this.tags = tags;
+        this.buffer = new ByteArrayOutputStream(1024);
+        return true;
+    }
+
+    void handled() {
+        this.handled = true;
+    }
+
+    boolean isHandled() {
+        return handled;
+    }
+
+    boolean isCapturing() {
+        return buffer != null;
+    }
+
+    byte[] getCaptured() {
+        if (writer != null) {
+            writer.flush();
+        }
+        return buffer.toByteArray();
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    long getTtl() {
+        return ttl;
+    }
+
+    boolean isLocal() {
+        return local;
+    }
+
+    long getStamp() {
+        return stamp;
+    }
+
+    List<String> getTags() {
+        return tags;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (buffer == null) {
+            streamUsed = true;
+            return super.getOutputStream();
+        }
+        if (writer != null) {
+            throw new IllegalStateException("getWriter() has already been called");
+        }
+        if (outputStream == null) {
+            outputStream = new BufferOutputStream();
+        }
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (buffer == null) {
+            streamUsed = true;
+            return super.getWriter();
+        }
+        if (outputStream != null) {
+            throw new IllegalStateException("getOutputStream() has already been called");
+        }
+        if (writer == null) {
+            writer = new PrintWriter(new OutputStreamWriter(buffer, getCharacterEncoding()));
+        }
+        return writer;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (buffer == null) {
+            super.flushBuffer();
+        } else if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    /**
+     * 缓存时长度在输出时设置
+     */
+    @Override
+    public void setContentLength(int len) {
+        if (buffer == null) {
+            super.setContentLength(len);
+        }
+    }
+
+    @Override
+    public void setContentLengthLong(long len) {
+        if (buffer == null) {
+            super.setContentLengthLong(len);
+        }
+    }
+
+    @Override
+    public void resetBuffer() {
+        super.resetBuffer();
+        if (buffer != null) {
+            if (writer != null) {
+                writer.flush();
+            }
+            buffer.reset();
+        }
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        if (buffer != null) {
+            if (writer != null) {
+                writer.flush();
+            }
+            buffer.reset();
+        }
+    }
+
+    private class BufferOutputStream extends ServletOutputStream {
+
+        @Override
+        public void write(int b) {
+            buffer.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.write(b, off, len);
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        /**
+         * 写入内存始终可写 直接通知可以写入
+         */
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            try {
+                writeListener.onWritePossible();
+            } catch (IOException e) {
+                writeListener.onError(e);
+            }
+        }
+    }
+}
@@ -9,19 +9,31 @@ import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.hibernate.validator.constraints.Mod11Check;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.lang.reflect.Array;
 
 /**
  * create by river  2018/5/16
- * desc:
+ * desc: controller 异常统一转换为 WebDTO 返回结构
  */
 @Component
 @Aspect
+@Order(1)
 public class WebControllerExceptionHandler {
 
+    /**
+     * controller 抛出的异常 转换为返回结构后仍放在该请求属性中, 响应缓存等据此判断请求是否成功
+     */
+    public static final String EXCEPTION_ATTRIBUTE = WebControllerExceptionHandler.class.getName() + ".exception";
+
     private static final Logger logger = LoggerFactory.getLogger(WebControllerExceptionHandler.class);
 
     /**
@@ -32,24 +44,74 @@ public class WebControllerExceptionHandler {
 
     }
 
+    /**
+     * 捕获 controller 的异常并转换为 WebDTO
+     * 返回 String 的方法按原有方式输出 JSON 字符串; 其他返回类型能直接返回 WebDTO 时返回 WebDTO,
+     * 否则将 WebDTO 放入请求属性并返回 null(基本类型返回其默认值, 返回 null 会导致 AopInvocationException),
+     * 由 WebDTOReturnValueHandler 输出
+     */
     @Around("controllerPoint() && @annotation(org.springframework.web.bind.annotation.ResponseBody)")
-    public String doAroundAdvice(ProceedingJoinPoint proceedingJoinPoint) throws Throwable {
-        logger.info("切面【doAroundAdvice】执行的方法【" + proceedingJoinPoint.getSignature().getName() +"】");
-        WebDTO<Object> dto = new WebDTO<Object>();
-        String result = null;
+    public Object doAroundAdvice(ProceedingJoinPoint proceedingJoinPoint) throws Throwable {
+        if (logger.isDebugEnabled()) {
+            logger.debug("切面【doAroundAdvice】执行的方法【{}】", proceedingJoinPoint.getSignature().getName());
+        }
+        Class<?> returnType = ((MethodSignature) proceedingJoinPoint.getSignature()).getReturnType();
+        WebDTO<Object> dto;
         try{
             /**
              * 执行目标方法
              */
-            result = (String) proceedingJoinPoint.proceed();
-        }catch (ServiceException e) {
+            Object result = proceedingJoinPoint.proceed();
+            if (returnType != String.class || StringUtils.isNotBlank((String) result)) {
+                return result;
+            }
+            dto = new WebDTO<Object>();
+        }catch (Exception e) {
+            RequestContextHolder.currentRequestAttributes()
+                    .setAttribute(EXCEPTION_ATTRIBUTE, e, RequestAttributes.SCOPE_REQUEST);
+            if (AsyncControllerExceptionResolver.isAsyncType(returnType)) {
+                /**
+                 * 异步接口在返回异步结果之前抛出的异常 交给 AsyncControllerExceptionResolver 转换
+                 */
+                throw e;
+            }
+            dto = errorDTO(e);
+        }
+        if (returnType == String.class) {
+            return JSONObject.toJSONString(dto);
+        }
+        if (returnType.isAssignableFrom(WebDTO.class)) {
+            return dto;
+        }
+        RequestContextHolder.currentRequestAttributes()
+                .setAttribute(WebDTOReturnValueHandler.ERROR_ATTRIBUTE, dto, RequestAttributes.SCOPE_REQUEST);
+        return defaultValue(returnType);
+    }
+
+    /**
+     * 返回类型的默认值 基本类型为 0/false, 其他为 null
+     */
+    private static Object defaultValue(Class<?> returnType) {
+        if (!returnType.isPrimitive() || returnType == void.class) {
+            return null;
+        }
+        return Array.get(Array.newInstance(returnType, 1), 0);
+    }
+
+    /**
+     * 异常转换为返回结构 业务异常返回其编码和信息, 其他异常返回系统异常
+     * 异步接口(Callable、CompletableFuture、DeferredResult)的异常由 AsyncControllerExceptionResolver 同样转换
+     */
+    static WebDTO<Object> errorDTO(Throwable e) {
+        WebDTO<Object> dto = new WebDTO<Object>();
+        if (e instanceof ServiceException) {
             logger.error("业务异常，异常信息",e);
-            dto.setResCode(e.getCode());
+            dto.setResCode(((ServiceException) e).getCode());
             dto.setResMsg(e.getMessage());
-        }catch (Exception e) {
+        } else {
             logger.error("系统异常，异常信息",e);
             dto.setResEnum(ResCodeEnum.sys_error);
         }
-        return StringUtils.isBlank(result) ? JSONObject.toJSONString(dto):result;
+        return dto;
     }
 }
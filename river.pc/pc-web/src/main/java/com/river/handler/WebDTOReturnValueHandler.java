@@ -0,0 +1,111 @@
+package com.river.handler;
+
+import com.alibaba.fastjson.JSON;
+import com.river.util.res.ResCodeEnum;
+import com.river.util.res.WebDTO;
+import com.river.util.res.WebDTOSerializer;
+import org.springframework.core.MethodParameter;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.method.support.ModelAndViewContainer;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import org.springframework.web.servlet.mvc.method.annotation.RequestResponseBodyMethodProcessor;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * create by river  2018/7/9
+ * desc: 统一返回结构 com.river.controller 下 @ResponseBody 方法的返回值(String 除外)包装为 WebDTO 后直接写入响应流
+ * 返回 WebDTO 的原样输出, 其他类型作为 data, 不再需要在 controller 中先转换为 JSON 字符串
+ * 序列化使用 fastjson 的线程内缓冲区, 不生成中间的 String; 只有编码和信息的结果(错误、无返回值)直接写出预先生成的字节
+ * 返回 String 的方法仍按原样输出, 兼容已有的接口
+ * 注册在 RequestResponseBodyMethodProcessor 之前, ResponseEntity、Callable 等类型仍由 Spring 原有的处理器处理
+ */
+@Component
+public class WebDTOReturnValueHandler implements HandlerMethodReturnValueHandler {
+
+    /**
+     * WebControllerExceptionHandler 捕获异常后 返回类型无法直接返回 WebDTO 时, 将错误结果放在该请求属性中
+     */
+    public static final String ERROR_ATTRIBUTE = WebDTOReturnValueHandler.class.getName() + ".error";
+
+    private static final String CONTROLLER_PACKAGE = "com.river.controller.";
+    private static final String CONTENT_TYPE = "application/json;charset=UTF-8";
+
+    @Resource
+    private RequestMappingHandlerAdapter requestMappingHandlerAdapter;
+
+    @PostConstruct
+    public void register() {
+        List<HandlerMethodReturnValueHandler> handlers = new ArrayList<HandlerMethodReturnValueHandler>(
+                requestMappingHandlerAdapter.getReturnValueHandlers());
+        int index = 0;
+        while (index < handlers.size() && !(handlers.get(index) instanceof RequestResponseBodyMethodProcessor)) {
+            index++;
+        }
+        handlers.add(index, this);
+        requestMappingHandlerAdapter.setReturnValueHandlers(handlers);
+    }
+
+    @Override
+    public boolean supportsReturnType(MethodParameter returnType) {
+        Class<?> type = returnType.getParameterType();
+        return isControllerResponseBody(returnType)
+                && !CharSequence.class.isAssignableFrom(type)
+                && type != byte[].class
+                && !org.springframework.core.io.Resource.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public void handleReturnValue(Object returnValue, MethodParameter returnType, ModelAndViewContainer mavContainer,
+                                  NativeWebRequest webRequest) throws Exception {
+        mavContainer.setRequestHandled(true);
+        WebDTO<?> dto = (WebDTO<?>) webRequest.getAttribute(ERROR_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (dto == null) {
+            dto = wrap(returnValue);
+        }
+        write(dto, webRequest.getNativeResponse(HttpServletResponse.class));
+    }
+
+    /**
+     * 是否为 com.river.controller 下的 @ResponseBody 方法
+     */
+    static boolean isControllerResponseBody(MethodParameter returnType) {
+        return returnType.hasMethodAnnotation(ResponseBody.class)
+                && returnType.getContainingClass().getName().startsWith(CONTROLLER_PACKAGE);
+    }
+
+    /**
+     * 将返回结构写入响应
+     */
+    void write(WebDTO<?> dto, HttpServletResponse response) throws IOException {
+        response.setContentType(CONTENT_TYPE);
+        byte[] payload = WebDTOSerializer.INSTANCE.prerendered(dto);
+        if (payload != null) {
+            response.setContentLength(payload.length);
+            response.getOutputStream().write(payload);
+            return;
+        }
+        JSON.writeJSONString(response.getOutputStream(), dto);
+    }
+
+    private WebDTO<?> wrap(Object returnValue) {
+        if (returnValue instanceof WebDTO) {
+            return (WebDTO<?>) returnValue;
+        }
+        WebDTO<Object> dto = new WebDTO<Object>();
+        dto.setResEnum(ResCodeEnum.SYS_SUCCESS);
+        if (returnValue != null) {
+            dto.setData(returnValue);
+        }
+        return dto;
+    }
+}